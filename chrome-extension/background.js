@@ -9,6 +9,8 @@ class AgentWebSocket {
         this.isConnected = false;
         this.messageQueue = [];
         this.activeTaskTabs = new Map();
+        this.prefetchTabs = new Map();
+        this.prefetchTargets = new Map();
     }
 
     connect() {
@@ -93,8 +95,22 @@ class AgentWebSocket {
         console.log('🎯 收到执行指令:', msg);
         const { taskId, stepId, data } = msg;
         
+        if (data.action === 'prefetch_url') {
+            this.prefetchUrl(data);
+            return;
+        }
+
         if (data.action === 'open_url') {
-            this.openUrlInNewTab(taskId, stepId, data);
+            if (data.prefetchId && this.prefetchTabs.has(data.prefetchId)) {
+                this.adoptPrefetchedTab(taskId, stepId, data);
+            } else {
+                this.openUrlInNewTab(taskId, stepId, data);
+            }
+            return;
+        }
+
+        if (data.action === 'screenshot') {
+            this.captureAndSendScreenshot(taskId, stepId);
             return;
         }
         
@@ -112,6 +128,82 @@ class AgentWebSocket {
         }
     }
 
+    // 流式解析阶段预打开页面，未被任务接管的标签页到期关闭（保留时间由后端随指令下发）
+    prefetchUrl(data) {
+        const url = data.target;
+        const prefetchId = data.prefetchId;
+        const ttl = data.timeout || 120000;
+
+        // 同一 prefetchId 再次下发：解析完成后的最终地址不同，原标签页改为加载最终地址
+        if (this.prefetchTargets.has(prefetchId)) {
+            console.log('⚡ 预打开页面改为:', url);
+            this.prefetchTargets.set(prefetchId, url);
+            const existingTabId = this.prefetchTabs.get(prefetchId);
+            // 标签页仍在创建中时，由创建回调按最新地址导航
+            if (existingTabId !== undefined) {
+                chrome.tabs.update(existingTabId, { url: url }, () => void chrome.runtime.lastError);
+            }
+            return;
+        }
+
+        console.log('⚡ 预打开页面:', url);
+        this.prefetchTargets.set(prefetchId, url);
+
+        chrome.tabs.create({ url: url, active: false }, (tab) => {
+            this.prefetchTabs.set(prefetchId, tab.id);
+            const latest = this.prefetchTargets.get(prefetchId);
+            if (latest && latest !== url) {
+                chrome.tabs.update(tab.id, { url: latest }, () => void chrome.runtime.lastError);
+            }
+            setTimeout(() => {
+                this.prefetchTargets.delete(prefetchId);
+                if (this.prefetchTabs.get(prefetchId) === tab.id) {
+                    this.prefetchTabs.delete(prefetchId);
+                    chrome.tabs.remove(tab.id, () => void chrome.runtime.lastError);
+                }
+            }, ttl);
+        });
+    }
+
+    adoptPrefetchedTab(taskId, stepId, data) {
+        const url = data.target || data.value;
+        const tabId = this.prefetchTabs.get(data.prefetchId);
+        this.prefetchTabs.delete(data.prefetchId);
+
+        chrome.tabs.get(tabId, (tab) => {
+            if (chrome.runtime.lastError || !tab) {
+                // 预打开的标签页已被关闭，按常规流程打开
+                this.openUrlInNewTab(taskId, stepId, data);
+                return;
+            }
+
+            console.log('⚡ 接管预打开标签页:', url);
+            this.activeTaskTabs.set(taskId, tabId);
+
+            const reply = () => this.send({
+                type: 'ACTION_RESULT',
+                taskId: taskId,
+                stepId: stepId,
+                data: {
+                    success: true,
+                    message: `已接管预打开的页面: ${url}`,
+                    error: null
+                }
+            });
+
+            if (tab.status === 'complete') {
+                reply();
+                return;
+            }
+            chrome.tabs.onUpdated.addListener(function listener(updatedTabId, info) {
+                if (updatedTabId === tabId && info.status === 'complete') {
+                    chrome.tabs.onUpdated.removeListener(listener);
+                    reply();
+                }
+            });
+        });
+    }
+
     openUrlInNewTab(taskId, stepId, data) {
         const url = data.target || data.value;
         console.log('🌐 在新标签页打开:', url);
@@ -138,6 +230,38 @@ class AgentWebSocket {
         });
     }
 
+    // 截图走二进制帧：直接发送PNG字节，避免base64膨胀和大文本帧
+    captureAndSendScreenshot(taskId, stepId) {
+        chrome.tabs.captureVisibleTab(null, { format: 'png' }, (dataUrl) => {
+            if (chrome.runtime.lastError || !dataUrl) {
+                this.send({
+                    type: 'ACTION_RESULT',
+                    taskId: taskId,
+                    stepId: stepId,
+                    data: {
+                        success: false,
+                        message: '',
+                        error: chrome.runtime.lastError ? chrome.runtime.lastError.message : '截图失败'
+                    }
+                });
+                return;
+            }
+
+            fetch(dataUrl)
+                .then(res => res.arrayBuffer())
+                .then(buffer => this.sendBinary({ type: 'SCREENSHOT', taskId: taskId, stepId: stepId }, buffer))
+                .catch(err => {
+                    console.error('❌ 截图发送失败:', err);
+                    this.send({
+                        type: 'ACTION_RESULT',
+                        taskId: taskId,
+                        stepId: stepId,
+                        data: { success: false, message: '', error: err.message }
+                    });
+                });
+        });
+    }
+
     executeOnTab(tabId, taskId, stepId, data) {
         // 关键修复：只发送到主 frame (frameId: 0)，避免 iframe 中的 content script 干扰
         chrome.tabs.sendMessage(tabId, {
@@ -192,6 +316,20 @@ class AgentWebSocket {
         }
     }
 
+    // 帧格式：[4字节大端头长度][UTF-8 JSON头][原始负载]
+    sendBinary(header, payload) {
+        if (!(this.isConnected && this.ws && this.ws.readyState === WebSocket.OPEN)) {
+            console.warn('⚠️ WebSocket未连接，无法发送二进制帧');
+            return;
+        }
+        const headerBytes = new TextEncoder().encode(JSON.stringify(header));
+        const frame = new Uint8Array(4 + headerBytes.length + payload.byteLength);
+        new DataView(frame.buffer).setUint32(0, headerBytes.length, false);
+        frame.set(headerBytes, 4);
+        frame.set(new Uint8Array(payload), 4 + headerBytes.length);
+        this.ws.send(frame.buffer);
+    }
+
     send(message) {
         if (this.isConnected && this.ws && this.ws.readyState === WebSocket.OPEN) {
             this.ws.send(JSON.stringify(message));
@@ -585,28 +585,10 @@ class ActionExecutor {
 
     getPageContext() {
         try {
-            const bodyClone = document.body.cloneNode(true);
-            const removeTags = ['script', 'style', 'svg', 'noscript', 'iframe', 'canvas', 'video', 'audio'];
-            removeTags.forEach(tag => {
-                bodyClone.querySelectorAll(tag).forEach(el => el.remove());
-            });
-            // 移除注释
-            const walker = document.createTreeWalker(bodyClone, NodeFilter.SHOW_COMMENT, null, false);
-            const comments = [];
-            while (walker.nextNode()) comments.push(walker.currentNode);
-            comments.forEach(c => c.remove());
-
-            let html = bodyClone.innerHTML;
-            html = html.replace(/>\s+</g, '><').replace(/\s{2,}/g, ' ');
-            const maxLen = 3000;
-            if (html.length > maxLen) {
-                html = html.substring(0, maxLen) + '... [truncated]';
-            }
-
             return {
                 url: window.location.href,
                 title: document.title,
-                html: html
+                elements: this.collectInteractiveElements(400)
             };
         } catch (e) {
             return {
@@ -617,6 +599,56 @@ class ActionExecutor {
         }
     }
 
+    /**
+     * 收集可见的可交互元素（只保留稳定属性），排序和截断由后端按token预算完成
+     */
+    collectInteractiveElements(limit) {
+        const selector = 'a[href], button, input, select, textarea, [role="button"], [role="link"], ' +
+            '[role="textbox"], [role="searchbox"], [role="combobox"], [role="checkbox"], [role="tab"], ' +
+            '[role="menuitem"], [onclick], [contenteditable="true"]';
+        const stableAttrs = ['id', 'name', 'type', 'placeholder', 'aria-label', 'role', 'title',
+            'value', 'href', 'data-testid', 'for'];
+        // 框架生成的随机id/class（含长数字串或哈希后缀）不稳定，不提供给LLM
+        const generated = /\d{4,}|[-_][a-z0-9]{6,}$|^(css|sc|jsx|ember)-/i;
+
+        const elements = [];
+        for (const el of document.querySelectorAll(selector)) {
+            if (elements.length >= limit) break;
+            if (!this.isVisibleElement(el)) continue;
+
+            const item = { tag: el.tagName.toLowerCase() };
+            for (const attr of stableAttrs) {
+                let v = el.getAttribute(attr);
+                if (!v) continue;
+                if (attr === 'id' && generated.test(v)) continue;
+                if (attr === 'type' && v === 'hidden') { item.skip = true; break; }
+                if (attr === 'value' && el.type === 'password') continue;
+                if (attr === 'href') {
+                    if (v.startsWith('javascript:')) continue;
+                    v = v.split('?')[0];
+                }
+                item[attr] = v.length > 80 ? v.substring(0, 80) : v;
+            }
+            if (item.skip) continue;
+
+            const classes = Array.from(el.classList).filter(c => !generated.test(c)).slice(0, 3);
+            if (classes.length) item.class = classes.join(' ');
+
+            const text = (el.innerText || el.textContent || '').replace(/\s+/g, ' ').trim();
+            if (text) item.text = text.length > 60 ? text.substring(0, 60) : text;
+
+            elements.push(item);
+        }
+        return elements;
+    }
+
+    isVisibleElement(el) {
+        if (el.closest('[hidden], [aria-hidden="true"]')) return false;
+        if (!el.getClientRects().length) return false;
+        const style = window.getComputedStyle(el);
+        return style.visibility !== 'hidden' && style.display !== 'none' && style.opacity !== '0';
+    }
+
     async sleep(ms) {
         return new Promise(r => setTimeout(r, ms));
     }
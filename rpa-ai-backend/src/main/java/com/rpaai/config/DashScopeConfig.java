@@ -1,9 +1,13 @@
 package com.rpaai.config;
 
+import com.rpaai.core.ai.CachingChatModel;
 import com.rpaai.core.ai.DashScopeChatModel;
+import com.rpaai.core.ai.DashScopeStreamingChatModel;
 import dev.langchain4j.data.message.AiMessage;
 import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
 import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
 import dev.langchain4j.model.output.Response;
 import dev.langchain4j.model.output.TokenUsage;
 import lombok.extern.slf4j.Slf4j;
@@ -15,6 +19,7 @@ import org.springframework.core.env.Environment;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
 @Slf4j
 @Configuration
@@ -26,6 +31,21 @@ public class DashScopeConfig {
     @Value("${rpa.ai.llm.model:qwen-turbo}")
     private String modelName;
 
+    @Value("${rpa.ai.cache.enabled:true}")
+    private boolean cacheEnabled;
+
+    @Value("${rpa.ai.cache.max-entries:500}")
+    private int cacheMaxEntries;
+
+    @Value("${rpa.ai.cache.ttl-minutes:60}")
+    private long cacheTtlMinutes;
+
+    @Value("${rpa.ai.cache.persist-file:}")
+    private String cachePersistFile;
+
+    @Value("${rpa.ai.cache.callers:parse}")
+    private Set<String> cacheCallers;
+
     @Autowired
     private Environment env;
 
@@ -46,7 +66,34 @@ public class DashScopeConfig {
         }
 
         log.info("✅ 初始化DashScope ChatModel，模型: {}", modelName);
-        return new DashScopeChatModel(apiKey, modelName);
+        ChatLanguageModel model = new DashScopeChatModel(apiKey, modelName);
+
+        if (cacheEnabled) {
+            log.info("✅ 启用LLM响应缓存: 容量={}, TTL={}分钟, 持久化={}, 调用方={}",
+                    cacheMaxEntries, cacheTtlMinutes, cachePersistFile.isBlank() ? "关闭" : cachePersistFile, cacheCallers);
+            return new CachingChatModel(model, cacheMaxEntries, cacheTtlMinutes * 60_000, cachePersistFile,
+                    cacheCallers);
+        }
+        return model;
+    }
+
+    /**
+     * 流式模型（任务解析边生成边输出步骤）
+     */
+    @Bean
+    public StreamingChatLanguageModel streamingChatLanguageModel() {
+        if (apiKey == null || apiKey.trim().isEmpty()) {
+            return new StreamingChatLanguageModel() {
+                @Override
+                public void generate(List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler) {
+                    handler.onNext("【MOCK模式】");
+                    handler.onComplete(Response.from(AiMessage.from("【MOCK模式】")));
+                }
+            };
+        }
+
+        log.info("✅ 初始化DashScope StreamingChatModel，模型: {}", modelName);
+        return new DashScopeStreamingChatModel(apiKey, modelName);
     }
 
     private ChatLanguageModel createMockModel() {
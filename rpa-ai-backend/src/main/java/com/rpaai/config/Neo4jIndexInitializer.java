@@ -0,0 +1,86 @@
+package com.rpaai.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.neo4j.core.Neo4jClient;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 启动时创建知识图谱查询用到的索引，并分批回填 ExceptionCase.lastActivityTime
+ */
+@Slf4j
+@Component
+public class Neo4jIndexInitializer {
+
+    private static final List<String> INDEXES = List.of(
+            "CREATE INDEX exception_case_id IF NOT EXISTS FOR (e:ExceptionCase) ON (e.id)",
+            "CREATE INDEX exception_case_type_action IF NOT EXISTS FOR (e:ExceptionCase) ON (e.errorType, e.action)",
+            "CREATE INDEX exception_case_activity IF NOT EXISTS FOR (e:ExceptionCase) ON (e.lastActivityTime)",
+            "CREATE INDEX exception_case_last_used IF NOT EXISTS FOR (e:ExceptionCase) ON (e.lastUsedTime)",
+            "CREATE INDEX exception_case_create_time IF NOT EXISTS FOR (e:ExceptionCase) ON (e.createTime)",
+            "CREATE FULLTEXT INDEX exception_case_text IF NOT EXISTS FOR (e:ExceptionCase) ON EACH [e.errorMessage, e.errorType]",
+            "CREATE INDEX element_pattern_id IF NOT EXISTS FOR (p:ElementPattern) ON (p.id)",
+            "CREATE INDEX element_pattern_type IF NOT EXISTS FOR (p:ElementPattern) ON (p.pageType, p.elementType)",
+            "CREATE INDEX element_pattern_rate IF NOT EXISTS FOR (p:ElementPattern) ON (p.successRate)",
+            "CREATE INDEX element_pattern_last_success IF NOT EXISTS FOR (p:ElementPattern) ON (p.lastSuccessTime)"
+    );
+
+    @Autowired(required = false)
+    private Neo4jClient neo4jClient;
+
+    @Value("${rpa.kg.backfill-batch-size:10000}")
+    private int backfillBatchSize;
+
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void initialize() {
+        if (neo4jClient == null) return;
+
+        // 逐条创建：某条失败（如旧版不支持 FULLTEXT）不影响其余索引和后续回填
+        int created = 0;
+        for (String statement : INDEXES) {
+            try {
+                neo4jClient.query(statement).run();
+                created++;
+            } catch (Exception e) {
+                log.error("❌ 创建知识图谱索引失败（不影响主流程）: {} - {}", statement, e.getMessage());
+            }
+        }
+        log.info("✅ 知识图谱索引已就绪: {}/{} 个", created, INDEXES.size());
+
+        backfillActivityTime();
+    }
+
+    /**
+     * 旧数据没有 lastActivityTime，分批补齐，避免单个大事务
+     */
+    private void backfillActivityTime() {
+        try {
+            long total = 0;
+            while (true) {
+                long updated = neo4jClient.query("MATCH (e:ExceptionCase) " +
+                                "WHERE e.lastActivityTime IS NULL " +
+                                "WITH e LIMIT $batch " +
+                                "SET e.lastActivityTime = coalesce(e.lastUsedTime, e.createTime, localdatetime()) " +
+                                "RETURN count(e) AS updated")
+                        .bind(backfillBatchSize).to("batch")
+                        .fetchAs(Long.class)
+                        .one()
+                        .orElse(0L);
+                total += updated;
+                if (updated < backfillBatchSize) break;
+            }
+            if (total > 0) {
+                log.info("📚 回填异常案例活动时间: {} 条", total);
+            }
+        } catch (Exception e) {
+            log.error("❌ 回填异常案例活动时间失败: {}", e.getMessage());
+        }
+    }
+}
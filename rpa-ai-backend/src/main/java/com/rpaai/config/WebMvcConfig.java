@@ -13,6 +13,7 @@ public class WebMvcConfig implements WebMvcConfigurer {
                 .allowedOrigins("*")  // ✅ 允许所有来源
                 .allowedMethods("*")  // ✅ 允许所有方法
                 .allowedHeaders("*")  // ✅ 允许所有头
+                .exposedHeaders("X-Next-Cursor")  // 分页游标
                 .maxAge(3600);
     }
 }
\ No newline at end of file
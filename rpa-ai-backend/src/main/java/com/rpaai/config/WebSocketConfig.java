@@ -1,16 +1,24 @@
 package com.rpaai.config;
 
 import com.rpaai.websocket.BrowserAgentHandler;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.standard.ServletServerContainerFactoryBean;
 
 @Configuration
 @EnableWebSocket
 public class WebSocketConfig implements WebSocketConfigurer {
 
+    @Value("${rpa.websocket.max-text-message-size:1048576}")
+    private int maxTextMessageSize;
+
+    @Value("${rpa.websocket.max-binary-message-size:16777216}")
+    private int maxBinaryMessageSize;
+
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
         registry.addHandler(browserAgentHandler(), "/ws/browser-agent")
@@ -21,4 +29,15 @@ public class WebSocketConfig implements WebSocketConfigurer {
     public BrowserAgentHandler browserAgentHandler() {
         return new BrowserAgentHandler();
     }
-}
\ No newline at end of file
+
+    /**
+     * 放大消息缓冲区：截图二进制帧和页面上下文文本帧都远超容器默认的8KB
+     */
+    @Bean
+    public ServletServerContainerFactoryBean createWebSocketContainer() {
+        ServletServerContainerFactoryBean container = new ServletServerContainerFactoryBean();
+        container.setMaxTextMessageBufferSize(maxTextMessageSize);
+        container.setMaxBinaryMessageBufferSize(maxBinaryMessageSize);
+        return container;
+    }
+}
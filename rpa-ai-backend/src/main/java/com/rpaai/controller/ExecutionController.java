@@ -2,6 +2,7 @@ package com.rpaai.controller;
 
 import com.rpaai.entity.TaskExecutionStatus;  // ✅ 添加这行
 import com.rpaai.service.BrowserSessionManager;
+import com.rpaai.service.QueueStatePublisher;
 import com.rpaai.service.RpaTaskScheduler;
 import com.rpaai.service.TaskService;
 import com.rpaai.service.TaskPriority;
@@ -27,6 +28,9 @@ public class ExecutionController {
     @Autowired
     private BrowserSessionManager browserSessionManager;
 
+    @Autowired
+    private QueueStatePublisher queueStatePublisher;
+
     @PostMapping("/task/{taskId}")
     public ResponseEntity<?> submitTask(@PathVariable("taskId") Long taskId,
                                         @RequestParam(value = "userId", defaultValue = "anonymous") String userId) {
@@ -94,6 +98,23 @@ public class ExecutionController {
         return ResponseEntity.ok(Map.of("message", "任务已取消"));
     }
 
+    @PostMapping("/task/{executionId}/priority")
+    public ResponseEntity<?> reprioritizeTask(@PathVariable("executionId") String executionId,
+                                              @RequestParam("priority") TaskPriority priority) {
+        if (!rpaTaskScheduler.reprioritizeTask(executionId, priority)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(Map.of("executionId", executionId, "priority", priority.getValue()));
+    }
+
+    /**
+     * 排队任务全量快照，前端据此对齐 QUEUE_DELTA 增量
+     */
+    @GetMapping("/queue")
+    public ResponseEntity<?> getQueue() {
+        return ResponseEntity.ok(queueStatePublisher.snapshot());
+    }
+
     @GetMapping("/browser-status")
     public ResponseEntity<?> getBrowserStatus() {
         var sessions = browserSessionManager.getAllSessions();
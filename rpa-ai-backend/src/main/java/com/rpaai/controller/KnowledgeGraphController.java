@@ -14,9 +14,11 @@ import java.util.Map;
 @Slf4j
 @RestController
 @RequestMapping("/api/kg")
-@CrossOrigin(origins = "*")
+@CrossOrigin(origins = "*", exposedHeaders = "X-Next-Cursor")
 public class KnowledgeGraphController {
 
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
     @Autowired
     private KnowledgeGraphService knowledgeGraphService;
 
@@ -46,19 +48,44 @@ public class KnowledgeGraphController {
     }
 
     /**
-     * 获取所有元素模式
+     * 分页获取元素模式（按成功率倒序），下一页游标通过 X-Next-Cursor 响应头返回
      */
     @GetMapping("/patterns")
-    public ResponseEntity<List<ElementPattern>> getPatterns() {
-        return ResponseEntity.ok(knowledgeGraphService.getAllPatterns());
+    public ResponseEntity<List<ElementPattern>> getPatterns(
+            @RequestParam(defaultValue = "100") int limit,
+            @RequestParam(required = false) String cursor) {
+        try {
+            return withCursor(knowledgeGraphService.getPatternsPage(cursor, clampLimit(limit)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
     }
 
     /**
-     * 获取所有异常案例
+     * 分页获取异常案例（按最近活动时间倒序），下一页游标通过 X-Next-Cursor 响应头返回
      */
     @GetMapping("/cases")
-    public ResponseEntity<List<ExceptionCase>> getCases() {
-        return ResponseEntity.ok(knowledgeGraphService.getAllCases());
+    public ResponseEntity<List<ExceptionCase>> getCases(
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestParam(required = false) String cursor) {
+        try {
+            return withCursor(knowledgeGraphService.getCasesPage(cursor, clampLimit(limit)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    private int clampLimit(int limit) {
+        // 限制单页数量，最多500条
+        return Math.max(1, Math.min(limit, 500));
+    }
+
+    private <T> ResponseEntity<List<T>> withCursor(KnowledgeGraphService.KeysetPage<T> page) {
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok();
+        if (page.nextCursor() != null) {
+            builder.header(NEXT_CURSOR_HEADER, page.nextCursor());
+        }
+        return builder.body(page.items());
     }
 
     /**
@@ -0,0 +1,76 @@
+package com.rpaai.controller;
+
+import com.rpaai.core.ai.CachingChatModel;
+import com.rpaai.service.BrowserLivenessMonitor;
+import com.rpaai.service.DebugImageCapture;
+import com.rpaai.service.ExecutionJournal;
+import com.rpaai.service.KnowledgeGraphService;
+import com.rpaai.service.LlmGateway;
+import com.rpaai.service.QueueStatePublisher;
+import com.rpaai.service.SemanticParseCache;
+import com.rpaai.service.TemplateMatCache;
+import com.rpaai.websocket.FrontendBroadcaster;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/metrics")
+@CrossOrigin(origins = "*")
+public class MetricsController {
+
+    @Autowired
+    private TemplateMatCache templateMatCache;
+
+    @Autowired
+    private DebugImageCapture debugImageCapture;
+
+    @Autowired
+    private ChatLanguageModel chatLanguageModel;
+
+    @Autowired
+    private SemanticParseCache semanticParseCache;
+
+    @Autowired
+    private LlmGateway llmGateway;
+
+    @Autowired
+    private KnowledgeGraphService knowledgeGraphService;
+
+    @Autowired
+    private ExecutionJournal executionJournal;
+
+    @Autowired
+    private FrontendBroadcaster frontendBroadcaster;
+
+    @Autowired
+    private QueueStatePublisher queueStatePublisher;
+
+    @Autowired
+    private BrowserLivenessMonitor browserLivenessMonitor;
+
+    /**
+     * 运行时缓存指标
+     */
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("templateCache", templateMatCache.getStats());
+        metrics.put("debugCapture", debugImageCapture.getStats());
+        if (chatLanguageModel instanceof CachingChatModel cachingModel) {
+            metrics.put("llmCache", cachingModel.getStats());
+        }
+        metrics.put("semanticParseCache", semanticParseCache.getStats());
+        metrics.put("llmGateway", llmGateway.getStats());
+        metrics.put("knowledgeGraph", knowledgeGraphService.getRuntimeStats());
+        metrics.put("executionJournal", executionJournal.getStats());
+        metrics.put("frontendBroadcast", frontendBroadcaster.getStats());
+        metrics.put("queuePublisher", queueStatePublisher.getStats());
+        metrics.put("browserLiveness", browserLivenessMonitor.getStats());
+        return ResponseEntity.ok(metrics);
+    }
+}
@@ -1,13 +1,19 @@
 package com.rpaai.controller;
 
 import com.rpaai.entity.AutomationTask;
+import com.rpaai.entity.RpaStep;
+import com.rpaai.service.PagePrefetchService;
 import com.rpaai.service.TaskService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 任务管理接口 - 修改版
@@ -22,6 +28,9 @@ public class TaskController {
     @Autowired
     private TaskService taskService;
 
+    @Autowired
+    private PagePrefetchService pagePrefetchService;
+
     /**
      * 🆕 修改：支持凭据ID参数
      * POST /api/tasks/parse
@@ -39,6 +48,55 @@ public class TaskController {
         return ResponseEntity.ok(task);
     }
 
+    /**
+     * 流式解析（SSE）：每解析出一个步骤推送 step 事件，完成后推送 task 事件
+     * POST /api/tasks/parse/stream
+     * 请求体：{ "description": "登录github", "credentialsId": 1, "userId": "u1" }
+     * 带 userId 时，第一个 open_url 步骤会在该用户浏览器中预打开
+     */
+    @PostMapping(value = "/parse/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter parseTaskStream(@RequestBody Map<String, Object> request) {
+        String naturalLanguage = (String) request.get("description");
+        Long credentialsId = request.get("credentialsId") != null ?
+                Long.valueOf(request.get("credentialsId").toString()) : null;
+        String userId = (String) request.get("userId");
+
+        log.info("📝 流式解析任务: {}, 凭据ID: {}, 用户: {}", naturalLanguage, credentialsId, userId);
+
+        SseEmitter emitter = new SseEmitter(120_000L);
+        AtomicBoolean prefetched = new AtomicBoolean(false);
+
+        taskService.parseWithAIStreaming(naturalLanguage, credentialsId, (RpaStep step) -> {
+                    if ("open_url".equals(step.getAction()) && prefetched.compareAndSet(false, true)) {
+                        pagePrefetchService.prefetch(userId, step.getTarget());
+                    }
+                    try {
+                        emitter.send(SseEmitter.event().name("step").data(step));
+                    } catch (IOException e) {
+                        log.debug("SSE客户端已断开: {}", e.getMessage());
+                    }
+                })
+                .whenComplete((task, error) -> {
+                    try {
+                        if (error != null) {
+                            emitter.send(SseEmitter.event().name("error").data(error.getMessage()));
+                            emitter.complete();
+                        } else {
+                            if (prefetched.get()) {
+                                // 预打开用的是登录优化前的地址，按最终步骤校正
+                                pagePrefetchService.retarget(userId, task.getConfigJson());
+                            }
+                            emitter.send(SseEmitter.event().name("task").data(task));
+                            emitter.complete();
+                        }
+                    } catch (Exception e) {
+                        emitter.completeWithError(e);
+                    }
+                });
+
+        return emitter;
+    }
+
     @PostMapping("/save")
     public ResponseEntity<AutomationTask> saveTask(@RequestBody AutomationTask task) {
         AutomationTask saved = taskService.saveTask(task);
@@ -0,0 +1,175 @@
+package com.rpaai.core.ai;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import com.rpaai.core.cache.TtlLruCache;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.output.TokenUsage;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * LLM响应缓存：按规范化后的提示词哈希缓存响应，支持TTL、容量淘汰和文件持久化。
+ * 只有登记的调用方走缓存，其余调用方通过 forCaller 拿到被包装的原始模型
+ */
+@Slf4j
+public class CachingChatModel implements ChatLanguageModel, AutoCloseable {
+
+    private final ChatLanguageModel delegate;
+    private final TtlLruCache<String, String> cache;
+    private final Path persistFile;
+    private final Set<String> cachedCallers;
+
+    public CachingChatModel(ChatLanguageModel delegate, int maxEntries, long ttlMillis, String persistFile,
+                            Set<String> cachedCallers) {
+        this.delegate = delegate;
+        this.cachedCallers = Set.copyOf(cachedCallers);
+        this.cache = new TtlLruCache<>(maxEntries, ttlMillis);
+        this.persistFile = persistFile == null || persistFile.isBlank() ? null : Path.of(persistFile);
+        load();
+    }
+
+    /**
+     * 调用方实际使用的模型：未登记走缓存的调用方（如依赖实时页面状态的自动修复）直连原始模型
+     */
+    public static ChatLanguageModel forCaller(ChatLanguageModel model, String caller) {
+        if (model instanceof CachingChatModel caching && !caching.cachedCallers.contains(caller)) {
+            return caching.delegate;
+        }
+        return model;
+    }
+
+    @Override
+    public String generate(String prompt) {
+        String key = hash(normalize(prompt));
+
+        Optional<String> cached = cache.get(key);
+        if (cached.isPresent()) {
+            log.info("⚡ LLM缓存命中: {}", key.substring(0, 12));
+            return cached.get();
+        }
+
+        String response = delegate.generate(prompt);
+        if (isCacheable(response)) {
+            cache.put(key, response);
+        }
+        return response;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        String key = hash(messages.stream()
+                .map(m -> m.type() + ":" + normalize(messageText(m)))
+                .collect(Collectors.joining("\n")));
+
+        Optional<String> cached = cache.get(key);
+        if (cached.isPresent()) {
+            log.info("⚡ LLM缓存命中: {}", key.substring(0, 12));
+            return Response.from(AiMessage.from(cached.get()), new TokenUsage(0, 0));
+        }
+
+        Response<AiMessage> response = delegate.generate(messages);
+        if (response.content() != null && isCacheable(response.content().text())) {
+            cache.put(key, response.content().text());
+        }
+        return response;
+    }
+
+    public Map<String, Object> getStats() {
+        return cache.getStats();
+    }
+
+    /**
+     * 关闭时写出未过期条目，重启后继续命中
+     */
+    @Override
+    public void close() {
+        if (persistFile == null) {
+            return;
+        }
+        try {
+            JSONArray entries = new JSONArray();
+            cache.snapshot().forEach((key, entry) -> {
+                JSONObject json = new JSONObject();
+                json.put("key", key);
+                json.put("value", entry.value());
+                json.put("expiresAt", entry.expiresAt());
+                entries.add(json);
+            });
+
+            if (persistFile.getParent() != null) {
+                Files.createDirectories(persistFile.getParent());
+            }
+            Path tmp = persistFile.resolveSibling(persistFile.getFileName() + ".tmp");
+            Files.writeString(tmp, entries.toJSONString(), StandardCharsets.UTF_8);
+            Files.move(tmp, persistFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("💾 LLM缓存已持久化: {} 条 → {}", entries.size(), persistFile.toAbsolutePath());
+        } catch (IOException e) {
+            log.error("❌ LLM缓存持久化失败: {}", e.getMessage());
+        }
+    }
+
+    private void load() {
+        if (persistFile == null || !Files.exists(persistFile)) {
+            return;
+        }
+        try {
+            JSONArray entries = JSON.parseArray(Files.readString(persistFile, StandardCharsets.UTF_8));
+            for (int i = 0; i < entries.size(); i++) {
+                JSONObject json = entries.getJSONObject(i);
+                cache.put(json.getString("key"), json.getString("value"), json.getLongValue("expiresAt"));
+            }
+            log.info("📂 LLM缓存已加载: {} 条", cache.size());
+        } catch (Exception e) {
+            log.warn("⚠️ LLM缓存文件读取失败，忽略: {}", e.getMessage());
+        }
+    }
+
+    private String messageText(ChatMessage message) {
+        if (message instanceof dev.langchain4j.data.message.UserMessage) {
+            return ((dev.langchain4j.data.message.UserMessage) message).singleText();
+        } else if (message instanceof dev.langchain4j.data.message.SystemMessage) {
+            return ((dev.langchain4j.data.message.SystemMessage) message).text();
+        } else if (message instanceof AiMessage) {
+            return ((AiMessage) message).text();
+        }
+        return "";
+    }
+
+    private boolean isCacheable(String response) {
+        return response != null && !response.isBlank() && !response.startsWith("AI调用失败");
+    }
+
+    /**
+     * 规范化：去除首尾空白、合并连续空白，使仅排版不同的提示词命中同一条缓存
+     */
+    static String normalize(String text) {
+        return text == null ? "" : text.strip().replaceAll("\\s+", " ");
+    }
+
+    private static String hash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
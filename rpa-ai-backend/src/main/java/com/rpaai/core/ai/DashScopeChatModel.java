@@ -26,6 +26,25 @@ public class DashScopeChatModel implements ChatLanguageModel {
 
     @Override
     public String generate(String prompt) {
+        return call(prompt).content().text();
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        // ✅ 修复：使用 text() 的替代方法
+        String lastMessage = messages.stream()
+                .filter(msg -> msg.type() == dev.langchain4j.data.message.ChatMessageType.USER)
+                .map(this::extractText)  // 使用辅助方法替代直接的 text()
+                .findFirst()
+                .orElse("");
+
+        return call(lastMessage);
+    }
+
+    /**
+     * 调用DashScope并带回实际的token用量
+     */
+    private Response<AiMessage> call(String prompt) {
         log.debug("调用DashScope生成文本，模型: {}, 提示: {}", modelName, prompt);
 
         try {
@@ -39,31 +58,18 @@ public class DashScopeChatModel implements ChatLanguageModel {
             String responseText = result.getOutput().getText();
 
             log.debug("DashScope响应: {}", responseText);
-            return responseText;
+
+            TokenUsage usage = result.getUsage() != null
+                    ? new TokenUsage(result.getUsage().getInputTokens(), result.getUsage().getOutputTokens())
+                    : new TokenUsage(0, 0);
+            return Response.from(AiMessage.from(responseText), usage);
 
         } catch (Exception e) {
             log.error("DashScope API调用失败", e);
-            return "AI调用失败: " + e.getMessage();
+            return Response.from(AiMessage.from("AI调用失败: " + e.getMessage()), new TokenUsage(0, 0));
         }
     }
 
-    @Override
-    public Response<AiMessage> generate(List<ChatMessage> messages) {
-        // ✅ 修复：使用 text() 的替代方法
-        String lastMessage = messages.stream()
-                .filter(msg -> msg.type() == dev.langchain4j.data.message.ChatMessageType.USER)
-                .map(this::extractText)  // 使用辅助方法替代直接的 text()
-                .findFirst()
-                .orElse("");
-
-        String response = generate(lastMessage);
-
-        return Response.from(
-                AiMessage.from(response),
-                new TokenUsage(0, 0)
-        );
-    }
-
     // ✅ 添加辅助方法安全提取文本
     private String extractText(ChatMessage message) {
         // 根据消息类型安全提取文本
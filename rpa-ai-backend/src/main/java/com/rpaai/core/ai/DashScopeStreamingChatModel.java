@@ -0,0 +1,83 @@
+package com.rpaai.core.ai;
+
+import com.alibaba.dashscope.aigc.generation.Generation;
+import com.alibaba.dashscope.aigc.generation.GenerationParam;
+import com.alibaba.dashscope.aigc.generation.GenerationResult;
+import com.alibaba.dashscope.common.ResultCallback;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+
+/**
+ * DashScope流式调用：每收到一段输出就回调 onNext，兼容累计输出和增量输出两种返回方式
+ */
+@Slf4j
+public class DashScopeStreamingChatModel implements StreamingChatLanguageModel {
+
+    private final Generation generation = new Generation();
+    private final String apiKey;
+    private final String modelName;
+
+    public DashScopeStreamingChatModel(String apiKey, String modelName) {
+        this.apiKey = apiKey;
+        this.modelName = modelName;
+    }
+
+    @Override
+    public void generate(List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler) {
+        String prompt = messages.stream()
+                .filter(msg -> msg.type() == dev.langchain4j.data.message.ChatMessageType.USER)
+                .map(msg -> ((dev.langchain4j.data.message.UserMessage) msg).singleText())
+                .findFirst()
+                .orElse("");
+
+        log.debug("调用DashScope流式生成，模型: {}", modelName);
+
+        GenerationParam param = GenerationParam.builder()
+                .model(modelName)
+                .apiKey(apiKey)
+                .prompt(prompt)
+                .build();
+
+        StringBuilder full = new StringBuilder();
+        try {
+            generation.streamCall(param, new ResultCallback<GenerationResult>() {
+                @Override
+                public void onEvent(GenerationResult result) {
+                    String text = result.getOutput() != null ? result.getOutput().getText() : null;
+                    if (text == null || text.isEmpty()) {
+                        return;
+                    }
+                    // 默认返回截至目前的完整输出，只把新增部分交给下游
+                    String delta = text.length() >= full.length() && text.startsWith(full.toString())
+                            ? text.substring(full.length())
+                            : text;
+                    if (!delta.isEmpty()) {
+                        full.append(delta);
+                        handler.onNext(delta);
+                    }
+                }
+
+                @Override
+                public void onComplete() {
+                    log.debug("DashScope流式响应完成，长度: {}", full.length());
+                    handler.onComplete(Response.from(AiMessage.from(full.toString())));
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    log.error("DashScope流式调用失败: {}", e.getMessage());
+                    handler.onError(e);
+                }
+            });
+        } catch (Exception e) {
+            log.error("DashScope流式调用失败", e);
+            handler.onError(e);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.rpaai.core.ai;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 增量步骤解析：逐段喂入LLM输出，"steps" 数组中每个元素的右花括号一出现就解析并回调
+ */
+@Slf4j
+public class IncrementalStepParser {
+
+    private static final Pattern STEPS_START = Pattern.compile("\"steps\"\\s*:\\s*\\[");
+
+    private final Consumer<JSONObject> onStep;
+
+    // 数组开始前的输出（可能含```json等前缀）
+    private final StringBuilder pending = new StringBuilder();
+    private StringBuilder current;
+
+    private boolean inArray;
+    private boolean arrayClosed;
+    private boolean inString;
+    private boolean escaped;
+    private int depth;
+    private int emitted;
+
+    public IncrementalStepParser(Consumer<JSONObject> onStep) {
+        this.onStep = onStep;
+    }
+
+    public void feed(String chunk) {
+        if (arrayClosed || chunk == null) {
+            return;
+        }
+
+        if (!inArray) {
+            pending.append(chunk);
+            Matcher m = STEPS_START.matcher(pending);
+            if (!m.find()) {
+                return;
+            }
+            inArray = true;
+            chunk = pending.substring(m.end());
+            pending.setLength(0);
+        }
+
+        for (int i = 0; i < chunk.length() && !arrayClosed; i++) {
+            char c = chunk.charAt(i);
+
+            if (depth == 0) {
+                // 元素之间只关心下一个对象的开始或数组结束
+                if (c == '{') {
+                    depth = 1;
+                    current = new StringBuilder("{");
+                } else if (c == ']') {
+                    arrayClosed = true;
+                }
+                continue;
+            }
+
+            current.append(c);
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                emit(current.toString());
+                current = null;
+            }
+        }
+    }
+
+    private void emit(String json) {
+        JSONObject step;
+        try {
+            step = JSON.parseObject(json);
+        } catch (Exception e) {
+            log.warn("增量解析步骤失败，跳过: {}", e.getMessage());
+            return;
+        }
+        emitted++;
+        onStep.accept(step);
+    }
+
+    public int getEmittedCount() {
+        return emitted;
+    }
+}
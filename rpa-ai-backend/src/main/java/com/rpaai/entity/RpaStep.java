@@ -17,4 +17,6 @@ public class RpaStep {
     private Integer retryCount = 3;
     private String imageTemplate;
     private Double imageThreshold = 0.8;
+    private String imageMatchMode;  // 图像匹配模式：multi_scale（默认）/ pyramid
+    private String imageHint;       // 上次匹配坐标 "x,y"，优先在其附近搜索
 }
\ No newline at end of file
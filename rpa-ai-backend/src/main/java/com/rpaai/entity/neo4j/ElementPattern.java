@@ -41,6 +41,12 @@ public class ElementPattern {
     @Property("imageThreshold")
     private Double imageThreshold; // 匹配阈值
 
+    @Property("lastMatchX")
+    private Integer lastMatchX;  // 上次图像匹配成功的坐标
+
+    @Property("lastMatchY")
+    private Integer lastMatchY;
+
     public ElementPattern() {
         this.id = "PAT_" + System.currentTimeMillis();
     }
@@ -44,6 +44,9 @@ public class ExceptionCase {
     @Property("lastUsedTime")
     private LocalDateTime lastUsedTime;
 
+    @Property("lastActivityTime")
+    private LocalDateTime lastActivityTime;  // coalesce(lastUsedTime, createTime)，用于索引排序和分页
+
     @Relationship(type = "SIMILAR_TO", direction = Relationship.Direction.OUTGOING)
     private List<ExceptionCase> similarCases = new ArrayList<>();
 
@@ -0,0 +1,17 @@
+package com.rpaai.event;
+
+import lombok.Getter;
+
+@Getter
+public class BrowserLostEvent extends RpaEvent {
+    private final String browserSessionId;
+    private final String userId;
+    private final String reason;
+
+    public BrowserLostEvent(Object source, String browserSessionId, String userId, String reason) {
+        super(source, null, null); // 浏览器失联影响其上所有执行中的任务
+        this.browserSessionId = browserSessionId;
+        this.userId = userId;
+        this.reason = reason;
+    }
+}
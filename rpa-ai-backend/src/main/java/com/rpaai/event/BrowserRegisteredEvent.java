@@ -0,0 +1,15 @@
+package com.rpaai.event;
+
+import lombok.Getter;
+
+@Getter
+public class BrowserRegisteredEvent extends RpaEvent {
+    private final String browserSessionId;
+    private final String userId;
+
+    public BrowserRegisteredEvent(Object source, String browserSessionId, String userId) {
+        super(source, null, null); // 浏览器上线不关联特定任务
+        this.browserSessionId = browserSessionId;
+        this.userId = userId;
+    }
+}
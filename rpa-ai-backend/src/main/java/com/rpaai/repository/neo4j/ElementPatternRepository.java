@@ -6,6 +6,7 @@ import org.springframework.data.neo4j.repository.query.Query;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Repository
@@ -16,6 +17,15 @@ public interface ElementPatternRepository extends Neo4jRepository<ElementPattern
      */
     Optional<ElementPattern> findByPageTypeAndElementType(String pageType, String elementType);
 
+    /**
+     * 批量查找：keys 为 {pageType, elementType} 列表，一次往返取回全部
+     */
+    @Query("UNWIND $keys AS key " +
+            "MATCH (p:ElementPattern) " +
+            "WHERE p.pageType = key.pageType AND p.elementType = key.elementType " +
+            "RETURN p")
+    List<ElementPattern> findByPageTypeAndElementTypeIn(List<Map<String, String>> keys);
+
     /**
      * 查找成功率高的模式
      */
@@ -49,6 +59,17 @@ public interface ElementPatternRepository extends Neo4jRepository<ElementPattern
     @Query("MATCH (p:ElementPattern) RETURN p ORDER BY p.successRate DESC, p.usageCount DESC")
     List<ElementPattern> findAllPatterns();
 
+    /**
+     * 按成功率、使用次数倒序分页（键集游标：上一页最后一条的 successRate + usageCount + id，首页传 null）
+     */
+    @Query("MATCH (p:ElementPattern) " +
+            "WHERE p.successRate IS NOT NULL " +
+            "AND ($cursorRate IS NULL OR p.successRate < $cursorRate " +
+            "OR (p.successRate = $cursorRate AND (p.usageCount < $cursorCount " +
+            "OR (p.usageCount = $cursorCount AND p.id < $cursorId)))) " +
+            "RETURN p ORDER BY p.successRate DESC, p.usageCount DESC, p.id DESC LIMIT $limit")
+    List<ElementPattern> findPageByRate(Double cursorRate, Integer cursorCount, String cursorId, int limit);
+
     /**
      * 根据ID删除
      */
@@ -5,6 +5,7 @@ import org.springframework.data.neo4j.repository.Neo4jRepository;
 import org.springframework.data.neo4j.repository.query.Query;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -26,10 +27,19 @@ public interface ExceptionCaseRepository extends Neo4jRepository<ExceptionCase,
      */
     @Query("MATCH (e:ExceptionCase) " +
             "WHERE e.errorMessage CONTAINS $keyword " +
-            "OR e.errorType CONTAINS $keyword " +
             "RETURN e ORDER BY e.successCount DESC LIMIT 5")
     List<ExceptionCase> searchByKeyword(String keyword);
 
+    /**
+     * 全文检索异常信息（exception_case_text 索引），丢弃相关度低于 minScore 的结果，
+     * 按相关度 × 同类型加权 × log(成功次数) 排序
+     */
+    @Query("CALL db.index.fulltext.queryNodes('exception_case_text', $query) YIELD node, score " +
+            "WHERE score >= $minScore " +
+            "RETURN node ORDER BY score * (CASE WHEN node.errorType = $errorType THEN 1.5 ELSE 1.0 END) " +
+            "* log(2 + coalesce(node.successCount, 0)) DESC LIMIT $limit")
+    List<ExceptionCase> searchFullText(String query, String errorType, double minScore, int limit);
+
     /**
      * 查找最相似的异常案例
      */
@@ -46,4 +56,15 @@ public interface ExceptionCaseRepository extends Neo4jRepository<ExceptionCase,
             "WHERE e.successCount > 0 " +
             "RETURN e ORDER BY e.successCount DESC LIMIT 10")
     List<ExceptionCase> findTopSolutions();
+
+    /**
+     * 按最近活动时间倒序分页（键集游标：上一页最后一条的 lastActivityTime + id，首页传 null）
+     * 只返回节点本身，不加载 SIMILAR_TO 关系
+     */
+    @Query("MATCH (e:ExceptionCase) " +
+            "WHERE e.lastActivityTime IS NOT NULL " +
+            "AND ($cursorTime IS NULL OR e.lastActivityTime < $cursorTime " +
+            "OR (e.lastActivityTime = $cursorTime AND e.id < $cursorId)) " +
+            "RETURN e ORDER BY e.lastActivityTime DESC, e.id DESC LIMIT $limit")
+    List<ExceptionCase> findPageByActivity(LocalDateTime cursorTime, String cursorId, int limit);
 }
\ No newline at end of file
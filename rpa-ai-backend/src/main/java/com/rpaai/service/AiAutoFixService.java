@@ -1,43 +1,54 @@
 package com.rpaai.service;
 
 import com.rpaai.entity.RpaStep;
-import dev.langchain4j.model.chat.ChatLanguageModel;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 @Service
 public class AiAutoFixService {
 
     @Autowired
-    private ChatLanguageModel chatModel;
+    private LlmGateway llmGateway;
+
+    @Autowired
+    private PageContextCompactor pageContextCompactor;
 
     /**
      * 使用 LLM 分析页面上下文，实时生成修复方案
      */
     public Optional<RpaStep> fixStep(RpaStep failedStep, String errorMessage,
                                      String currentUrl, String pageContext) {
-        try {
-            String prompt = buildPrompt(failedStep, errorMessage, currentUrl, pageContext);
-            log.info("🤖 调用 LLM 进行运行时修复诊断，步骤: {}", failedStep.getStepId());
+        return fixStepAsync(failedStep, errorMessage, currentUrl, pageContext).join();
+    }
 
-            long start = System.currentTimeMillis();
-            String aiResponse = chatModel.generate(prompt);
-            long duration = System.currentTimeMillis() - start;
-            log.info("✅ LLM 修复响应耗时: {}ms", duration);
+    /**
+     * 异步修复：经LLM网关排队调用，等待期间不占用任务线程
+     */
+    public CompletableFuture<Optional<RpaStep>> fixStepAsync(RpaStep failedStep, String errorMessage,
+                                                             String currentUrl, String pageContext) {
+        String prompt = buildPrompt(failedStep, errorMessage, currentUrl,
+                pageContextCompactor.compact(pageContext, failedStep));
+        log.info("🤖 调用 LLM 进行运行时修复诊断，步骤: {}", failedStep.getStepId());
 
-            return parseFixResponse(failedStep, aiResponse);
-        } catch (Exception e) {
-            log.error("❌ LLM 自动修复失败: {}", e.getMessage(), e);
-            return Optional.empty();
-        }
+        long start = System.currentTimeMillis();
+        return llmGateway.generateAsync("autofix", prompt)
+                .thenApply(aiResponse -> {
+                    log.info("✅ LLM 修复响应耗时: {}ms", System.currentTimeMillis() - start);
+                    return parseFixResponse(failedStep, aiResponse);
+                })
+                .exceptionally(e -> {
+                    log.error("❌ LLM 自动修复失败: {}", e.getMessage());
+                    return Optional.empty();
+                });
     }
 
-    private String buildPrompt(RpaStep step, String error, String url, String pageHtml) {
+    private String buildPrompt(RpaStep step, String error, String url, String pageElements) {
         return String.format(
                 "你是一个网页自动化修复专家。当前步骤执行失败了，请分析原因并给出修复方案。\n\n" +
                 "【失败信息】\n" +
@@ -47,7 +58,7 @@ public class AiAutoFixService {
                 "- 输入值: %s\n" +
                 "- 错误信息: %s\n" +
                 "- 当前URL: %s\n\n" +
-                "【页面HTML片段】\n%s\n\n" +
+                "【页面可交互元素（按与失败步骤的相关度排序）】\n%s\n" +
                 "请返回一个严格的JSON对象，只包含以下字段，不要有任何额外说明或markdown代码块标记：\n" +
                 "{\n" +
                 "  \"action\": \"click|input|wait|submit|scroll|extract|fail\",\n" +
@@ -68,7 +79,7 @@ public class AiAutoFixService {
                 step.getValue() != null ? step.getValue() : "",
                 error != null ? error : "",
                 url != null ? url : "",
-                pageHtml != null ? pageHtml : ""
+                pageElements
         );
     }
 
@@ -93,6 +104,8 @@ public class AiAutoFixService {
             fixed.setWaitTime(original.getWaitTime());
             fixed.setImageTemplate(original.getImageTemplate());
             fixed.setImageThreshold(original.getImageThreshold());
+            fixed.setImageMatchMode(original.getImageMatchMode());
+            fixed.setImageHint(original.getImageHint());
 
             log.info("💡 LLM 修复方案: action={}, target={}, reason={}",
                     fixed.getAction(), fixed.getTarget(), json.getString("reason"));
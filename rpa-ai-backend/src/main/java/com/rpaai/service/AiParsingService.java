@@ -5,20 +5,26 @@ import com.rpaai.entity.AutomationTask;
 import com.rpaai.entity.Credentials;
 import com.rpaai.entity.RpaStep;
 import com.rpaai.entity.StepResult;
-import dev.langchain4j.model.chat.ChatLanguageModel;
+import com.rpaai.entity.neo4j.ElementPattern;
+import com.rpaai.core.ai.IncrementalStepParser;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 @Slf4j
 @Service
 public class AiParsingService {
 
     @Autowired
-    private ChatLanguageModel chatModel;
+    private LlmGateway llmGateway;
 
     @Autowired
     private CredentialsService credentialsService;
@@ -26,53 +32,142 @@ public class AiParsingService {
     @Autowired(required = false)
     private KnowledgeGraphService knowledgeGraphService;
 
+    @Autowired
+    private SemanticParseCache semanticParseCache;
+
     /**
      * 带凭据的任务解析
      */
     public AutomationTask parseWithAI(String naturalLanguage, Long credentialsId) {
         log.info("🤖 开始AI解析任务: {}, 凭据ID: {}", naturalLanguage, credentialsId);
 
-        String prompt = AiPromptTemplate.buildTaskPrompt(naturalLanguage);
+        // 语义相近的描述直接复用已解析的步骤，省去LLM调用
+        String cachedJson = semanticParseCache.lookup(naturalLanguage).orElse(null);
 
-        long startTime = System.currentTimeMillis();
-        String aiResponse = chatModel.generate(prompt);
-        long duration = System.currentTimeMillis() - startTime;
+        String aiResponse = null;
+        if (cachedJson == null) {
+            String prompt = AiPromptTemplate.buildTaskPrompt(naturalLanguage);
+
+            long startTime = System.currentTimeMillis();
+            aiResponse = llmGateway.generate("parse", prompt);
+            long duration = System.currentTimeMillis() - startTime;
 
-        log.info("✅ AI响应耗时: {}ms", duration);
+            log.info("✅ AI响应耗时: {}ms", duration);
+        }
 
         try {
-            String jsonStr = extractJson(aiResponse);
-            List<RpaStep> steps = parseStepsFromJson(jsonStr);
+            List<RpaStep> steps = cachedJson != null
+                    ? parseStepsFromJson(cachedJson)
+                    : stepsFromAiResponse(naturalLanguage, aiResponse);
+            return buildTask(naturalLanguage, credentialsId, steps);
+        } catch (Exception e) {
+            log.error("❌ AI解析失败: {}", e.getMessage(), e);
+            return fallbackParse(naturalLanguage, credentialsId);
+        }
+    }
 
-            // 优化登录步骤
-            steps = optimizeLoginSteps(steps, naturalLanguage);
+    /**
+     * 流式解析：模型每生成完一个步骤就回调 onStep（初步步骤，尚未做登录优化和凭据注入），
+     * 生成结束后返回与 parseWithAI 相同处理的完整任务
+     */
+    public CompletableFuture<AutomationTask> parseWithAIStreaming(String naturalLanguage, Long credentialsId,
+                                                                  Consumer<RpaStep> onStep) {
+        log.info("🤖 开始AI流式解析任务: {}, 凭据ID: {}", naturalLanguage, credentialsId);
+
+        CompletableFuture<AutomationTask> future = new CompletableFuture<>();
+
+        String cachedJson = semanticParseCache.lookup(naturalLanguage).orElse(null);
+        if (cachedJson != null || !llmGateway.supportsStreaming()) {
+            AutomationTask task = cachedJson != null
+                    ? parseCached(naturalLanguage, credentialsId, cachedJson)
+                    : parseWithAI(naturalLanguage, credentialsId);
+            parseSteps(task.getConfigJson()).forEach(onStep);
+            future.complete(task);
+            return future;
+        }
 
-            // 如果有凭据，注入凭据占位符
-            if (credentialsId != null) {
-                steps = injectCredentialsPlaceholder(steps, credentialsId);
-            }
+        long startTime = System.currentTimeMillis();
+        IncrementalStepParser parser = new IncrementalStepParser(json -> {
+            RpaStep step = toStep(json);
+            log.info("⚡ 流式解析出步骤 {} ({}ms): {}", step.getStepId(),
+                    System.currentTimeMillis() - startTime, step.getDescription());
+            onStep.accept(step);
+        });
+
+        llmGateway.generateStreaming("parse", AiPromptTemplate.buildTaskPrompt(naturalLanguage), token -> {
+                    try {
+                        parser.feed(token);
+                    } catch (Exception e) {
+                        log.warn("流式步骤回调失败: {}", e.getMessage());
+                    }
+                })
+                // 后处理会查知识图谱，换到公共线程池做，不占用LLM网关的并发名额
+                .whenCompleteAsync((text, error) -> {
+                    if (error != null) {
+                        log.error("❌ AI流式调用失败: {}", error.getMessage());
+                        future.complete(fallbackParse(naturalLanguage, credentialsId));
+                        return;
+                    }
+                    log.info("✅ AI流式响应耗时: {}ms，流式步骤 {} 个",
+                            System.currentTimeMillis() - startTime, parser.getEmittedCount());
+                    try {
+                        List<RpaStep> steps = stepsFromAiResponse(naturalLanguage, text);
+                        future.complete(buildTask(naturalLanguage, credentialsId, steps));
+                    } catch (Exception e) {
+                        log.error("❌ AI解析失败: {}", e.getMessage(), e);
+                        future.complete(fallbackParse(naturalLanguage, credentialsId));
+                    }
+                });
 
-            // 用知识图谱 enrich 步骤（注入成功经验和图像模板）
-            steps = enrichStepsWithKnowledge(steps, naturalLanguage);
+        return future;
+    }
 
-            // 构建任务对象
-            AutomationTask task = new AutomationTask();
-            task.setTaskName("AI生成任务_" + System.currentTimeMillis());
-            task.setDescription("AI解析自: " + naturalLanguage.substring(0, Math.min(100, naturalLanguage.length())));
-            task.setStatus("AI_PARSED");
-            task.setCredentialsId(credentialsId);
-            task.setNeedCredentials(credentialsId != null ? "Y" : "N");
+    private AutomationTask parseCached(String naturalLanguage, Long credentialsId, String cachedJson) {
+        try {
+            return buildTask(naturalLanguage, credentialsId, parseStepsFromJson(cachedJson));
+        } catch (Exception e) {
+            log.error("❌ 缓存步骤解析失败: {}", e.getMessage(), e);
+            return fallbackParse(naturalLanguage, credentialsId);
+        }
+    }
 
-            // 关键：使用包含图像模板的方法重构JSON
-            String optimizedJson = rebuildConfigJson(steps);
-            task.setConfigJson(optimizedJson);
+    /**
+     * 从模型输出提取步骤并优化登录步骤，同时写入语义缓存
+     */
+    private List<RpaStep> stepsFromAiResponse(String naturalLanguage, String aiResponse) throws Exception {
+        String jsonStr = extractJson(aiResponse);
+        List<RpaStep> steps = parseStepsFromJson(jsonStr);
 
-            return task;
+        // 优化登录步骤
+        steps = optimizeLoginSteps(steps, naturalLanguage);
 
-        } catch (Exception e) {
-            log.error("❌ AI解析失败: {}", e.getMessage(), e);
-            return fallbackParse(naturalLanguage, credentialsId);
+        // 缓存注入凭据和知识图谱之前的步骤，命中后这两步按本次请求重新做
+        semanticParseCache.store(naturalLanguage, rebuildConfigJson(steps));
+        return steps;
+    }
+
+    private AutomationTask buildTask(String naturalLanguage, Long credentialsId, List<RpaStep> steps) {
+        // 如果有凭据，注入凭据占位符
+        if (credentialsId != null) {
+            steps = injectCredentialsPlaceholder(steps, credentialsId);
         }
+
+        // 用知识图谱 enrich 步骤（注入成功经验和图像模板）
+        steps = enrichStepsWithKnowledge(steps, naturalLanguage);
+
+        // 构建任务对象
+        AutomationTask task = new AutomationTask();
+        task.setTaskName("AI生成任务_" + System.currentTimeMillis());
+        task.setDescription("AI解析自: " + naturalLanguage.substring(0, Math.min(100, naturalLanguage.length())));
+        task.setStatus("AI_PARSED");
+        task.setCredentialsId(credentialsId);
+        task.setNeedCredentials(credentialsId != null ? "Y" : "N");
+
+        // 关键：使用包含图像模板的方法重构JSON
+        String optimizedJson = rebuildConfigJson(steps);
+        task.setConfigJson(optimizedJson);
+
+        return task;
     }
 
     /**
@@ -189,6 +284,8 @@ public class AiParsingService {
         copy.setRetryCount(source.getRetryCount());
         copy.setImageTemplate(source.getImageTemplate());  // 复制图像模板
         copy.setImageThreshold(source.getImageThreshold());
+        copy.setImageMatchMode(source.getImageMatchMode());
+        copy.setImageHint(source.getImageHint());
         return copy;
     }
 
@@ -200,17 +297,39 @@ public class AiParsingService {
             return steps;
         }
 
+        // 第一遍：推断每个步骤的页面类型（取之前最后一个 open_url，没有则用自然语言推断），收集查找键
+        String fallbackPageType = null;
+        String currentPageType = null;
+        List<KnowledgeGraphService.PatternKey> stepKeys = new ArrayList<>(steps.size());
         for (RpaStep step : steps) {
+            if ("open_url".equals(step.getAction()) && step.getTarget() != null) {
+                currentPageType = knowledgeGraphService.inferPageType(step.getTarget());
+            }
             if (!"click".equals(step.getAction()) && !"input".equals(step.getAction())) {
+                stepKeys.add(null);
                 continue;
             }
+            String pageType = currentPageType;
+            if (pageType == null) {
+                if (fallbackPageType == null) {
+                    fallbackPageType = knowledgeGraphService.inferPageType(naturalLanguage);
+                }
+                pageType = fallbackPageType;
+            }
+            stepKeys.add(new KnowledgeGraphService.PatternKey(pageType, step.getAction()));
+        }
 
-            // 推断页面类型：优先从 open_url 步骤找目标 URL，否则从描述或自然语言推断
-            String pageType = inferPageTypeForStep(steps, step, naturalLanguage);
-
-            var patternOpt = knowledgeGraphService.findPattern(pageType, step.getAction());
-            if (patternOpt.isPresent()) {
-                var pat = patternOpt.get();
+        // 一次批量查询取回所有组合的模式
+        Set<KnowledgeGraphService.PatternKey> distinctKeys = new LinkedHashSet<>(stepKeys);
+        distinctKeys.remove(null);
+        Map<KnowledgeGraphService.PatternKey, ElementPattern> patterns = knowledgeGraphService.findPatterns(distinctKeys);
+
+        // 第二遍：应用结果
+        for (int i = 0; i < steps.size(); i++) {
+            RpaStep step = steps.get(i);
+            KnowledgeGraphService.PatternKey key = stepKeys.get(i);
+            ElementPattern pat = key != null ? patterns.get(key) : null;
+            if (pat != null) {
                 if (pat.getSuccessRate() != null && pat.getSuccessRate() >= 0.8) {
                     if (step.getFallbackTarget() == null || step.getFallbackTarget().isEmpty()) {
                         step.setFallbackTarget(pat.getSuccessfulSelector());
@@ -219,6 +338,9 @@ public class AiParsingService {
                     if (pat.getImageTemplate() != null && !pat.getImageTemplate().isEmpty()) {
                         step.setImageTemplate(pat.getImageTemplate());
                         step.setImageThreshold(pat.getImageThreshold() != null ? pat.getImageThreshold() : 0.8);
+                        if (pat.getLastMatchX() != null && pat.getLastMatchY() != null) {
+                            step.setImageHint(pat.getLastMatchX() + "," + pat.getLastMatchY());
+                        }
                         log.info("📚 知识图谱注入图像模板: {}", step.getDescription());
                     }
                 }
@@ -227,18 +349,6 @@ public class AiParsingService {
         return steps;
     }
 
-    private String inferPageTypeForStep(List<RpaStep> steps, RpaStep currentStep, String naturalLanguage) {
-        // 找当前步骤之前的最后一个 open_url
-        for (int i = steps.indexOf(currentStep) - 1; i >= 0; i--) {
-            RpaStep s = steps.get(i);
-            if ("open_url".equals(s.getAction()) && s.getTarget() != null) {
-                return knowledgeGraphService.inferPageType(s.getTarget());
-            }
-        }
-        //  fallback：用自然语言推断
-        return knowledgeGraphService.inferPageType(naturalLanguage);
-    }
-
     /**
      * 脱敏显示字符串
      */
@@ -377,31 +487,39 @@ public class AiParsingService {
         }
 
         for (int i = 0; i < stepsArray.size(); i++) {
-            com.alibaba.fastjson2.JSONObject stepJson = stepsArray.getJSONObject(i);
-            RpaStep step = new RpaStep();
-
-            step.setStepId(stepJson.getInteger("stepId"));
-            step.setAction(stepJson.getString("action"));
-            step.setTarget(stepJson.getString("target"));
-            step.setValue(stepJson.getString("value"));
-            step.setWaitTime(stepJson.getInteger("waitTime"));
-            step.setDescription(stepJson.getString("description"));
-            step.setFallbackTarget(stepJson.getString("fallbackTarget"));
-
-            // 解析图像模板字段（如果存在）
-            if (stepJson.containsKey("imageTemplate")) {
-                step.setImageTemplate(stepJson.getString("imageTemplate"));
-            }
-            if (stepJson.containsKey("imageThreshold")) {
-                step.setImageThreshold(stepJson.getDouble("imageThreshold"));
-            }
-
-            steps.add(step);
+            steps.add(toStep(stepsArray.getJSONObject(i)));
         }
 
         return steps;
     }
 
+    /**
+     * 单个步骤JSON转换为步骤对象（支持图像模板字段）
+     */
+    private RpaStep toStep(com.alibaba.fastjson2.JSONObject stepJson) {
+        RpaStep step = new RpaStep();
+
+        step.setStepId(stepJson.getInteger("stepId"));
+        step.setAction(stepJson.getString("action"));
+        step.setTarget(stepJson.getString("target"));
+        step.setValue(stepJson.getString("value"));
+        step.setWaitTime(stepJson.getInteger("waitTime"));
+        step.setDescription(stepJson.getString("description"));
+        step.setFallbackTarget(stepJson.getString("fallbackTarget"));
+
+        // 解析图像模板字段（如果存在）
+        if (stepJson.containsKey("imageTemplate")) {
+            step.setImageTemplate(stepJson.getString("imageTemplate"));
+        }
+        if (stepJson.containsKey("imageThreshold")) {
+            step.setImageThreshold(stepJson.getDouble("imageThreshold"));
+        }
+        step.setImageMatchMode(stepJson.getString("imageMatchMode"));
+        step.setImageHint(stepJson.getString("imageHint"));
+
+        return step;
+    }
+
     /**
      * 重构配置JSON（包含图像模板数据）
      */
@@ -425,6 +543,12 @@ public class AiParsingService {
                 stepJson.put("imageTemplate", step.getImageTemplate());
                 stepJson.put("imageThreshold", step.getImageThreshold() != null ?
                         step.getImageThreshold() : 0.8);
+                if (step.getImageMatchMode() != null) {
+                    stepJson.put("imageMatchMode", step.getImageMatchMode());
+                }
+                if (step.getImageHint() != null) {
+                    stepJson.put("imageHint", step.getImageHint());
+                }
             }
 
             stepArray.add(stepJson);
@@ -557,6 +681,8 @@ public class AiParsingService {
                 } else {
                     step.setImageThreshold(0.8);  // 默认阈值
                 }
+                step.setImageMatchMode(stepJson.getString("imageMatchMode"));
+                step.setImageHint(stepJson.getString("imageHint"));
 
                 steps.add(step);
             }
@@ -0,0 +1,150 @@
+package com.rpaai.service;
+
+import com.rpaai.entity.BrowserSession;
+import com.rpaai.event.BrowserRegisteredEvent;
+import com.rpaai.websocket.BrowserAgentHandler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 浏览器心跳存活检测：时间轮按心跳截止时间分槽，每个刻度只检查到期槽里的会话。
+ * 心跳本身只更新 lastHeartbeat，不移动槽位；到期时发现心跳已更新再挂到新的截止槽（惰性重排）
+ */
+@Slf4j
+@Component
+public class BrowserLivenessMonitor {
+
+    @Autowired
+    private BrowserSessionManager sessionManager;
+
+    @Autowired
+    private BrowserAgentHandler browserHandler;
+
+    @Value("${rpa.browser.heartbeat-timeout-seconds:60}")
+    private long heartbeatTimeoutSeconds;
+
+    // 时间轮刻度，也是超时判定的最大延迟
+    @Value("${rpa.browser.liveness-tick-ms:1000}")
+    private long tickMs;
+
+    private Queue<String>[] wheel;
+    private volatile long currentTick;
+
+    private ScheduledExecutorService ticker;
+
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong rescheduled = new AtomicLong();
+
+    @PostConstruct
+    @SuppressWarnings("unchecked")
+    public void init() {
+        // 一圈覆盖整个超时时长，正常心跳的会话每个超时周期只被检查一次
+        int slots = (int) Math.max(8, TimeUnit.SECONDS.toMillis(heartbeatTimeoutSeconds) / tickMs + 1);
+        wheel = new Queue[slots];
+        for (int i = 0; i < slots; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+        currentTick = System.currentTimeMillis() / tickMs;
+
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "rpa-browser-liveness");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::advance, tickMs, tickMs, TimeUnit.MILLISECONDS);
+        log.info("💓 浏览器心跳检测已启动: 超时={}s, 刻度={}ms, 槽数={}", heartbeatTimeoutSeconds, tickMs, slots);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.shutdownNow();
+    }
+
+    @EventListener
+    public void onBrowserRegistered(BrowserRegisteredEvent event) {
+        sessionManager.getSession(event.getBrowserSessionId())
+                .ifPresent(session -> schedule(session.getWebsocketSessionId(), deadlineOf(session)));
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long tracked = 0;
+        for (Queue<String> slot : wheel) {
+            tracked += slot.size();
+        }
+        stats.put("tracked", tracked);
+        stats.put("expired", expired.get());
+        stats.put("rescheduled", rescheduled.get());
+        return stats;
+    }
+
+    private void schedule(String sessionId, long deadline) {
+        // 向上取整：处理该槽时截止时间一定已过；且不早于下一个刻度，保证挂到尚未处理的槽上
+        long tick = Math.max((deadline + tickMs - 1) / tickMs, currentTick + 1);
+        wheel[(int) (tick % wheel.length)].add(sessionId);
+    }
+
+    /**
+     * 推进到当前时间，逐个处理经过的槽（定时器延迟时补处理错过的刻度）
+     */
+    private void advance() {
+        try {
+            long now = System.currentTimeMillis();
+            long target = now / tickMs;
+            while (currentTick < target) {
+                long tick = currentTick + 1;
+                Queue<String> slot = wheel[(int) (tick % wheel.length)];
+                // 只处理本刻度开始前已在槽中的会话，处理过程中重新挂入同一槽的留给下一圈
+                for (int n = slot.size(); n > 0; n--) {
+                    String sessionId = slot.poll();
+                    if (sessionId == null) break;
+                    check(sessionId, now);
+                }
+                currentTick = tick;
+            }
+        } catch (Exception e) {
+            log.error("心跳检测失败: {}", e.getMessage(), e);
+        }
+    }
+
+    private void check(String sessionId, long now) {
+        Optional<BrowserSession> session = sessionManager.getSession(sessionId);
+        if (session.isEmpty()) {
+            // 已正常断开
+            return;
+        }
+        long deadline = deadlineOf(session.get());
+        if (deadline > now) {
+            rescheduled.incrementAndGet();
+            schedule(sessionId, deadline);
+            return;
+        }
+
+        if (browserHandler.evictBrowser(sessionId, "心跳超时")) {
+            expired.incrementAndGet();
+            log.warn("💔 浏览器 [{}] 超过 {}s 无心跳，已移除并转移其任务", sessionId, heartbeatTimeoutSeconds);
+        }
+    }
+
+    private long deadlineOf(BrowserSession session) {
+        Long heartbeat = session.getLastHeartbeat();
+        long last = heartbeat != null ? heartbeat
+                : session.getConnectedTime() != null ? session.getConnectedTime() : System.currentTimeMillis();
+        return last + TimeUnit.SECONDS.toMillis(heartbeatTimeoutSeconds);
+    }
+}
@@ -6,39 +6,118 @@ import org.springframework.stereotype.Service;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentSkipListSet;
 
+/**
+ * 浏览器会话注册表：每个用户一个空闲池（按心跳从新到旧排序的跳表），
+ * 调度器通过 acquireIdleSession / releaseSession 原子地领取和归还浏览器
+ */
 @Slf4j
 @Service
 public class BrowserSessionManager {
 
     private final Map<String, BrowserSession> sessions = new ConcurrentHashMap<>();
-    private final Map<String, List<String>> userSessions = new ConcurrentHashMap<>();
+    private final Map<String, UserPool> userPools = new ConcurrentHashMap<>();
 
     public void registerSession(BrowserSession session) {
-        sessions.put(session.getWebsocketSessionId(), session);
-        userSessions.computeIfAbsent(session.getUserId(), k -> new ArrayList<>())
-                .add(session.getWebsocketSessionId());
+        String sessionId = session.getWebsocketSessionId();
+        BrowserSession previous = sessions.put(sessionId, session);
+        if (previous != null && !Objects.equals(previous.getUserId(), session.getUserId())) {
+            removeFromPool(previous.getUserId(), sessionId);
+        }
+        // 成员登记放在 compute 内，与注销时移除空池互斥
+        userPools.compute(session.getUserId(), (userId, pool) -> {
+            UserPool target = pool != null ? pool : new UserPool();
+            target.members.add(sessionId);
+            target.offerIdle(sessionId, heartbeatOf(session));
+            return target;
+        });
     }
 
     public void unregisterSession(String sessionId) {
         BrowserSession session = sessions.remove(sessionId);
         if (session != null) {
-            List<String> userSess = userSessions.get(session.getUserId());
-            if (userSess != null) {
-                userSess.remove(sessionId);
+            removeFromPool(session.getUserId(), sessionId);
+        }
+    }
+
+    /**
+     * 原子领取该用户心跳最新的空闲浏览器，领取后在归还前不会再分配给其他任务
+     */
+    public Optional<BrowserSession> acquireIdleSession(String userId) {
+        UserPool pool = userPools.get(userId);
+        if (pool == null) {
+            return Optional.empty();
+        }
+        while (true) {
+            IdleEntry entry = pool.idle.pollFirst();
+            if (entry == null) {
+                return Optional.empty();
+            }
+            // 与心跳重排、注销竞争：只有索引中仍是这一条时才算领取成功
+            if (!pool.idleIndex.remove(entry.sessionId(), entry)) {
+                continue;
+            }
+            BrowserSession session = sessions.get(entry.sessionId());
+            if (session != null && "ACTIVE".equals(session.getStatus())) {
+                return Optional.of(session);
             }
         }
     }
 
-    public Optional<BrowserSession> getAvailableSession(String userId) {
-        List<String> sessIds = userSessions.getOrDefault(userId, Collections.emptyList());
+    /**
+     * 优先领取指定的浏览器（如已预打开任务页面的那个）；它不空闲时退回心跳最新的空闲浏览器
+     */
+    public Optional<BrowserSession> acquireIdleSession(String userId, String preferredSessionId) {
+        UserPool pool = userPools.get(userId);
+        if (pool == null) {
+            return Optional.empty();
+        }
+        if (preferredSessionId != null) {
+            IdleEntry entry = pool.idleIndex.get(preferredSessionId);
+            // 与 pollFirst 一样先从跳表摘下条目，再确认索引中仍是这一条
+            if (entry != null && pool.idle.remove(entry)
+                    && pool.idleIndex.remove(preferredSessionId, entry)) {
+                BrowserSession session = sessions.get(preferredSessionId);
+                if (session != null && "ACTIVE".equals(session.getStatus())) {
+                    return Optional.of(session);
+                }
+            }
+        }
+        return acquireIdleSession(userId);
+    }
 
-        return sessIds.stream()
-                .map(sessions::get)
-                .filter(Objects::nonNull)
-                .filter(s -> "ACTIVE".equals(s.getStatus()))
-                .max(Comparator.comparingLong(BrowserSession::getLastHeartbeat));
+    /**
+     * 归还浏览器到空闲池（会话已断开时忽略，重复归还无副作用）
+     */
+    public boolean releaseSession(String sessionId) {
+        BrowserSession session = sessions.get(sessionId);
+        if (session == null || !"ACTIVE".equals(session.getStatus())) {
+            return false;
+        }
+        UserPool pool = userPools.get(session.getUserId());
+        if (pool == null) {
+            return false;
+        }
+        pool.offerIdle(sessionId, heartbeatOf(session));
+        return true;
+    }
+
+    /**
+     * 该用户下一个会被领取的空闲浏览器（不领取）；都在忙时返回空，不打扰正在执行任务的浏览器
+     */
+    public Optional<BrowserSession> peekIdleSession(String userId) {
+        UserPool pool = userPools.get(userId);
+        if (pool == null) {
+            return Optional.empty();
+        }
+        for (IdleEntry entry : pool.idle) {
+            BrowserSession session = sessions.get(entry.sessionId());
+            if (session != null && "ACTIVE".equals(session.getStatus())) {
+                return Optional.of(session);
+            }
+        }
+        return Optional.empty();
     }
 
     public Optional<BrowserSession> getSession(String sessionId) {
@@ -57,11 +136,79 @@ public class BrowserSessionManager {
     public void updateHeartbeat(String sessionId) {
         BrowserSession session = sessions.get(sessionId);
         if (session != null) {
-            session.setLastHeartbeat(System.currentTimeMillis());
+            long now = System.currentTimeMillis();
+            session.setLastHeartbeat(now);
+            UserPool pool = userPools.get(session.getUserId());
+            if (pool != null) {
+                pool.touchIdle(sessionId, now);
+            }
         }
     }
 
     public Collection<BrowserSession> getAllSessions() {
         return Collections.unmodifiableCollection(sessions.values());
     }
-}
\ No newline at end of file
+
+    private void removeFromPool(String userId, String sessionId) {
+        userPools.computeIfPresent(userId, (k, pool) -> {
+            pool.members.remove(sessionId);
+            pool.removeIdle(sessionId);
+            return pool.members.isEmpty() ? null : pool;
+        });
+    }
+
+    private static long heartbeatOf(BrowserSession session) {
+        if (session.getLastHeartbeat() != null) return session.getLastHeartbeat();
+        return session.getConnectedTime() != null ? session.getConnectedTime() : 0L;
+    }
+
+    /**
+     * 空闲池条目（不可变，心跳变化时整条替换以保持跳表有序）
+     */
+    private record IdleEntry(String sessionId, long heartbeat) {
+    }
+
+    private static final Comparator<IdleEntry> IDLE_ORDER =
+            Comparator.comparingLong(IdleEntry::heartbeat).reversed()
+                    .thenComparing(IdleEntry::sessionId);
+
+    private static class UserPool {
+        final Set<String> members = ConcurrentHashMap.newKeySet();
+        final ConcurrentSkipListSet<IdleEntry> idle = new ConcurrentSkipListSet<>(IDLE_ORDER);
+        // 会话ID -> 当前在跳表中的条目；条目的增删都在该索引的 compute 内完成，
+        // 领取方的 remove(key, value) 会等待同一键上的 compute 结束，不会看到半更新状态
+        final Map<String, IdleEntry> idleIndex = new ConcurrentHashMap<>();
+
+        void offerIdle(String sessionId, long heartbeat) {
+            idleIndex.compute(sessionId, (id, current) -> {
+                if (current != null) {
+                    return current;
+                }
+                IdleEntry entry = new IdleEntry(id, heartbeat);
+                idle.add(entry);
+                return entry;
+            });
+        }
+
+        /**
+         * 心跳更新时重排空闲条目；条目已被领取（不在跳表中）时保持不动
+         */
+        void touchIdle(String sessionId, long heartbeat) {
+            idleIndex.computeIfPresent(sessionId, (id, current) -> {
+                if (current.heartbeat() == heartbeat || !idle.remove(current)) {
+                    return current;
+                }
+                IdleEntry entry = new IdleEntry(id, heartbeat);
+                idle.add(entry);
+                return entry;
+            });
+        }
+
+        void removeIdle(String sessionId) {
+            idleIndex.computeIfPresent(sessionId, (id, current) -> {
+                idle.remove(current);
+                return null;
+            });
+        }
+    }
+}
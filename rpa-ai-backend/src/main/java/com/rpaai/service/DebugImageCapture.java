@@ -0,0 +1,153 @@
+package com.rpaai.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 图像匹配调试截图：按执行抽样开启，经有界队列异步落盘，超出磁盘配额时删除最旧文件
+ */
+@Slf4j
+@Service
+public class DebugImageCapture {
+
+    @Value("${rpa.debug-capture.enabled:false}")
+    private boolean enabled;
+
+    // 开启时被抽中记录调试图的执行比例，1.0 表示全部
+    @Value("${rpa.debug-capture.sample-rate:1.0}")
+    private double sampleRate;
+
+    @Value("${rpa.debug-capture.dir:logs/debug-images}")
+    private String dir;
+
+    @Value("${rpa.debug-capture.max-total-bytes:268435456}")
+    private long maxTotalBytes;
+
+    @Value("${rpa.debug-capture.queue-capacity:32}")
+    private int queueCapacity;
+
+    private Path baseDir;
+    private ThreadPoolExecutor writer;
+
+    // 仅由写线程访问
+    private final Deque<Path> files = new ArrayDeque<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        baseDir = Path.of(dir);
+        writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "rpa-debug-capture");
+                    t.setDaemon(true);
+                    return t;
+                },
+                (r, executor) -> dropped.incrementAndGet());
+        writer.execute(this::loadExistingFiles);
+        log.info("🐞 调试截图已开启: 目录={}, 抽样率={}, 配额={}MB", baseDir.toAbsolutePath(), sampleRate, maxTotalBytes >> 20);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (writer != null) {
+            writer.shutdown();
+        }
+    }
+
+    /**
+     * 为一次执行决定是否记录调试截图
+     */
+    public boolean sampleExecution() {
+        return enabled && ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    /**
+     * 异步保存；队列满时直接丢弃，不阻塞调用方
+     */
+    public void capture(String executionId, String label, byte[] image) {
+        if (writer == null || image == null || image.length == 0) {
+            return;
+        }
+        String fileName = executionId + "_" + label + "_" + System.currentTimeMillis() + ".png";
+        writer.execute(() -> write(baseDir.resolve(fileName), image));
+    }
+
+    private void write(Path path, byte[] image) {
+        try {
+            Files.createDirectories(path.getParent());
+            Files.write(path, image);
+            files.addLast(path);
+            totalBytes.addAndGet(image.length);
+            written.incrementAndGet();
+            log.debug("调试图像已保存: {}", path.toAbsolutePath());
+            rotate();
+        } catch (IOException e) {
+            log.error("保存调试图像失败: {}", e.getMessage());
+        }
+    }
+
+    private void rotate() {
+        while (totalBytes.get() > maxTotalBytes && files.size() > 1) {
+            Path oldest = files.pollFirst();
+            try {
+                long size = Files.size(oldest);
+                Files.deleteIfExists(oldest);
+                totalBytes.addAndGet(-size);
+            } catch (IOException e) {
+                log.warn("删除旧调试图像失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 启动时把已有文件纳入配额统计，按修改时间从旧到新排列
+     */
+    private void loadExistingFiles() {
+        if (!Files.isDirectory(baseDir)) {
+            return;
+        }
+        try (Stream<Path> stream = Files.list(baseDir)) {
+            stream.filter(Files::isRegularFile)
+                    .sorted(Comparator.comparingLong(p -> p.toFile().lastModified()))
+                    .forEach(p -> {
+                        files.addLast(p);
+                        totalBytes.addAndGet(p.toFile().length());
+                    });
+            rotate();
+        } catch (IOException e) {
+            log.warn("扫描调试图像目录失败: {}", e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("written", written.get());
+        stats.put("dropped", dropped.get());
+        stats.put("bytes", totalBytes.get());
+        stats.put("maxBytes", maxTotalBytes);
+        return stats;
+    }
+}
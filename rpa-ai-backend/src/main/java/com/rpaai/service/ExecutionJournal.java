@@ -0,0 +1,361 @@
+package com.rpaai.service;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import com.rpaai.entity.mongodb.ExecutionLogDocument;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 执行日志的本地追加日志：每个事件以 [4字节长度][JSON] 追加到内存映射的段文件，
+ * 定时按顺序批量同步到MongoDB，同步位置记录在 checkpoint 文件，重启后从该位置重放
+ */
+@Slf4j
+@Component
+public class ExecutionJournal {
+
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Value("${rpa.journal.dir:logs/journal}")
+    private String dir;
+
+    @Value("${rpa.journal.segment-bytes:16777216}")
+    private int segmentBytes;
+
+    @Value("${rpa.journal.batch-size:500}")
+    private int batchSize;
+
+    private Path journalDir;
+
+    // 写入端（writeLock 保护）
+    private final Object writeLock = new Object();
+    private long writeSeq;
+    private MappedByteBuffer writeBuf;
+    private int writeOffset;
+    private volatile Position written;
+
+    // 已映射的段（写入端创建，同步端读取和删除）
+    private final Map<Long, MappedByteBuffer> segments = new ConcurrentHashMap<>();
+
+    // 同步端（仅由定时同步线程访问）
+    private long readSeq;
+    private int readOffset;
+    private long bootSeq;
+    private LocalDateTime bootTime;
+    private boolean recovered;
+
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong shipped = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    @PostConstruct
+    public void init() throws IOException {
+        journalDir = Path.of(dir);
+        Files.createDirectories(journalDir);
+        bootTime = LocalDateTime.now();
+
+        // 从检查点继续同步；写入总是从新段开始，旧段只读
+        Position checkpoint = readCheckpoint();
+        long lastSeq = existingSegments().stream().mapToLong(Long::longValue).max().orElse(0);
+        readSeq = checkpoint.seq();
+        readOffset = checkpoint.offset();
+        if (readSeq == 0) {
+            readSeq = existingSegments().stream().mapToLong(Long::longValue).min().orElse(lastSeq + 1);
+        }
+
+        synchronized (writeLock) {
+            openSegment(lastSeq + 1);
+        }
+        bootSeq = writeSeq;
+        if (readSeq < bootSeq) {
+            log.info("📒 执行日志待重放: 从段 {} 偏移 {} 开始", readSeq, readOffset);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ship();
+        synchronized (writeLock) {
+            if (writeBuf != null) {
+                writeBuf.force();
+            }
+        }
+    }
+
+    /**
+     * 追加一个事件；只写内存映射区，开销与任务已有步骤数无关
+     */
+    public void append(JSONObject event) {
+        byte[] bytes = event.toJSONString().getBytes(StandardCharsets.UTF_8);
+        if (bytes.length + 4 > segmentBytes) {
+            log.error("❌ 执行日志事件过大被丢弃: {} 字节", bytes.length);
+            return;
+        }
+
+        synchronized (writeLock) {
+            try {
+                if (writeOffset + 4 + bytes.length > segmentBytes) {
+                    writeBuf.force();
+                    openSegment(writeSeq + 1);
+                }
+                // 先写内容再写长度，写到一半崩溃时长度仍为0，重放时视为段结束
+                writeBuf.put(writeOffset + 4, bytes);
+                writeBuf.putInt(writeOffset, bytes.length);
+                writeOffset += 4 + bytes.length;
+                written = new Position(writeSeq, writeOffset);
+                appended.incrementAndGet();
+            } catch (IOException e) {
+                log.error("❌ 写入执行日志失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 把检查点之后的事件按顺序批量写入MongoDB，成功后推进检查点并删除已同步的段
+     */
+    @Scheduled(fixedDelayString = "${rpa.journal.flush-interval-ms:1000}")
+    public synchronized void ship() {
+        long startSeq = readSeq;
+        int startOffset = readOffset;
+        try {
+            List<JSONObject> events = readBatch();
+            if (!events.isEmpty()) {
+                BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, ExecutionLogDocument.class);
+                for (JSONObject event : events) {
+                    addOperation(ops, event);
+                }
+                ops.execute();
+                shipped.addAndGet(events.size());
+            }
+            if (readSeq != startSeq || readOffset != startOffset) {
+                writeCheckpoint(new Position(readSeq, readOffset));
+                deleteShippedSegments();
+            }
+            if (!recovered && readSeq >= bootSeq) {
+                markInterrupted();
+                recovered = true;
+            }
+        } catch (Exception e) {
+            readSeq = startSeq;
+            readOffset = startOffset;
+            failures.incrementAndGet();
+            log.warn("⚠️ 执行日志同步到MongoDB失败，稍后重试: {}", e.getMessage());
+        }
+    }
+
+    private List<JSONObject> readBatch() throws IOException {
+        List<JSONObject> events = new ArrayList<>();
+        while (events.size() < batchSize) {
+            Position head = written;
+            if (readSeq > head.seq()) {
+                break;
+            }
+            boolean sealed = readSeq < head.seq();
+            int limit = sealed ? segmentBytes : head.offset();
+
+            MappedByteBuffer buf = segment(readSeq);
+            int length = buf == null || readOffset + 4 > Math.min(limit, buf.capacity()) ? 0 : buf.getInt(readOffset);
+            if (length <= 0 || readOffset + 4 + length > buf.capacity()) {
+                if (!sealed) {
+                    break;
+                }
+                // 段已写满或为崩溃前的旧段，继续下一段
+                readSeq++;
+                readOffset = 0;
+                continue;
+            }
+
+            byte[] bytes = new byte[length];
+            buf.get(readOffset + 4, bytes);
+            readOffset += 4 + length;
+            try {
+                events.add(JSON.parseObject(new String(bytes, StandardCharsets.UTF_8)));
+            } catch (Exception e) {
+                log.warn("跳过无法解析的执行日志事件: {}", e.getMessage());
+            }
+        }
+        return events;
+    }
+
+    private void addOperation(BulkOperations ops, JSONObject event) {
+        Query byId = Query.query(Criteria.where("id").is(event.getString("id")));
+        switch (event.getString("type")) {
+            case "start" -> {
+                List<ExecutionLogDocument.StepLog> stepLogs = new ArrayList<>();
+                JSONArray steps = event.getJSONArray("steps");
+                for (int i = 0; steps != null && i < steps.size(); i++) {
+                    JSONObject s = steps.getJSONObject(i);
+                    ExecutionLogDocument.StepLog stepLog = new ExecutionLogDocument.StepLog();
+                    stepLog.setStepId(s.getInteger("stepId"));
+                    stepLog.setAction(s.getString("action"));
+                    stepLog.setTarget(s.getString("target"));
+                    stepLogs.add(stepLog);
+                }
+                ops.upsert(byId, new Update()
+                        .setOnInsert("taskId", event.getLong("taskId"))
+                        .setOnInsert("taskName", event.getString("taskName"))
+                        .setOnInsert("naturalLanguage", event.getString("naturalLanguage"))
+                        .setOnInsert("startTime", time(event.getLongValue("time")))
+                        .setOnInsert("totalSteps", stepLogs.size())
+                        .setOnInsert("stepLogs", stepLogs));
+            }
+            case "step" -> {
+                String prefix = "stepLogs." + event.getIntValue("index") + ".";
+                ops.updateOne(byId, new Update()
+                        .set(prefix + "success", event.getBooleanValue("success"))
+                        .set(prefix + "message", event.getString("message"))
+                        .set(prefix + "errorMessage", event.getString("errorMessage"))
+                        .set(prefix + "executionTimeMs", event.getLongValue("executionTimeMs"))
+                        .set(prefix + "executeTime", time(event.getLongValue("time"))));
+            }
+            case "finish" -> ops.updateOne(byId, new Update()
+                    .set("endTime", time(event.getLongValue("time")))
+                    .set("durationMs", event.getLongValue("durationMs"))
+                    .set("success", event.getBooleanValue("success"))
+                    .set("completedSteps", event.getIntValue("completedSteps"))
+                    .set("errorMessage", event.getString("errorMessage"))
+                    .set("screenshotPath", event.getString("screenshotPath"))
+                    .set("metadata", event.getJSONObject("metadata") != null
+                            ? new HashMap<>(event.getJSONObject("metadata")) : null));
+            default -> log.warn("未知的执行日志事件类型: {}", event.getString("type"));
+        }
+    }
+
+    /**
+     * 重放完成后，把重启前仍在执行、没有结束事件的记录标记为中断
+     */
+    private void markInterrupted() {
+        var result = mongoTemplate.updateMulti(
+                Query.query(Criteria.where("endTime").is(null).and("startTime").lt(bootTime)),
+                new Update().set("endTime", bootTime)
+                        .set("success", false)
+                        .set("errorMessage", "服务重启，执行中断"),
+                ExecutionLogDocument.class);
+        if (result.getModifiedCount() > 0) {
+            log.warn("📒 {} 条执行记录因服务重启被标记为中断", result.getModifiedCount());
+        }
+    }
+
+    private void openSegment(long seq) throws IOException {
+        Path path = segmentPath(seq);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            writeBuf = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        segments.put(seq, writeBuf);
+        writeSeq = seq;
+        writeOffset = 0;
+        written = new Position(seq, 0);
+    }
+
+    private MappedByteBuffer segment(long seq) throws IOException {
+        MappedByteBuffer buf = segments.get(seq);
+        if (buf != null) {
+            return buf;
+        }
+        Path path = segmentPath(seq);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        segments.put(seq, buf);
+        return buf;
+    }
+
+    private void deleteShippedSegments() {
+        for (long seq : existingSegments()) {
+            if (seq < readSeq) {
+                segments.remove(seq);
+                try {
+                    Files.deleteIfExists(segmentPath(seq));
+                } catch (IOException e) {
+                    log.debug("删除已同步的执行日志段失败，稍后重试: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private List<Long> existingSegments() {
+        try (Stream<Path> files = Files.list(journalDir)) {
+            return files.map(p -> p.getFileName().toString())
+                    .filter(n -> n.startsWith("journal-") && n.endsWith(".log"))
+                    .map(n -> Long.parseLong(n.substring(8, n.length() - 4)))
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            return List.of();
+        }
+    }
+
+    private Path segmentPath(long seq) {
+        return journalDir.resolve(String.format("journal-%016d.log", seq));
+    }
+
+    private Position readCheckpoint() {
+        try {
+            Path path = journalDir.resolve(CHECKPOINT_FILE);
+            if (Files.exists(path)) {
+                String[] parts = Files.readString(path).trim().split("\\s+");
+                return new Position(Long.parseLong(parts[0]), Integer.parseInt(parts[1]));
+            }
+        } catch (Exception e) {
+            log.warn("读取执行日志检查点失败，从最早的段重放: {}", e.getMessage());
+        }
+        return new Position(0, 0);
+    }
+
+    private void writeCheckpoint(Position position) throws IOException {
+        Path tmp = journalDir.resolve(CHECKPOINT_FILE + ".tmp");
+        Files.writeString(tmp, position.seq() + " " + position.offset());
+        Files.move(tmp, journalDir.resolve(CHECKPOINT_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static LocalDateTime time(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("appended", appended.get());
+        stats.put("shipped", shipped.get());
+        stats.put("shipFailures", failures.get());
+        stats.put("segments", segments.size());
+        return stats;
+    }
+
+    private record Position(long seq, int offset) {
+    }
+}
@@ -1,17 +1,19 @@
 package com.rpaai.service;
 
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
 import com.rpaai.core.rpa.RpaExecutionResult;
 import com.rpaai.core.rpa.RpaStepResult;
 import com.rpaai.entity.RpaStep;
 import com.rpaai.entity.mongodb.ExecutionLogDocument;
 import com.rpaai.repository.mongodb.ExecutionLogRepository;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -21,57 +23,67 @@ import java.util.stream.Collectors;
 @Service
 public class ExecutionLogService {
 
+    private static final int MAX_MESSAGE_CHARS = 32_000;
+
     @Autowired
     private ExecutionLogRepository logRepository;
 
+    @Autowired
+    private ExecutionJournal journal;
+
     /**
-     * 开始记录执行任务
+     * 开始记录执行任务：客户端生成文档ID，步骤骨架写入执行日志，不在内存中保留步骤详情
      */
     public ExecutionLogDocument startExecution(Long taskId, String taskName,
                                                String naturalLanguage, List<RpaStep> steps) {
         ExecutionLogDocument doc = new ExecutionLogDocument();
+        doc.setId(new ObjectId().toHexString());
         doc.setTaskId(taskId);
         doc.setTaskName(taskName);
         doc.setNaturalLanguage(naturalLanguage);
         doc.setStartTime(LocalDateTime.now());
         doc.setTotalSteps(steps.size());
-        doc.setStepLogs(new ArrayList<>());
 
-        // 预创建步骤日志结构
+        JSONArray stepArray = new JSONArray();
         for (RpaStep step : steps) {
-            ExecutionLogDocument.StepLog stepLog = new ExecutionLogDocument.StepLog();
-            stepLog.setStepId(step.getStepId());
-            stepLog.setAction(step.getAction());
-            stepLog.setTarget(step.getTarget());
-            doc.getStepLogs().add(stepLog);
+            JSONObject s = new JSONObject();
+            s.put("stepId", step.getStepId());
+            s.put("action", step.getAction());
+            s.put("target", step.getTarget());
+            stepArray.add(s);
         }
 
-        log.debug("开始记录执行任务: taskId={}", taskId);
+        JSONObject event = event("start", doc);
+        event.put("taskId", taskId);
+        event.put("taskName", taskName);
+        event.put("naturalLanguage", naturalLanguage);
+        event.put("steps", stepArray);
+        journal.append(event);
+
+        log.debug("开始记录执行任务: taskId={}, logId={}", taskId, doc.getId());
         return doc;
     }
 
     /**
-     * 记录单步执行结果
+     * 记录单步执行结果（追加一条步骤事件）
      */
     public void recordStep(ExecutionLogDocument executionLog, int stepIndex,
                            RpaStepResult result) {
-        if (executionLog == null || executionLog.getStepLogs() == null) {
+        if (executionLog == null || stepIndex < 0 || stepIndex >= executionLog.getTotalSteps()) {
             return;
         }
 
-        List<ExecutionLogDocument.StepLog> logs = executionLog.getStepLogs();
-        if (stepIndex >= 0 && stepIndex < logs.size()) {
-            ExecutionLogDocument.StepLog stepLog = logs.get(stepIndex);
-            stepLog.setSuccess(result.isSuccess());
-            stepLog.setMessage(result.getMessage());
-            stepLog.setErrorMessage(result.getErrorMessage());
-            stepLog.setExecutionTimeMs(result.getExecutionTimeMs());
-            stepLog.setExecuteTime(LocalDateTime.now());
-        }
+        JSONObject event = event("step", executionLog);
+        event.put("index", stepIndex);
+        event.put("success", result.isSuccess());
+        event.put("message", clip(result.getMessage()));
+        event.put("errorMessage", clip(result.getErrorMessage()));
+        event.put("executionTimeMs", result.getExecutionTimeMs());
+        journal.append(event);
     }
 
     /**
-     * 完成执行记录
+     * 完成执行记录（追加结束事件，由执行日志异步同步到MongoDB）
      */
     public ExecutionLogDocument finishExecution(ExecutionLogDocument executionLog,
                                                 RpaExecutionResult result,
@@ -96,11 +108,30 @@ public class ExecutionLogService {
         metadata.put("stepResultsCount", result.getStepResults().size());
         executionLog.setMetadata(metadata);
 
-        // 保存到MongoDB
-        ExecutionLogDocument saved = logRepository.save(executionLog);
-        log.info("✅ 执行记录已保存到MongoDB: id={}", saved.getId());
+        JSONObject event = event("finish", executionLog);
+        event.put("durationMs", executionLog.getDurationMs());
+        event.put("success", executionLog.isSuccess());
+        event.put("completedSteps", executionLog.getCompletedSteps());
+        event.put("errorMessage", clip(executionLog.getErrorMessage()));
+        event.put("screenshotPath", screenshotPath);
+        event.put("metadata", metadata);
+        journal.append(event);
+
+        log.info("✅ 执行记录已写入执行日志: id={}", executionLog.getId());
+        return executionLog;
+    }
+
+    private JSONObject event(String type, ExecutionLogDocument doc) {
+        JSONObject event = new JSONObject();
+        event.put("type", type);
+        event.put("id", doc.getId());
+        event.put("time", System.currentTimeMillis());
+        return event;
+    }
 
-        return saved;
+    // 单条消息上限，避免提取结果等超长内容撑大日志段
+    private static String clip(String text) {
+        return text != null && text.length() > MAX_MESSAGE_CHARS ? text.substring(0, MAX_MESSAGE_CHARS) : text;
     }
 
     /**
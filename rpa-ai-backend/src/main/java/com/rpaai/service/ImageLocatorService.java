@@ -7,22 +7,61 @@ import org.bytedeco.opencv.global.opencv_imgcodecs;
 import org.bytedeco.opencv.global.opencv_imgproc;
 import org.bytedeco.opencv.opencv_core.Mat;
 import org.bytedeco.opencv.opencv_core.Point;
-import org.bytedeco.opencv.opencv_core.Size;
+import org.bytedeco.opencv.opencv_core.Rect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.Base64;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Slf4j
 @Service
 public class ImageLocatorService {
 
+    @Autowired
+    private TemplateMatCache templateCache;
+
+    // 多尺度匹配并行度，0 表示按CPU核数（最多4）
+    @Value("${rpa.image.match-parallelism:0}")
+    private int matchParallelism;
+
+    // 置信度超过 阈值+该余量 时不再尝试其余缩放比例
+    @Value("${rpa.image.early-stop-margin:0.15}")
+    private double earlyStopMargin;
+
+    private ForkJoinPool matchPool;
+
+    // 金字塔粗匹配层的模板最小边长（像素）
+    private static final int MIN_PYRAMID_TEMPLATE_SIZE = 12;
+
+    // 逐层精修时候选点周围的搜索余量（像素）
+    private static final int PYRAMID_REFINE_MARGIN = 8;
+
+    private static final ThreadLocal<MatchScratch> SCRATCH = ThreadLocal.withInitial(MatchScratch::new);
+
+    @PostConstruct
+    public void initMatchPool() {
+        int parallelism = matchParallelism > 0
+                ? matchParallelism
+                : Math.min(Runtime.getRuntime().availableProcessors(), 4);
+        matchPool = new ForkJoinPool(parallelism);
+        log.info("🚀 图像匹配线程池已创建, 并行度: {}", parallelism);
+    }
+
+    @PreDestroy
+    public void shutdownMatchPool() {
+        matchPool.shutdown();
+    }
+
     // 降低默认阈值，淘宝动态页面用 0.65 更合适
     public Optional<int[]> locateElement(String screenshotBase64, String templateBase64) {
         return locateElement(screenshotBase64, templateBase64, 0.65);
@@ -30,33 +69,65 @@ public class ImageLocatorService {
 
     public Optional<int[]> locateElement(String screenshotBase64, String templateBase64, double threshold) {
         try {
-            // 保存调试图片（调试用，确认图片正常）
-            saveDebugImage(screenshotBase64, "screenshot");
-            saveDebugImage(templateBase64, "template");
+            return locateElement(Base64.getDecoder().decode(screenshotBase64), templateBase64, threshold);
+        } catch (IllegalArgumentException e) {
+            log.error("截图base64解码失败: {}", e.getMessage());
+            return Optional.empty();
+        }
+    }
 
-            byte[] screenshotBytes = Base64.getDecoder().decode(screenshotBase64);
-            byte[] templateBytes = Base64.getDecoder().decode(templateBase64);
+    public Optional<int[]> locateElement(byte[] screenshotBytes, String templateBase64) {
+        return locateElement(screenshotBytes, templateBase64, 0.65);
+    }
 
-            Mat screenshot = bytesToMat(screenshotBytes);
-            Mat template = bytesToMat(templateBytes);
+    /**
+     * 直接使用原始截图字节匹配（二进制WebSocket帧传入，无需base64往返）
+     */
+    public Optional<int[]> locateElement(byte[] screenshotBytes, String templateBase64, double threshold) {
+        return locateElement(screenshotBytes, templateBase64, threshold, null, null);
+    }
 
-            if (screenshot.empty() || template.empty()) {
-                log.error("图像解码失败: screenshot={}, template={}",
-                        screenshot.empty(), template.empty());
+    /**
+     * 按步骤配置匹配：matchMode 为 pyramid 时走金字塔粗到精搜索；imageHint("x,y") 不为空时先在其附近搜索
+     */
+    public Optional<int[]> locateElement(byte[] screenshotBytes, String templateBase64, double threshold,
+                                         String matchMode, String imageHint) {
+        try {
+            Mat screenshot = bytesToMat(screenshotBytes);
+            if (screenshot.empty()) {
+                log.error("图像解码失败: screenshot");
+                screenshot.release();
                 return Optional.empty();
             }
 
-            log.info("开始图像匹配: 截图尺寸 {}x{}, 模板尺寸 {}x{}",
-                    screenshot.cols(), screenshot.rows(),
-                    template.cols(), template.rows());
-
-            // 多尺度匹配（应对不同分辨率/缩放）
-            Optional<int[]> result = matchMultiScale(screenshot, template, threshold);
-
-            screenshot.release();
-            template.release();
-
-            return result;
+            // 模板按内容哈希缓存，重复使用时免去解码和缩放
+            try (TemplateMatCache.Template template = templateCache.acquire(templateBase64, this::decodeTemplate)) {
+                if (template == null) {
+                    log.error("图像解码失败: template");
+                    return Optional.empty();
+                }
+
+                log.info("开始图像匹配: 截图尺寸 {}x{}, 模板尺寸 {}x{}",
+                        screenshot.cols(), screenshot.rows(),
+                        template.getOriginal().cols(), template.getOriginal().rows());
+
+                int[] hint = parseHint(imageHint);
+                if (hint != null) {
+                    Optional<int[]> near = matchNearHint(screenshot, template, threshold, hint);
+                    if (near.isPresent()) {
+                        return near;
+                    }
+                }
+
+                if ("pyramid".equalsIgnoreCase(matchMode)) {
+                    return matchPyramid(screenshot, template, threshold);
+                }
+
+                // 多尺度匹配（应对不同分辨率/缩放）
+                return matchMultiScale(screenshot, template.getScaled(), threshold);
+            } finally {
+                screenshot.release();
+            }
 
         } catch (Exception e) {
             log.error("图像识别失败: {}", e.getMessage(), e);
@@ -66,71 +137,253 @@ public class ImageLocatorService {
     }
 
     /**
-     * 多尺度模板匹配（0.5x 到 2.0x）
+     * 多尺度模板匹配：各缩放比例并行匹配，任一比例超过 阈值+提前结束余量 即停止其余比例
      */
-    private Optional<int[]> matchMultiScale(Mat screenshot, Mat template, double threshold) {
-        Mat result = new Mat();
-        int matchMethod = opencv_imgproc.TM_CCOEFF_NORMED;
+    private Optional<int[]> matchMultiScale(Mat screenshot, Map<Double, Mat> scaledTemplates, double threshold) {
+        ScaleMatch best = bestOfScales(screenshot, scaledTemplates, threshold + earlyStopMargin);
 
-        double bestConfidence = 0;
-        int bestX = 0, bestY = 0;
-        double bestScale = 1.0;
+        if (best == null) {
+            log.warn("❌ 没有可用的缩放比例（模板大于截图）");
+            return Optional.empty();
+        }
+
+        log.info("最佳匹配: 置信度={}, 坐标=({}, {}), 缩放比例={}",
+                best.confidence(), best.x(), best.y(), best.scale());
 
-        // 尝试不同缩放比例
-        double[] scales = {1.0, 0.9, 1.1, 0.8, 1.2, 0.7, 1.3};
+        if (best.confidence() >= threshold) {
+            log.info("✅ 图像匹配成功，返回坐标: ({}, {})", best.x(), best.y());
+            return Optional.of(new int[]{best.x(), best.y()});
+        } else {
+            log.warn("❌ 图像匹配置信度过低: {} < {}", best.confidence(), threshold);
+            return Optional.empty();
+        }
+    }
 
-        for (double scale : scales) {
-            Mat resizedTemplate = new Mat();
-            Size newSize = new Size(
-                    (int)(template.cols() * scale),
-                    (int)(template.rows() * scale)
-            );
+    /**
+     * 金字塔搜索：在1/4（或1/2）灰度图上做多尺度粗匹配，再逐层放大只在候选点附近的小区域内精修，
+     * 最后在原图上确认置信度；失败时退回完整多尺度匹配
+     */
+    private Optional<int[]> matchPyramid(Mat screenshot, TemplateMatCache.Template template, double threshold) {
+        Mat original = template.getOriginal();
+        int coarseLevel = TemplateMatCache.PYRAMID_LEVELS - 1;
+        // 模板缩小后太小会失去特征，逐级降低粗匹配层
+        while (coarseLevel > 0
+                && Math.min(original.cols(), original.rows()) * 0.7 / (1 << coarseLevel) < MIN_PYRAMID_TEMPLATE_SIZE) {
+            coarseLevel--;
+        }
+        if (coarseLevel == 0) {
+            log.info("模板尺寸过小，金字塔模式退回多尺度匹配");
+            return matchMultiScale(screenshot, template.getScaled(), threshold);
+        }
 
-            // 如果缩放后比截图还大，跳过
-            if (newSize.width() > screenshot.cols() || newSize.height() > screenshot.rows()) {
-                resizedTemplate.release();
-                continue;
+        Mat[] levels = buildGrayPyramid(screenshot, coarseLevel);
+        try {
+            Map<Double, Mat> coarseTemplates = new LinkedHashMap<>();
+            for (Double scale : template.getScaled().keySet()) {
+                coarseTemplates.put(scale, template.getGray(scale, coarseLevel));
             }
 
-            opencv_imgproc.resize(template, resizedTemplate, newSize);
+            ScaleMatch match = bestOfScales(levels[coarseLevel], coarseTemplates, Double.MAX_VALUE);
+            if (match == null) {
+                return matchMultiScale(screenshot, template.getScaled(), threshold);
+            }
+            log.info("金字塔粗匹配(1/{}): 置信度={}, 缩放比例={}", 1 << coarseLevel, match.confidence(), match.scale());
+
+            for (int level = coarseLevel - 1; level >= 0 && match != null; level--) {
+                // 最后一层用彩色原图，与多尺度匹配的置信度口径一致
+                Mat image = level == 0 ? screenshot : levels[level];
+                Mat levelTemplate = level == 0
+                        ? template.getScaled().get(match.scale())
+                        : template.getGray(match.scale(), level);
+                match = matchInRegion(image, levelTemplate, match.scale(),
+                        match.x() * 2, match.y() * 2, PYRAMID_REFINE_MARGIN);
+            }
 
-            // 执行匹配
-            opencv_imgproc.matchTemplate(screenshot, resizedTemplate, result, matchMethod);
+            if (match != null && match.confidence() >= threshold) {
+                log.info("✅ 金字塔匹配成功: 置信度={}, 坐标=({}, {}), 缩放比例={}",
+                        match.confidence(), match.x(), match.y(), match.scale());
+                return Optional.of(new int[]{match.x(), match.y()});
+            }
 
-            DoublePointer minVal = new DoublePointer(1);
-            DoublePointer maxVal = new DoublePointer(1);
-            Point minLoc = new Point();
-            Point maxLoc = new Point();
+            log.info("金字塔精修未达阈值，退回多尺度匹配");
+            return matchMultiScale(screenshot, template.getScaled(), threshold);
+        } finally {
+            for (int level = 1; level < levels.length; level++) {
+                levels[level].release();
+            }
+        }
+    }
 
-            opencv_core.minMaxLoc(result, minVal, maxVal, minLoc, maxLoc, null);
+    /**
+     * 在提示坐标附近（约三倍模板大小的区域）做全分辨率多尺度匹配
+     */
+    private Optional<int[]> matchNearHint(Mat screenshot, TemplateMatCache.Template template,
+                                          double threshold, int[] hint) {
+        ScaleMatch best = null;
+        for (Map.Entry<Double, Mat> entry : template.getScaled().entrySet()) {
+            Mat scaled = entry.getValue();
+            int margin = Math.max(scaled.cols(), scaled.rows());
+            ScaleMatch match = matchInRegion(screenshot, scaled, entry.getKey(), hint[0], hint[1], margin);
+            if (match != null && (best == null || match.confidence() > best.confidence())) {
+                best = match;
+            }
+        }
 
-            double confidence = maxVal.get(0);
+        if (best != null && best.confidence() >= threshold) {
+            log.info("✅ 提示区域匹配成功: 置信度={}, 坐标=({}, {})", best.confidence(), best.x(), best.y());
+            return Optional.of(new int[]{best.x(), best.y()});
+        }
+        log.info("提示区域 ({}, {}) 未匹配，搜索整页", hint[0], hint[1]);
+        return Optional.empty();
+    }
+
+    /**
+     * 灰度金字塔，levels[0] 为原图灰度，levels[i] 为 1/2^i
+     */
+    private Mat[] buildGrayPyramid(Mat screenshot, int maxLevel) {
+        Mat[] levels = new Mat[maxLevel + 1];
+        levels[0] = new Mat();
+        opencv_imgproc.cvtColor(screenshot, levels[0], opencv_imgproc.COLOR_BGR2GRAY);
+        for (int level = 1; level <= maxLevel; level++) {
+            levels[level] = new Mat();
+            opencv_imgproc.pyrDown(levels[level - 1], levels[level]);
+        }
+        // 原图灰度只用于生成下一层
+        Mat gray = levels[0];
+        levels[0] = screenshot;
+        gray.release();
+        return levels;
+    }
+
+    /**
+     * 只在以 (centerX, centerY) 为中心、模板大小外扩 margin 的区域内匹配，返回原图坐标
+     */
+    private ScaleMatch matchInRegion(Mat image, Mat template, double scale, int centerX, int centerY, int margin) {
+        if (template == null) {
+            return null;
+        }
+        int x0 = Math.max(0, centerX - template.cols() / 2 - margin);
+        int y0 = Math.max(0, centerY - template.rows() / 2 - margin);
+        int x1 = Math.min(image.cols(), centerX + (template.cols() + 1) / 2 + margin);
+        int y1 = Math.min(image.rows(), centerY + (template.rows() + 1) / 2 + margin);
+        if (x1 - x0 < template.cols() || y1 - y0 < template.rows()) {
+            return null;
+        }
 
-            if (confidence > bestConfidence) {
-                bestConfidence = confidence;
-                bestX = maxLoc.x() + (int)(resizedTemplate.cols() / 2);
-                bestY = maxLoc.y() + (int)(resizedTemplate.rows() / 2);
-                bestScale = scale;
+        Mat roi = new Mat(image, new Rect(x0, y0, x1 - x0, y1 - y0));
+        try {
+            ScaleMatch match = matchScale(roi, template, scale);
+            return new ScaleMatch(scale, match.confidence(), match.x() + x0, match.y() + y0);
+        } finally {
+            roi.release();
+        }
+    }
+
+    private int[] parseHint(String imageHint) {
+        if (imageHint == null || !imageHint.contains(",")) {
+            return null;
+        }
+        try {
+            String[] parts = imageHint.split(",");
+            return new int[]{Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim())};
+        } catch (NumberFormatException e) {
+            log.warn("无效的图像提示坐标: {}", imageHint);
+            return null;
+        }
+    }
+
+    /**
+     * 并行尝试各缩放比例，返回置信度最高的结果；任一比例达到 stopAt 即跳过尚未开始的比例
+     */
+    private ScaleMatch bestOfScales(Mat screenshot, Map<Double, Mat> scaledTemplates, double stopAt) {
+        AtomicBoolean goodEnough = new AtomicBoolean(false);
+
+        // 尝试不同缩放比例（缩放模板已在缓存中预生成）
+        List<ForkJoinTask<ScaleMatch>> tasks = new ArrayList<>();
+        for (Map.Entry<Double, Mat> entry : scaledTemplates.entrySet()) {
+            Mat resizedTemplate = entry.getValue();
+
+            // 如果缩放后比截图还大，跳过
+            if (resizedTemplate == null || resizedTemplate.cols() > screenshot.cols() || resizedTemplate.rows() > screenshot.rows()) {
+                continue;
             }
 
-            resizedTemplate.release();
+            tasks.add(matchPool.submit(() -> {
+                if (goodEnough.get()) {
+                    return null;
+                }
+                ScaleMatch match = matchScale(screenshot, resizedTemplate, entry.getKey());
+                if (match.confidence() >= stopAt) {
+                    goodEnough.set(true);
+                }
+                return match;
+            }));
         }
 
-        result.release();
+        // join不可中断：必须等全部比例结束，模板Mat才能交还缓存
+        ScaleMatch best = null;
+        for (ForkJoinTask<ScaleMatch> task : tasks) {
+            try {
+                ScaleMatch match = task.join();
+                if (match != null && (best == null || match.confidence() > best.confidence())) {
+                    best = match;
+                }
+            } catch (RuntimeException e) {
+                log.error("缩放比例匹配失败: {}", e.getMessage());
+            }
+        }
+        return best;
+    }
 
-        log.info("最佳匹配: 置信度={}, 坐标=({}, {}), 缩放比例={}",
-                bestConfidence, bestX, bestY, bestScale);
+    /**
+     * 单个缩放比例的匹配，结果矩阵和极值缓冲区按线程复用
+     */
+    private ScaleMatch matchScale(Mat screenshot, Mat template, double scale) {
+        MatchScratch scratch = SCRATCH.get();
 
-        if (bestConfidence >= threshold) {
-            log.info("✅ 图像匹配成功，返回坐标: ({}, {})", bestX, bestY);
-            return Optional.of(new int[]{bestX, bestY});
-        } else {
-            log.warn("❌ 图像匹配置信度过低: {} < {}", bestConfidence, threshold);
-            return Optional.empty();
+        opencv_imgproc.matchTemplate(screenshot, template, scratch.result, opencv_imgproc.TM_CCOEFF_NORMED);
+        opencv_core.minMaxLoc(scratch.result, scratch.minVal, scratch.maxVal, scratch.minLoc, scratch.maxLoc, null);
+
+        return new ScaleMatch(scale, scratch.maxVal.get(0),
+                scratch.maxLoc.x() + template.cols() / 2,
+                scratch.maxLoc.y() + template.rows() / 2);
+    }
+
+    private record ScaleMatch(double scale, double confidence, int x, int y) {
+    }
+
+    private static class MatchScratch {
+        final Mat result = new Mat();
+        final DoublePointer minVal = new DoublePointer(1);
+        final DoublePointer maxVal = new DoublePointer(1);
+        final Point minLoc = new Point();
+        final Point maxLoc = new Point();
+    }
+
+    private Mat decodeTemplate(String templateBase64) {
+        try {
+            return bytesToMat(Base64.getDecoder().decode(templateBase64));
+        } catch (IllegalArgumentException e) {
+            log.error("模板base64解码失败: {}", e.getMessage());
+            return new Mat();
         }
     }
 
+    /**
+     * 直接imdecode；OpenCV不支持的格式再退回ImageIO转PNG
+     */
     private Mat bytesToMat(byte[] bytes) {
+        Mat encoded = new Mat(bytes);
+        Mat decoded = opencv_imgcodecs.imdecode(encoded, opencv_imgcodecs.IMREAD_COLOR);
+        encoded.release();
+        if (!decoded.empty()) {
+            return decoded;
+        }
+        decoded.release();
+        return bytesToMatViaImageIO(bytes);
+    }
+
+    private Mat bytesToMatViaImageIO(byte[] bytes) {
         try {
             BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
             if (image == null) {
@@ -149,16 +402,4 @@ public class ImageLocatorService {
             return new Mat();
         }
     }
-
-    public void saveDebugImage(String base64Image, String filename) {
-        try {
-            byte[] bytes = Base64.getDecoder().decode(base64Image);
-            Path path = Path.of("logs/debug_" + filename + "_" + System.currentTimeMillis() + ".png");
-            Files.createDirectories(path.getParent());
-            Files.write(path, bytes);
-            log.info("调试图像已保存: {}", path.toAbsolutePath());
-        } catch (IOException e) {
-            log.error("保存调试图像失败", e);
-        }
-    }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package com.rpaai.service;
 
+import com.rpaai.core.cache.TtlLruCache;
 import com.rpaai.entity.RpaStep;
 import com.rpaai.entity.neo4j.ExceptionCase;
 import com.rpaai.entity.neo4j.ElementPattern;
@@ -7,22 +8,81 @@ import com.rpaai.repository.neo4j.ExceptionCaseRepository;
 import com.rpaai.repository.neo4j.ElementPatternRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.neo4j.core.Neo4jClient;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 @Slf4j
 @Service
 public class KnowledgeGraphService {
 
+    // 与 findSimilarCases 相同的排序：成功次数降序，最近使用时间降序
+    private static final Comparator<ExceptionCase> CASE_ORDER = Comparator
+            .comparing((ExceptionCase c) -> c.getSuccessCount() != null ? c.getSuccessCount() : 0, Comparator.reverseOrder())
+            .thenComparing(ExceptionCase::getLastUsedTime, Comparator.nullsLast(Comparator.reverseOrder()));
+
+    // 全文检索：英文数字词（至少3字符）和中文片段
+    private static final Pattern QUERY_TERM_PATTERN = Pattern.compile("[a-z][a-z0-9_]{2,}|[\\u4e00-\\u9fff]{2,}");
+    private static final Set<String> QUERY_STOP_WORDS = Set.of("the", "and", "for", "with", "was", "not",
+            "exception", "error", "java", "lang", "org");
+    private static final int MAX_QUERY_TERMS = 8;
+    private static final long FULLTEXT_RETRY_MILLIS = 5 * 60_000;
+
     @Autowired(required = false)
     private ExceptionCaseRepository exceptionCaseRepository;
 
     @Autowired(required = false)
     private ElementPatternRepository elementPatternRepository;
 
+    @Autowired(required = false)
+    private Neo4jClient neo4jClient;
+
+    @Autowired
+    private PageTypeClassifier pageTypeClassifier;
+
+    private volatile long fullTextRetryAt;
+
+    @Value("${rpa.kg.cache.max-entries:2000}")
+    private int cacheMaxEntries;
+
+    @Value("${rpa.kg.cache.ttl-seconds:300}")
+    private long cacheTtlSeconds;
+
+    // 全文检索的最低相关度，低于此分数的案例不作为解决方案返回
+    @Value("${rpa.kg.fulltext-min-score:1.0}")
+    private double fullTextMinScore;
+
+    // 近端缓存：未命中（Optional.empty）也缓存，避免反复查询不存在的组合；写操作直接更新缓存
+    private TtlLruCache<PatternKey, Optional<ElementPattern>> patternCache;
+    private TtlLruCache<PatternKey, Optional<ElementPattern>> visualPatternCache;
+    private TtlLruCache<CaseKey, List<ExceptionCase>> caseCache;
+
+    // 写后缓冲：模式增量和案例使用时间，定时批量写入
+    private final Map<PatternKey, PendingPattern> pendingPatterns = new ConcurrentHashMap<>();
+    private final Map<String, LocalDateTime> pendingCaseTouches = new ConcurrentHashMap<>();
+    private final AtomicLong flushedPatternUpdates = new AtomicLong();
+
+    @PostConstruct
+    public void initCaches() {
+        long ttlMillis = cacheTtlSeconds * 1000;
+        patternCache = new TtlLruCache<>(cacheMaxEntries, ttlMillis);
+        visualPatternCache = new TtlLruCache<>(cacheMaxEntries, ttlMillis);
+        caseCache = new TtlLruCache<>(cacheMaxEntries, ttlMillis);
+    }
+
     /**
      * 强制测试连接，返回详细错误信息
      */
@@ -96,38 +156,80 @@ public class KnowledgeGraphService {
     }
 
     /**
-     * 获取所有元素模式
+     * 分页获取元素模式（按成功率、使用次数倒序），cursor 为上一页返回的 nextCursor
      */
-    public List<ElementPattern> getAllPatterns() {
-        if (elementPatternRepository == null) return new ArrayList<>();
+    public KeysetPage<ElementPattern> getPatternsPage(String cursor, int limit) {
+        if (elementPatternRepository == null) return KeysetPage.empty();
+        String[] c = decodeCursor(cursor, 3);
+        Double cursorRate = c != null ? Double.valueOf(c[0]) : null;
+        Integer cursorCount = c != null ? Integer.valueOf(c[1]) : null;
         try {
-            return elementPatternRepository.findAllPatterns();
+            List<ElementPattern> items = elementPatternRepository.findPageByRate(
+                    cursorRate, cursorCount, c != null ? c[2] : null, limit);
+            String next = null;
+            if (items.size() == limit) {
+                ElementPattern last = items.get(items.size() - 1);
+                next = encodeCursor(String.valueOf(last.getSuccessRate()),
+                        String.valueOf(last.getUsageCount() != null ? last.getUsageCount() : 0), last.getId());
+            }
+            return new KeysetPage<>(items, next);
         } catch (Exception e) {
             log.error("获取元素模式失败: {}", e.getMessage());
-            return new ArrayList<>();
+            return KeysetPage.empty();
         }
     }
 
     /**
-     * 获取所有异常案例（最近50条）
+     * 分页获取异常案例（按最近活动时间倒序），cursor 为上一页返回的 nextCursor
      */
-    public List<ExceptionCase> getAllCases() {
-        if (exceptionCaseRepository == null) return new ArrayList<>();
+    public KeysetPage<ExceptionCase> getCasesPage(String cursor, int limit) {
+        if (exceptionCaseRepository == null) return KeysetPage.empty();
+        String[] c = decodeCursor(cursor, 2);
+        LocalDateTime cursorTime;
         try {
-            // 由于 findTopSolutions 是 LIMIT 10，这里用自定义查询或直接用 findAll 再截断
-            List<ExceptionCase> all = new ArrayList<>();
-            exceptionCaseRepository.findAll().forEach(all::add);
-            all.sort((a, b) -> {
-                LocalDateTime t1 = a.getLastUsedTime() != null ? a.getLastUsedTime() : a.getCreateTime();
-                LocalDateTime t2 = b.getLastUsedTime() != null ? b.getLastUsedTime() : b.getCreateTime();
-                if (t1 == null) return 1;
-                if (t2 == null) return -1;
-                return t2.compareTo(t1);
-            });
-            return all.stream().limit(50).collect(Collectors.toList());
+            cursorTime = c != null ? LocalDateTime.parse(c[0]) : null;
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("无效的分页游标");
+        }
+        try {
+            List<ExceptionCase> items = exceptionCaseRepository.findPageByActivity(
+                    cursorTime, c != null ? c[1] : null, limit);
+            String next = null;
+            if (items.size() == limit) {
+                ExceptionCase last = items.get(items.size() - 1);
+                next = encodeCursor(last.getLastActivityTime().toString(), last.getId());
+            }
+            return new KeysetPage<>(items, next);
         } catch (Exception e) {
             log.error("获取异常案例失败: {}", e.getMessage());
-            return new ArrayList<>();
+            return KeysetPage.empty();
+        }
+    }
+
+    private static String encodeCursor(String... parts) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(String.join("|", parts).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析游标，空游标返回 null（首页）；格式不对时抛出 IllegalArgumentException
+     */
+    private static String[] decodeCursor(String cursor, int parts) {
+        if (cursor == null || cursor.isBlank()) return null;
+        String[] decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8)
+                .split("\\|", parts);
+        if (decoded.length != parts) {
+            throw new IllegalArgumentException("无效的分页游标");
+        }
+        return decoded;
+    }
+
+    /**
+     * 键集分页结果，nextCursor 为 null 表示没有下一页
+     */
+    public record KeysetPage<T>(List<T> items, String nextCursor) {
+        static <T> KeysetPage<T> empty() {
+            return new KeysetPage<>(new ArrayList<>(), null);
         }
     }
 
@@ -138,6 +240,8 @@ public class KnowledgeGraphService {
         if (elementPatternRepository == null) return false;
         try {
             elementPatternRepository.deleteById(id);
+            patternCache.invalidateIfValue(p -> p.isPresent() && id.equals(p.get().getId()));
+            visualPatternCache.invalidateIfValue(p -> p.isPresent() && id.equals(p.get().getId()));
             return true;
         } catch (Exception e) {
             log.error("删除元素模式失败: {}", e.getMessage());
@@ -151,13 +255,113 @@ public class KnowledgeGraphService {
     public Optional<ElementPattern> findPattern(String pageType, String action) {
         if (elementPatternRepository == null) return Optional.empty();
         try {
-            return elementPatternRepository.findByPageTypeAndElementType(pageType, action);
+            return cachedPattern(new PatternKey(pageType, action));
         } catch (Exception e) {
             log.error("查找元素模式失败: {}", e.getMessage());
             return Optional.empty();
         }
     }
 
+    /**
+     * 批量查找元素模式，一次图数据库往返；同一组合有多个模式时取成功率最高的
+     */
+    public Map<PatternKey, ElementPattern> findPatterns(Collection<PatternKey> keys) {
+        if (elementPatternRepository == null || keys.isEmpty()) return Collections.emptyMap();
+        try {
+            Map<PatternKey, ElementPattern> result = new HashMap<>();
+            List<PatternKey> missing = new ArrayList<>();
+            for (PatternKey key : keys) {
+                Optional<Optional<ElementPattern>> cached = patternCache.get(key);
+                if (cached.isPresent()) {
+                    cached.get().ifPresent(p -> result.put(key, p));
+                } else {
+                    missing.add(key);
+                }
+            }
+            if (missing.isEmpty()) {
+                return result;
+            }
+
+            List<Map<String, String>> params = missing.stream()
+                    .map(k -> Map.of("pageType", k.pageType(), "elementType", k.elementType()))
+                    .collect(Collectors.toList());
+
+            Map<PatternKey, ElementPattern> loaded = new HashMap<>();
+            for (ElementPattern pattern : elementPatternRepository.findByPageTypeAndElementTypeIn(params)) {
+                loaded.merge(new PatternKey(pattern.getPageType(), pattern.getElementType()), pattern,
+                        (a, b) -> successRate(b) > successRate(a) ? b : a);
+            }
+            for (PatternKey key : missing) {
+                patternCache.put(key, Optional.ofNullable(loaded.get(key)));
+            }
+            result.putAll(loaded);
+            return result;
+        } catch (Exception e) {
+            log.error("批量查找元素模式失败: {}", e.getMessage());
+            return Collections.emptyMap();
+        }
+    }
+
+    private static double successRate(ElementPattern pattern) {
+        return pattern.getSuccessRate() != null ? pattern.getSuccessRate() : 0.0;
+    }
+
+    private Optional<ElementPattern> cachedPattern(PatternKey key) {
+        Optional<Optional<ElementPattern>> cached = patternCache.get(key);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        Optional<ElementPattern> loaded = elementPatternRepository
+                .findByPageTypeAndElementType(key.pageType(), key.elementType());
+        patternCache.put(key, loaded);
+        return loaded;
+    }
+
+    private Optional<ElementPattern> cachedVisualPattern(PatternKey key) {
+        Optional<Optional<ElementPattern>> cached = visualPatternCache.get(key);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        Optional<ElementPattern> loaded = elementPatternRepository
+                .findVisualPattern(key.pageType(), key.elementType());
+        visualPatternCache.put(key, loaded);
+        return loaded;
+    }
+
+    private List<ExceptionCase> cachedSimilarCases(CaseKey key) {
+        Optional<List<ExceptionCase>> cached = caseCache.get(key);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        List<ExceptionCase> loaded = List.copyOf(
+                exceptionCaseRepository.findSimilarCases(key.errorType(), key.action()));
+        caseCache.put(key, loaded);
+        return loaded;
+    }
+
+    public Map<String, Object> getRuntimeStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("patterns", patternCache.getStats());
+        stats.put("visualPatterns", visualPatternCache.getStats());
+        stats.put("cases", caseCache.getStats());
+        stats.put("pendingPatternUpdates", pendingPatterns.size());
+        stats.put("pendingCaseTouches", pendingCaseTouches.size());
+        stats.put("flushedPatternUpdates", flushedPatternUpdates.get());
+        return stats;
+    }
+
+    /**
+     * 元素模式的查找键
+     */
+    public record PatternKey(String pageType, String elementType) {
+    }
+
+    /**
+     * 异常案例的查找键
+     */
+    public record CaseKey(String errorType, String action) {
+    }
+
     /**
      * 根据异常查找解决方案（添加容错处理）
      */
@@ -175,37 +379,31 @@ public class KnowledgeGraphService {
             log.info("🔍 在知识图谱中查找解决方案: {} - {}", errorType, errorMessage);
 
             // 1. 精确匹配：相同异常类型 + 相同操作
-            List<ExceptionCase> similarCases = exceptionCaseRepository.findSimilarCases(
-                    errorType,
-                    failedStep.getAction()
-            );
+            List<ExceptionCase> similarCases = cachedSimilarCases(new CaseKey(errorType, failedStep.getAction()));
 
             if (!similarCases.isEmpty()) {
                 ExceptionCase bestCase = similarCases.get(0);
-                bestCase.setLastUsedTime(LocalDateTime.now());
-                exceptionCaseRepository.save(bestCase);
+                // 缓存里的实体被多个线程共享，不在这里改；使用时间只登记，由定时批量写回
+                pendingCaseTouches.merge(bestCase.getId(), LocalDateTime.now(), (x, y) -> x.isAfter(y) ? x : y);
 
                 log.info("✅ 找到历史解决方案 (使用{}次): {}",
                         bestCase.getSuccessCount(), bestCase.getSolution());
                 return Optional.of(bestCase.getSolution());
             }
 
-            // 2. 模糊匹配：异常信息关键词
-            String keyword = extractKeyword(errorMessage);
-            if (keyword != null && !keyword.isEmpty()) {
-                List<ExceptionCase> fuzzyCases = exceptionCaseRepository.searchByKeyword(keyword);
-                if (!fuzzyCases.isEmpty()) {
-                    log.info("✅ 找到模糊匹配方案: {}", fuzzyCases.get(0).getSolution());
-                    return Optional.of(fuzzyCases.get(0).getSolution());
-                }
+            // 2. 模糊匹配：全文索引检索异常信息
+            List<ExceptionCase> fuzzyCases = searchCases(errorType, errorMessage);
+            if (!fuzzyCases.isEmpty()) {
+                log.info("✅ 找到模糊匹配方案: {}", fuzzyCases.get(0).getSolution());
+                return Optional.of(fuzzyCases.get(0).getSolution());
             }
 
             // 3. 根据页面类型和元素类型查找成功模式（优先视觉定位）
             String pageType = inferPageType(currentUrl);
 
             // 3.1 先查有图像模板的成功模式
-            Optional<ElementPattern> visualPattern = elementPatternRepository
-                    .findVisualPattern(pageType, failedStep.getAction());
+            PatternKey patternKey = new PatternKey(pageType, failedStep.getAction());
+            Optional<ElementPattern> visualPattern = cachedVisualPattern(patternKey);
             if (visualPattern.isPresent()) {
                 ElementPattern pat = visualPattern.get();
                 if (pat.getSuccessRate() > 0.6) {
@@ -217,8 +415,7 @@ public class KnowledgeGraphService {
             }
 
             // 3.2 再查普通选择器模式
-            Optional<ElementPattern> pattern = elementPatternRepository
-                    .findByPageTypeAndElementType(pageType, failedStep.getAction());
+            Optional<ElementPattern> pattern = cachedPattern(patternKey);
 
             if (pattern.isPresent()) {
                 ElementPattern pat = pattern.get();
@@ -256,68 +453,248 @@ public class KnowledgeGraphService {
             newCase.setSolution(solution);
             newCase.setSuccessCount(1);
             newCase.setLastUsedTime(LocalDateTime.now());
-
-            exceptionCaseRepository.save(newCase);
+            newCase.setLastActivityTime(newCase.getLastUsedTime());
+
+            ExceptionCase saved = exceptionCaseRepository.save(newCase);
+            CaseKey caseKey = new CaseKey(errorType, step.getAction());
+            caseCache.get(caseKey).ifPresent(cases -> {
+                List<ExceptionCase> updated = new ArrayList<>(cases);
+                updated.add(saved);
+                updated.sort(CASE_ORDER);
+                caseCache.put(caseKey, List.copyOf(updated.subList(0, Math.min(3, updated.size()))));
+            });
             log.info("💾 记录新的解决方案到知识图谱: {}", solution);
         } catch (Exception e) {
             log.error("❌ 记录解决方案失败: {}", e.getMessage());
         }
     }
 
+    public void recordElementPattern(String pageUrl, String action,
+                                     String successfulSelector, List<String> alternatives,
+                                     String imageTemplate, Double imageThreshold) {
+        recordElementPattern(pageUrl, action, successfulSelector, alternatives, imageTemplate, imageThreshold, null);
+    }
+
     /**
-     * 记录元素使用模式（添加容错，支持图像模板）
+     * 记录元素使用模式（支持图像模板和上次匹配坐标 "x,y"）
+     * 只在内存中累加，由定时任务批量写入图数据库，调用方不等待图写入
      */
     public void recordElementPattern(String pageUrl, String action,
                                      String successfulSelector, List<String> alternatives,
-                                     String imageTemplate, Double imageThreshold) {
-        if (elementPatternRepository == null) return;
+                                     String imageTemplate, Double imageThreshold, String imageHint) {
+        if (neo4jClient == null) return;
+
+        PatternKey key = new PatternKey(inferPageType(pageUrl), action);
+        pendingPatterns.compute(key, (k, pending) -> {
+            PendingPattern p = pending != null ? pending : new PendingPattern();
+            p.successes++;
+            p.lastSuccessTime = LocalDateTime.now();
+            if (p.selector == null) {
+                p.selector = successfulSelector;
+                p.alternatives = alternatives != null ? String.join(",", alternatives) : "";
+            }
+            if (imageTemplate != null && !imageTemplate.isEmpty()) {
+                p.imageTemplate = imageTemplate;
+                p.imageThreshold = imageThreshold != null ? imageThreshold : 0.8;
+            }
+            applyMatchHint(p, imageHint);
+            return p;
+        });
+        log.debug("📚 缓冲元素模式更新: {}-{}", key.pageType(), key.elementType());
+    }
+
+    /**
+     * 批量写入缓冲的模式更新和案例使用时间（定时执行，关闭时再执行一次）
+     * 计数在图数据库内累加，并发执行的更新不会互相覆盖
+     */
+    @Scheduled(fixedDelayString = "${rpa.kg.learning.flush-interval-ms:5000}")
+    @PreDestroy
+    public synchronized void flushLearning() {
+        if (neo4jClient == null) return;
+        flushPatterns();
+        flushCaseTouches();
+    }
+
+    private void flushPatterns() {
+        if (pendingPatterns.isEmpty()) return;
+
+        Map<PatternKey, PendingPattern> batch = new HashMap<>();
+        for (PatternKey key : new ArrayList<>(pendingPatterns.keySet())) {
+            PendingPattern pending = pendingPatterns.remove(key);
+            if (pending != null) {
+                batch.put(key, pending);
+            }
+        }
+
+        String idPrefix = "PAT_" + System.currentTimeMillis() + "_";
+        List<Map<String, Object>> rows = new ArrayList<>(batch.size());
+        batch.forEach((key, p) -> {
+            Map<String, Object> row = new HashMap<>();
+            row.put("id", idPrefix + rows.size());
+            row.put("pageType", key.pageType());
+            row.put("elementType", key.elementType());
+            row.put("delta", p.successes);
+            row.put("selector", p.selector);
+            row.put("alternatives", p.alternatives);
+            row.put("lastSuccessTime", p.lastSuccessTime);
+            row.put("imageTemplate", p.imageTemplate);
+            row.put("imageThreshold", p.imageThreshold);
+            row.put("lastMatchX", p.lastMatchX);
+            row.put("lastMatchY", p.lastMatchY);
+            rows.add(row);
+        });
 
         try {
-            String pageType = inferPageType(pageUrl);
-
-            Optional<ElementPattern> existing = elementPatternRepository
-                    .findByPageTypeAndElementType(pageType, action);
-
-            if (existing.isPresent()) {
-                // 更新现有模式
-                ElementPattern pattern = existing.get();
-                pattern.setUsageCount(pattern.getUsageCount() + 1);
-                pattern.setLastSuccessTime(LocalDateTime.now());
-                // 更新成功率
-                double newRate = (pattern.getSuccessRate() * (pattern.getUsageCount() - 1) + 1)
-                        / pattern.getUsageCount();
-                pattern.setSuccessRate(newRate);
-                // 如果有新的图像模板，更新它
-                if (imageTemplate != null && !imageTemplate.isEmpty()) {
-                    pattern.setImageTemplate(imageTemplate);
-                    pattern.setImageThreshold(imageThreshold != null ? imageThreshold : 0.8);
-                }
-                elementPatternRepository.save(pattern);
-                log.info("📚 更新知识图谱元素模式: {}-{} (使用率{}次, 成功率{}%)",
-                        pageType, action, pattern.getUsageCount(), Math.round(newRate * 100));
-            } else {
-                // 创建新模式
-                ElementPattern pattern = new ElementPattern();
-                pattern.setPageType(pageType);
-                pattern.setElementType(action);
-                pattern.setSuccessfulSelector(successfulSelector);
-                pattern.setAlternativeSelectors(alternatives != null ? String.join(",", alternatives) : "");
-                pattern.setUsageCount(1);
-                pattern.setSuccessRate(1.0);
-                pattern.setLastSuccessTime(LocalDateTime.now());
-                pattern.setImageTemplate(imageTemplate);
-                pattern.setImageThreshold(imageThreshold != null ? imageThreshold : 0.8);
-                elementPatternRepository.save(pattern);
-                log.info("📚 记录新元素模式到知识图谱: {}-{} (含图像={})",
-                        pageType, action, imageTemplate != null);
+            // 只记录成功，成功率按 (旧成功数 + delta) / (旧使用数 + delta) 计算，先算成功率再累加次数
+            neo4jClient.query("UNWIND $rows AS row " +
+                            "MERGE (p:ElementPattern {pageType: row.pageType, elementType: row.elementType}) " +
+                            "ON CREATE SET p.id = row.id, p.successfulSelector = row.selector, " +
+                            "p.alternativeSelectors = row.alternatives, p.usageCount = 0, p.successRate = 1.0, " +
+                            "p.imageThreshold = 0.8 " +
+                            "SET p.successRate = (coalesce(p.successRate, 1.0) * coalesce(p.usageCount, 0) + row.delta) " +
+                            "/ (coalesce(p.usageCount, 0) + row.delta) " +
+                            "SET p.usageCount = coalesce(p.usageCount, 0) + row.delta, " +
+                            "p.lastSuccessTime = row.lastSuccessTime, " +
+                            "p.imageTemplate = coalesce(row.imageTemplate, p.imageTemplate), " +
+                            "p.imageThreshold = coalesce(row.imageThreshold, p.imageThreshold), " +
+                            "p.lastMatchX = coalesce(row.lastMatchX, p.lastMatchX), " +
+                            "p.lastMatchY = coalesce(row.lastMatchY, p.lastMatchY)")
+                    .bind(rows).to("rows")
+                    .run();
+
+            batch.keySet().forEach(key -> {
+                patternCache.invalidate(key);
+                visualPatternCache.invalidate(key);
+            });
+            flushedPatternUpdates.addAndGet(rows.size());
+            log.info("📚 批量写入元素模式更新: {} 个组合", rows.size());
+        } catch (Exception e) {
+            // 写入失败时放回缓冲区，与期间新到的更新合并，下次重试
+            batch.forEach((key, p) -> pendingPatterns.merge(key, p, PendingPattern::absorb));
+            log.error("❌ 批量写入元素模式失败，{} 个组合等待重试: {}", batch.size(), e.getMessage());
+        }
+    }
+
+    private void flushCaseTouches() {
+        if (pendingCaseTouches.isEmpty()) return;
+
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (String id : new ArrayList<>(pendingCaseTouches.keySet())) {
+            LocalDateTime time = pendingCaseTouches.remove(id);
+            if (time != null) {
+                rows.add(Map.of("id", id, "time", time));
             }
+        }
+
+        try {
+            neo4jClient.query("UNWIND $rows AS row " +
+                            "MATCH (e:ExceptionCase {id: row.id}) " +
+                            "SET e.lastUsedTime = row.time, e.lastActivityTime = row.time")
+                    .bind(rows).to("rows")
+                    .run();
         } catch (Exception e) {
-            log.error("❌ 记录元素模式失败: {}", e.getMessage());
+            rows.forEach(row -> pendingCaseTouches.merge((String) row.get("id"), (LocalDateTime) row.get("time"),
+                    (a, b) -> a.isAfter(b) ? a : b));
+            log.error("❌ 批量更新异常案例使用时间失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 待写入的模式增量
+     */
+    private static class PendingPattern {
+        int successes;
+        LocalDateTime lastSuccessTime;
+        String selector;
+        String alternatives;
+        String imageTemplate;
+        Double imageThreshold;
+        Integer lastMatchX;
+        Integer lastMatchY;
+
+        /**
+         * 合并更早的一批增量（this 为较新的）
+         */
+        PendingPattern absorb(PendingPattern older) {
+            successes += older.successes;
+            if (lastSuccessTime == null) lastSuccessTime = older.lastSuccessTime;
+            if (selector == null) {
+                selector = older.selector;
+                alternatives = older.alternatives;
+            }
+            if (imageTemplate == null) {
+                imageTemplate = older.imageTemplate;
+                imageThreshold = older.imageThreshold;
+            }
+            if (lastMatchX == null) {
+                lastMatchX = older.lastMatchX;
+                lastMatchY = older.lastMatchY;
+            }
+            return this;
         }
     }
 
     // ============ 私有工具方法 ============
 
+    private void applyMatchHint(PendingPattern pattern, String imageHint) {
+        if (imageHint == null || !imageHint.contains(",")) {
+            return;
+        }
+        try {
+            String[] parts = imageHint.split(",");
+            pattern.lastMatchX = Integer.parseInt(parts[0].trim());
+            pattern.lastMatchY = Integer.parseInt(parts[1].trim());
+        } catch (NumberFormatException e) {
+            log.warn("忽略无效的图像匹配坐标: {}", imageHint);
+        }
+    }
+
+    /**
+     * 全文索引检索相似异常：只按异常信息匹配，同类型异常仅加权排序，低于分数下限的结果丢弃；
+     * 索引不可用（旧版Neo4j或尚未创建）时退回关键词 CONTAINS 查询
+     */
+    private List<ExceptionCase> searchCases(String errorType, String errorMessage) {
+        String query = buildFullTextQuery(errorMessage);
+        if (query != null && System.currentTimeMillis() >= fullTextRetryAt) {
+            try {
+                return exceptionCaseRepository.searchFullText(query, errorType != null ? errorType : "",
+                        fullTextMinScore, 5);
+            } catch (Exception e) {
+                fullTextRetryAt = System.currentTimeMillis() + FULLTEXT_RETRY_MILLIS;
+                log.warn("⚠️ 全文索引不可用，暂时改用关键词查询: {}", e.getMessage());
+            }
+        }
+
+        String keyword = extractKeyword(errorMessage);
+        if (keyword == null || keyword.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return exceptionCaseRepository.searchByKeyword(keyword);
+    }
+
+    /**
+     * 把异常信息转成Lucene查询：英文词（长词带模糊匹配 ~）和中文片段，OR 连接后限定在 errorMessage 字段，
+     * 避免仅凭异常类名相同就命中
+     */
+    private String buildFullTextQuery(String errorMessage) {
+        if (errorMessage == null) return null;
+        Set<String> terms = new LinkedHashSet<>();
+        Matcher m = QUERY_TERM_PATTERN.matcher(errorMessage.toLowerCase());
+        while (m.find() && terms.size() < MAX_QUERY_TERMS) {
+            String term = m.group();
+            if (QUERY_STOP_WORDS.contains(term)) {
+                continue;
+            }
+            char first = term.charAt(0);
+            if (first >= '\u4e00' && first <= '\u9fff') {
+                terms.add("\"" + term + "\"");
+            } else {
+                terms.add(term.length() >= 5 ? term + "~" : term);
+            }
+        }
+        return terms.isEmpty() ? null : "errorMessage:(" + String.join(" OR ", terms) + ")";
+    }
+
     private String extractKeyword(String errorMessage) {
         if (errorMessage == null) return "";
 
@@ -334,22 +711,6 @@ public class KnowledgeGraphService {
     }
 
     public String inferPageType(String url) {
-        if (url == null) return "unknown";
-
-        String lower = url.toLowerCase();
-        if (lower.contains("login") || lower.contains("signin") || lower.contains("登录")) return "login";
-        if (lower.contains("search") || lower.contains("query") || lower.contains("s?wd=")) return "search";
-        if (lower.contains("form") || lower.contains("submit")) return "form";
-        if (lower.contains("baidu")) return "search";
-        if (lower.contains("google")) return "search";
-        if (lower.contains("bing")) return "search";
-        if (lower.contains("taobao") || lower.contains("tmall") || lower.contains("淘宝")) return "ecommerce";
-        if (lower.contains("jd") || lower.contains("京东")) return "ecommerce";
-        if (lower.contains("bilibili") || lower.contains("b23.tv")) return "video";
-        if (lower.contains("github")) return "dev";
-        if (lower.contains("zhihu")) return "social";
-        if (lower.contains("weibo")) return "social";
-
-        return "general";
+        return pageTypeClassifier.classify(url);
     }
 }
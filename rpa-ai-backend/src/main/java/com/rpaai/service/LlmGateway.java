@@ -0,0 +1,314 @@
+package com.rpaai.service;
+
+import com.rpaai.core.ai.CachingChatModel;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.output.TokenUsage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * LLM调用网关：所有调用方共用一个有界线程池（并发上限）和令牌桶（速率上限），
+ * 相同提示词的并发请求合并为一次远程调用，并按调用方统计耗时、token和排队情况
+ */
+@Slf4j
+@Service
+public class LlmGateway {
+
+    @Autowired
+    private ChatLanguageModel chatModel;
+
+    @Autowired(required = false)
+    private StreamingChatLanguageModel streamingChatModel;
+
+    @Value("${rpa.ai.gateway.max-concurrency:4}")
+    private int maxConcurrency;
+
+    @Value("${rpa.ai.gateway.queue-capacity:50}")
+    private int queueCapacity;
+
+    @Value("${rpa.ai.gateway.rate-per-second:5}")
+    private double ratePerSecond;
+
+    @Value("${rpa.ai.gateway.burst:10}")
+    private int burst;
+
+    @Value("${rpa.ai.gateway.timeout-seconds:60}")
+    private long timeoutSeconds;
+
+    private ThreadPoolExecutor executor;
+
+    // 进行中的请求，key为提示词本身（合并完全相同的并发请求）
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    private final Map<String, CallerStats> stats = new ConcurrentHashMap<>();
+
+    // 令牌桶
+    private double tokens;
+    private long lastRefill;
+
+    @PostConstruct
+    public void init() {
+        executor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity),
+                new ThreadFactory() {
+                    private final AtomicInteger seq = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "rpa-llm-" + seq.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        tokens = burst;
+        lastRefill = System.nanoTime();
+        log.info("🚀 LLM网关已创建: 并发={}, 队列={}, 速率={}/s, 突发={}",
+                maxConcurrency, queueCapacity, ratePerSecond, burst);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 同步调用（在调用方线程等待结果）
+     */
+    public String generate(String caller, String prompt) {
+        try {
+            return generateAsync(caller, prompt).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            return "AI调用失败: " + cause.getMessage();
+        }
+    }
+
+    /**
+     * 异步调用；队列已满时立即失败，不会无限堆积请求消耗API配额
+     */
+    public CompletableFuture<String> generateAsync(String caller, String prompt) {
+        CallerStats callerStats = stats.computeIfAbsent(caller, k -> new CallerStats());
+        callerStats.requests.incrementAndGet();
+
+        CompletableFuture<String> created = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(prompt, created);
+        if (existing != null) {
+            callerStats.coalesced.incrementAndGet();
+            log.info("🔗 合并相同的LLM请求 [{}]", caller);
+            return existing;
+        }
+
+        long enqueuedAt = System.nanoTime();
+        callerStats.queued.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                callerStats.queued.decrementAndGet();
+                call(caller, callerStats, prompt, enqueuedAt, created);
+            });
+        } catch (RejectedExecutionException e) {
+            callerStats.queued.decrementAndGet();
+            callerStats.rejected.incrementAndGet();
+            inFlight.remove(prompt, created);
+            log.warn("⚠️ LLM请求队列已满，拒绝 [{}] 的请求", caller);
+            created.completeExceptionally(new IllegalStateException("LLM请求队列已满"));
+            return created;
+        }
+
+        created.whenComplete((r, e) -> inFlight.remove(prompt, created));
+        return created.orTimeout(timeoutSeconds, TimeUnit.SECONDS);
+    }
+
+    public boolean supportsStreaming() {
+        return streamingChatModel != null;
+    }
+
+    /**
+     * 流式调用：与同步调用共用线程池和令牌桶，生成结束前一直占用一个并发名额；
+     * 每段增量输出回调 onToken，返回完整文本。流式请求需要逐段回调，不参与合并
+     */
+    public CompletableFuture<String> generateStreaming(String caller, String prompt, Consumer<String> onToken) {
+        CallerStats callerStats = stats.computeIfAbsent(caller, k -> new CallerStats());
+        callerStats.requests.incrementAndGet();
+
+        CompletableFuture<String> future = new CompletableFuture<>();
+        if (streamingChatModel == null) {
+            future.completeExceptionally(new IllegalStateException("未配置流式模型"));
+            return future;
+        }
+
+        long enqueuedAt = System.nanoTime();
+        callerStats.queued.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                callerStats.queued.decrementAndGet();
+                stream(caller, callerStats, prompt, onToken, enqueuedAt, future);
+            });
+        } catch (RejectedExecutionException e) {
+            callerStats.queued.decrementAndGet();
+            callerStats.rejected.incrementAndGet();
+            log.warn("⚠️ LLM请求队列已满，拒绝 [{}] 的流式请求", caller);
+            future.completeExceptionally(new IllegalStateException("LLM请求队列已满"));
+        }
+        return future;
+    }
+
+    private void stream(String caller, CallerStats callerStats, String prompt, Consumer<String> onToken,
+                        long enqueuedAt, CompletableFuture<String> future) {
+        try {
+            long wait = reserveToken();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            long start = System.nanoTime();
+            CompletableFuture<Response<AiMessage>> done = new CompletableFuture<>();
+            streamingChatModel.generate(prompt, new StreamingResponseHandler<AiMessage>() {
+                @Override
+                public void onNext(String token) {
+                    onToken.accept(token);
+                }
+
+                @Override
+                public void onComplete(Response<AiMessage> response) {
+                    done.complete(response);
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    done.completeExceptionally(error);
+                }
+            });
+            // 模型在自己的线程上回调，这里等到生成结束才归还并发名额
+            Response<AiMessage> response = done.get(timeoutSeconds, TimeUnit.SECONDS);
+            long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            callerStats.record(latencyMs, TimeUnit.NANOSECONDS.toMillis(start - enqueuedAt), response.tokenUsage());
+            log.debug("LLM流式调用完成 [{}]: {}ms", caller, latencyMs);
+
+            future.complete(response.content() != null ? response.content().text() : "");
+        } catch (ExecutionException e) {
+            callerStats.errors.incrementAndGet();
+            future.completeExceptionally(e.getCause() != null ? e.getCause() : e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            callerStats.errors.incrementAndGet();
+            future.completeExceptionally(e);
+        } catch (Exception e) {
+            callerStats.errors.incrementAndGet();
+            future.completeExceptionally(e);
+        }
+    }
+
+    private void call(String caller, CallerStats callerStats, String prompt, long enqueuedAt,
+                      CompletableFuture<String> future) {
+        try {
+            long wait = reserveToken();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            long start = System.nanoTime();
+            // 响应缓存只对登记的调用方生效（见 rpa.ai.cache.callers）
+            Response<AiMessage> response = CachingChatModel.forCaller(chatModel, caller)
+                    .generate(List.of(UserMessage.from(prompt)));
+            long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            callerStats.record(latencyMs, TimeUnit.NANOSECONDS.toMillis(start - enqueuedAt), response.tokenUsage());
+            log.debug("LLM调用完成 [{}]: {}ms", caller, latencyMs);
+
+            String text = response.content() != null ? response.content().text() : "";
+            if (text != null && text.startsWith("AI调用失败")) {
+                callerStats.errors.incrementAndGet();
+            }
+            future.complete(text);
+        } catch (Exception e) {
+            callerStats.errors.incrementAndGet();
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * 令牌桶预约：返回需要等待的纳秒数（令牌可透支，等待时间按透支量计算）
+     */
+    private synchronized long reserveToken() {
+        long now = System.nanoTime();
+        double ratePerNano = ratePerSecond / 1_000_000_000.0;
+        tokens = Math.min(burst, tokens + (now - lastRefill) * ratePerNano);
+        lastRefill = now;
+
+        tokens -= 1;
+        return tokens >= 0 ? 0 : (long) (-tokens / ratePerNano);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("queueDepth", executor.getQueue().size());
+        result.put("active", executor.getActiveCount());
+        result.put("inFlight", inFlight.size());
+
+        Map<String, Object> callers = new LinkedHashMap<>();
+        stats.forEach((caller, s) -> callers.put(caller, s.snapshot()));
+        result.put("callers", callers);
+        return result;
+    }
+
+    private static class CallerStats {
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong coalesced = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicInteger queued = new AtomicInteger();
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong totalLatencyMs = new AtomicLong();
+        final AtomicLong maxLatencyMs = new AtomicLong();
+        final AtomicLong totalQueueWaitMs = new AtomicLong();
+        final AtomicLong inputTokens = new AtomicLong();
+        final AtomicLong outputTokens = new AtomicLong();
+
+        void record(long latencyMs, long queueWaitMs, TokenUsage usage) {
+            calls.incrementAndGet();
+            totalLatencyMs.addAndGet(latencyMs);
+            maxLatencyMs.accumulateAndGet(latencyMs, Math::max);
+            totalQueueWaitMs.addAndGet(queueWaitMs);
+            if (usage != null) {
+                inputTokens.addAndGet(usage.inputTokenCount() != null ? usage.inputTokenCount() : 0);
+                outputTokens.addAndGet(usage.outputTokenCount() != null ? usage.outputTokenCount() : 0);
+            }
+        }
+
+        Map<String, Object> snapshot() {
+            long n = calls.get();
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("requests", requests.get());
+            m.put("coalesced", coalesced.get());
+            m.put("rejected", rejected.get());
+            m.put("errors", errors.get());
+            m.put("queued", queued.get());
+            m.put("calls", n);
+            m.put("avgLatencyMs", n == 0 ? 0 : totalLatencyMs.get() / n);
+            m.put("maxLatencyMs", maxLatencyMs.get());
+            m.put("avgQueueWaitMs", n == 0 ? 0 : totalQueueWaitMs.get() / n);
+            m.put("inputTokens", inputTokens.get());
+            m.put("outputTokens", outputTokens.get());
+            return m;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.rpaai.service;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import com.rpaai.entity.RpaStep;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 自动修复的页面上下文压缩：只保留可见的可交互元素及其稳定属性，
+ * 按与失败步骤的相关度排序，在token预算内输出给LLM
+ */
+@Slf4j
+@Component
+public class PageContextCompactor {
+
+    // 输出顺序即属性重要性
+    private static final String[] ATTRS = {"id", "name", "type", "placeholder", "aria-label", "role",
+            "title", "value", "href", "data-testid", "for", "class"};
+
+    // 旧版插件只上报HTML时，用正则提取可交互标签
+    private static final Pattern NOISE_PATTERN = Pattern.compile(
+            "<(script|style|svg|noscript|template)\\b.*?</\\1>|<!--.*?-->",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern TAG_PATTERN = Pattern.compile(
+            "<(a|button|input|select|textarea)\\b([^>]*)>(?:(.*?)</\\1>)?",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern ATTR_PATTERN = Pattern.compile(
+            "([a-zA-Z-]+)\\s*=\\s*(\"[^\"]*\"|'[^']*')");
+    private static final Pattern HIDDEN_PATTERN = Pattern.compile(
+            "type\\s*=\\s*[\"']hidden[\"']|\\shidden(\\s|=|$)|aria-hidden\\s*=\\s*[\"']true[\"']|display\\s*:\\s*none",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern TERM_PATTERN = Pattern.compile("[a-zA-Z0-9]{2,}|[\\u4e00-\\u9fff]+");
+
+    // 选择器里的通用词，对区分元素没有帮助
+    private static final Set<String> STOP_TERMS = Set.of("div", "span", "input", "button", "type", "text",
+            "nth", "child", "of", "not", "first", "last", "class", "id", "name");
+
+    @Value("${rpa.ai.autofix.context-token-budget:1200}")
+    private int tokenBudget;
+
+    /**
+     * 压缩get_page_context结果（JSON或原始HTML），返回按相关度排序的元素清单
+     */
+    public String compact(String pageContext, RpaStep step) {
+        if (pageContext == null || pageContext.isBlank()) {
+            return "";
+        }
+
+        List<JSONObject> elements = extractElements(pageContext);
+        if (elements.isEmpty()) {
+            return "(页面上没有可见的可交互元素)";
+        }
+
+        Set<String> terms = relevanceTerms(step);
+        String action = step.getAction() != null ? step.getAction() : "";
+
+        List<Scored> ranked = new ArrayList<>(elements.size());
+        for (int i = 0; i < elements.size(); i++) {
+            JSONObject element = elements.get(i);
+            ranked.add(new Scored(element, score(element, terms, action), i));
+        }
+        ranked.sort(Comparator.comparingDouble(Scored::score).reversed().thenComparingInt(Scored::index));
+
+        StringBuilder sb = new StringBuilder();
+        int used = 0;
+        int kept = 0;
+        for (Scored scored : ranked) {
+            String line = render(scored.element());
+            int cost = estimateTokens(line);
+            if (used + cost > tokenBudget && kept > 0) {
+                break;
+            }
+            sb.append(line).append('\n');
+            used += cost;
+            kept++;
+        }
+        if (kept < ranked.size()) {
+            sb.append("... [省略 ").append(ranked.size() - kept).append(" 个相关度较低的元素]\n");
+        }
+
+        log.debug("页面上下文压缩: {} 原始字符 -> {} 个元素, 约 {} tokens", pageContext.length(), kept, used);
+        return sb.toString();
+    }
+
+    private List<JSONObject> extractElements(String pageContext) {
+        String trimmed = pageContext.trim();
+        if (trimmed.startsWith("{")) {
+            try {
+                JSONObject ctx = JSON.parseObject(trimmed);
+                JSONArray array = ctx.getJSONArray("elements");
+                if (array != null) {
+                    List<JSONObject> elements = new ArrayList<>(array.size());
+                    for (int i = 0; i < array.size(); i++) {
+                        elements.add(array.getJSONObject(i));
+                    }
+                    return elements;
+                }
+                trimmed = ctx.getString("html") != null ? ctx.getString("html") : "";
+            } catch (Exception e) {
+                log.debug("页面上下文不是JSON，按HTML处理: {}", e.getMessage());
+            }
+        }
+        return extractFromHtml(trimmed);
+    }
+
+    private List<JSONObject> extractFromHtml(String html) {
+        String cleaned = NOISE_PATTERN.matcher(html).replaceAll("");
+        List<JSONObject> elements = new ArrayList<>();
+        Matcher m = TAG_PATTERN.matcher(cleaned);
+        while (m.find()) {
+            String attrs = m.group(2);
+            if (HIDDEN_PATTERN.matcher(attrs).find()) {
+                continue;
+            }
+            JSONObject element = new JSONObject();
+            element.put("tag", m.group(1).toLowerCase());
+            Matcher am = ATTR_PATTERN.matcher(attrs);
+            while (am.find()) {
+                String name = am.group(1).toLowerCase();
+                String value = am.group(2).substring(1, am.group(2).length() - 1);
+                if (!value.isBlank() && Arrays.asList(ATTRS).contains(name)) {
+                    element.put(name, truncate(value, 80));
+                }
+            }
+            if (m.group(3) != null) {
+                String text = m.group(3).replaceAll("<[^>]+>", " ").replaceAll("\\s+", " ").trim();
+                if (!text.isEmpty()) {
+                    element.put("text", truncate(text, 60));
+                }
+            }
+            elements.add(element);
+        }
+        return elements;
+    }
+
+    /**
+     * 从失败步骤的选择器、描述和输入值中提取相关词
+     */
+    private Set<String> relevanceTerms(RpaStep step) {
+        Set<String> terms = new HashSet<>();
+        for (String source : new String[]{step.getTarget(), step.getDescription(), step.getValue()}) {
+            if (source == null) {
+                continue;
+            }
+            Matcher m = TERM_PATTERN.matcher(source.toLowerCase());
+            while (m.find()) {
+                String term = m.group();
+                if (!STOP_TERMS.contains(term)) {
+                    terms.add(term);
+                }
+            }
+        }
+        return terms;
+    }
+
+    private double score(JSONObject element, Set<String> terms, String action) {
+        double score = 0;
+        for (String term : terms) {
+            if (matches(element, term, "id", "name", "data-testid")) {
+                score += 3;
+            } else if (matches(element, term, "aria-label", "placeholder", "title", "for")) {
+                score += 2;
+            } else if (matches(element, term, "text", "value", "class", "href")) {
+                score += 1;
+            }
+        }
+
+        // 与动作类型相符的元素优先
+        String tag = element.getString("tag");
+        String type = element.getString("type");
+        String role = element.getString("role");
+        boolean textField = ("input".equals(tag) && !"submit".equals(type) && !"button".equals(type)
+                && !"checkbox".equals(type) && !"radio".equals(type))
+                || "textarea".equals(tag) || "textbox".equals(role) || "searchbox".equals(role) || "combobox".equals(role);
+        boolean clickable = "button".equals(tag) || "a".equals(tag) || "button".equals(role) || "link".equals(role)
+                || "submit".equals(type) || "button".equals(type);
+        switch (action) {
+            case "input" -> score += textField ? 1.5 : 0;
+            case "submit" -> score += "submit".equals(type) || "button".equals(tag) ? 1.5 : 0;
+            case "click" -> score += clickable ? 1 : 0;
+            default -> { }
+        }
+        return score;
+    }
+
+    private boolean matches(JSONObject element, String term, String... fields) {
+        for (String field : fields) {
+            String value = element.getString(field);
+            if (value != null && value.toLowerCase().contains(term)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String render(JSONObject element) {
+        String tag = element.getString("tag") != null ? element.getString("tag") : "element";
+        StringBuilder sb = new StringBuilder("<").append(tag);
+        for (String attr : ATTRS) {
+            String value = element.getString(attr);
+            if (value != null && !value.isBlank()) {
+                sb.append(' ').append(attr).append("=\"").append(value.replace("\"", "'")).append('"');
+            }
+        }
+        sb.append('>');
+        String text = element.getString("text");
+        if (text != null && !text.isBlank()) {
+            sb.append(text).append("</").append(tag).append('>');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 粗略估算token数：中文约一字一token，其余约四字符一token
+     */
+    static int estimateTokens(String text) {
+        int cjk = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '\u4e00' && c <= '\u9fff') {
+                cjk++;
+            }
+        }
+        return cjk + (text.length() - cjk + 3) / 4;
+    }
+
+    private static String truncate(String value, int max) {
+        return value.length() > max ? value.substring(0, max) : value;
+    }
+
+    private record Scored(JSONObject element, double score, int index) {
+    }
+}
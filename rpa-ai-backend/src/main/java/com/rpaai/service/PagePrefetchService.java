@@ -0,0 +1,167 @@
+package com.rpaai.service;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import com.rpaai.entity.BrowserSession;
+import com.rpaai.websocket.AgentCommand;
+import com.rpaai.websocket.BrowserAgentHandler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 页面预打开：流式解析出第一个 open_url 时，先在用户浏览器后台标签页打开该页面，
+ * 任务真正执行到该步骤时由扩展直接接管已加载的标签页；调度器优先把该用户的任务分给持有预打开页面的浏览器
+ */
+@Slf4j
+@Service
+public class PagePrefetchService {
+
+    @Autowired
+    private BrowserSessionManager sessionManager;
+
+    @Autowired
+    private BrowserAgentHandler browserHandler;
+
+    // 预打开标签页的保留时间，随指令下发给扩展，两端同时过期
+    @Value("${rpa.prefetch.ttl-seconds:120}")
+    private long ttlSeconds;
+
+    // key: 用户ID；每个用户只保留最近一次预打开
+    private final Map<String, Prefetch> prefetches = new ConcurrentHashMap<>();
+
+    /**
+     * 在该用户的空闲浏览器中预打开页面（浏览器都在执行任务或不在线时忽略）
+     */
+    public void prefetch(String userId, String url) {
+        if (userId == null || url == null || url.isBlank()) {
+            return;
+        }
+
+        Optional<BrowserSession> session = sessionManager.peekIdleSession(userId);
+        if (session.isEmpty()) {
+            log.debug("用户 {} 没有空闲浏览器，跳过预打开", userId);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        prefetches.values().removeIf(p -> p.expiresAt() < now);
+
+        String browserId = session.get().getWebsocketSessionId();
+        String prefetchId = "prefetch_" + UUID.randomUUID().toString().substring(0, 8);
+        long ttlMillis = ttlSeconds * 1000;
+
+        if (send(browserId, prefetchId, url, ttlMillis)) {
+            prefetches.put(userId, new Prefetch(browserId, url, prefetchId, now + ttlMillis));
+            log.info("⚡ 预打开页面 [{}]: {}", browserId, url);
+        }
+    }
+
+    /**
+     * 解析完成后按最终步骤校正预打开的地址：流式阶段的 open_url 在登录优化之前，
+     * 与最终目标不同时让扩展把同一个标签页导航到最终地址
+     */
+    public void retarget(String userId, String configJson) {
+        if (userId == null) {
+            return;
+        }
+        Prefetch prefetch = prefetches.get(userId);
+        if (prefetch == null || prefetch.expiresAt() < System.currentTimeMillis()) {
+            return;
+        }
+
+        String finalUrl = firstOpenUrl(configJson);
+        if (prefetch.url().equals(finalUrl)) {
+            return;
+        }
+        if (finalUrl == null) {
+            // 最终任务不再以打开页面开始，标签页由扩展到期关闭
+            prefetches.remove(userId, prefetch);
+            return;
+        }
+
+        long ttlMillis = prefetch.expiresAt() - System.currentTimeMillis();
+        if (send(prefetch.browserId(), prefetch.prefetchId(), finalUrl, ttlMillis)) {
+            prefetches.replace(userId, prefetch, new Prefetch(prefetch.browserId(), finalUrl,
+                    prefetch.prefetchId(), prefetch.expiresAt()));
+            log.info("⚡ 预打开页面改为最终地址 [{}]: {} -> {}", prefetch.browserId(), prefetch.url(), finalUrl);
+        } else {
+            prefetches.remove(userId, prefetch);
+        }
+    }
+
+    /**
+     * 持有该用户预打开标签页的浏览器，调度时优先分配给它
+     */
+    public Optional<String> preferredBrowser(String userId) {
+        Prefetch prefetch = prefetches.get(userId);
+        if (prefetch == null || prefetch.expiresAt() < System.currentTimeMillis()) {
+            return Optional.empty();
+        }
+        return Optional.of(prefetch.browserId());
+    }
+
+    /**
+     * 执行 open_url 前领取同一浏览器、同一URL的预打开标签页
+     */
+    public Optional<String> claim(String browserId, String url) {
+        if (browserId == null || url == null) {
+            return Optional.empty();
+        }
+        String userId = sessionManager.getSession(browserId).map(BrowserSession::getUserId).orElse(null);
+        Prefetch prefetch = userId != null ? prefetches.get(userId) : null;
+        if (prefetch == null || !prefetch.browserId().equals(browserId) || !prefetch.url().equals(url)
+                || !prefetches.remove(userId, prefetch)) {
+            return Optional.empty();
+        }
+        if (prefetch.expiresAt() < System.currentTimeMillis()) {
+            return Optional.empty();
+        }
+        return Optional.of(prefetch.prefetchId());
+    }
+
+    private boolean send(String browserId, String prefetchId, String url, long ttlMillis) {
+        try {
+            browserHandler.sendCommand(browserId, AgentCommand.builder()
+                    .taskId(prefetchId)
+                    .stepId("0")
+                    .action("prefetch_url")
+                    .target(url)
+                    .prefetchId(prefetchId)
+                    .timeout((int) ttlMillis)
+                    .build());
+            return true;
+        } catch (Exception e) {
+            log.warn("预打开页面失败: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private static String firstOpenUrl(String configJson) {
+        try {
+            JSONArray steps = JSON.parseObject(configJson).getJSONArray("steps");
+            if (steps == null) {
+                return null;
+            }
+            for (int i = 0; i < steps.size(); i++) {
+                JSONObject step = steps.getJSONObject(i);
+                if ("open_url".equals(step.getString("action"))) {
+                    return step.getString("target");
+                }
+            }
+        } catch (Exception e) {
+            log.debug("解析最终步骤失败: {}", e.getMessage());
+        }
+        return null;
+    }
+
+    private record Prefetch(String browserId, String url, String prefetchId, long expiresAt) {
+    }
+}
@@ -0,0 +1,298 @@
+package com.rpaai.service;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 页面类型分类：域名后缀树匹配站点，Aho-Corasick自动机一次扫描匹配路径/文本关键词，
+ * 取优先级最高的规则。规则来自 page-type-rules.json，可用外部文件覆盖并热加载
+ */
+@Slf4j
+@Component
+public class PageTypeClassifier {
+
+    private static final String DEFAULT_RULES = "page-type-rules.json";
+    private static final int HOST_MEMO_LIMIT = 10_000;
+
+    private static final Pattern SCHEME_PATTERN = Pattern.compile("^[a-z][a-z0-9+.-]*://");
+    // 不带协议的 "www.jd.com/xxx" 以及自然语言里出现的域名
+    private static final Pattern DOMAIN_PATTERN = Pattern.compile("(?<![a-z0-9.-])(?:[a-z0-9-]+\\.)+[a-z]{2,}(?![a-z0-9-])");
+
+    // 国家顶级域下的二级公共后缀（com.cn、com.hk、co.uk、co.jp 等），注册域名要再往左取一级
+    private static final Set<String> SECOND_LEVEL_SUFFIXES = Set.of("com", "net", "org", "gov", "edu", "ac",
+            "co", "ne", "or", "go", "mil");
+
+    // 外部规则文件，留空只用内置规则
+    @Value("${rpa.page-classifier.rules-file:}")
+    private String rulesFile;
+
+    private volatile Compiled compiled;
+    private volatile long rulesFileModified = -1;
+
+    @PostConstruct
+    public void init() {
+        compiled = load();
+    }
+
+    /**
+     * 外部规则文件修改后重新编译
+     */
+    @Scheduled(fixedDelayString = "${rpa.page-classifier.reload-interval-ms:10000}")
+    public void reloadIfChanged() {
+        if (rulesFile == null || rulesFile.isBlank()) return;
+        try {
+            long modified = Files.getLastModifiedTime(Path.of(rulesFile)).toMillis();
+            if (modified != rulesFileModified) {
+                compiled = load();
+            }
+        } catch (IOException e) {
+            log.debug("页面分类规则文件不可读: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 对URL或自然语言描述分类，无匹配时返回 general
+     */
+    public String classify(String input) {
+        if (input == null) return "unknown";
+
+        Compiled c = compiled;
+        String lower = input.toLowerCase(Locale.ROOT);
+
+        Rule best = null;
+        String text = lower;
+        Matcher scheme = SCHEME_PATTERN.matcher(lower);
+        if (scheme.find()) {
+            // URL：主机名走后缀树；子域名（login.taobao.com、search.bilibili.com）和路径、查询串走关键词，
+            // 主域名本身不扫，避免 formula1.com 这类域名误命中关键词
+            int start = scheme.end();
+            int end = indexOfAny(lower, start, '/', '?', '#');
+            String host = stripUserAndPort(lower.substring(start, end));
+            best = c.classifyHost(host);
+            text = subdomainOf(host) + " " + lower.substring(end);
+        } else {
+            // 自然语言或不带协议的URL：其中出现的域名都查一遍
+            Matcher domain = DOMAIN_PATTERN.matcher(lower);
+            while (domain.find()) {
+                best = higher(best, c.classifyHost(domain.group()));
+            }
+        }
+
+        best = higher(best, c.keywords.bestMatch(text));
+        return best != null ? best.type : "general";
+    }
+
+    private Compiled load() {
+        List<Rule> rules = new ArrayList<>();
+        try {
+            String json;
+            if (rulesFile != null && !rulesFile.isBlank() && Files.isRegularFile(Path.of(rulesFile))) {
+                Path path = Path.of(rulesFile);
+                rulesFileModified = Files.getLastModifiedTime(path).toMillis();
+                json = Files.readString(path, StandardCharsets.UTF_8);
+            } else {
+                try (InputStream in = getClass().getClassLoader().getResourceAsStream(DEFAULT_RULES)) {
+                    json = in != null ? new String(in.readAllBytes(), StandardCharsets.UTF_8) : "{}";
+                }
+            }
+
+            JSONArray array = JSON.parseObject(json).getJSONArray("rules");
+            for (int i = 0; array != null && i < array.size(); i++) {
+                JSONObject r = array.getJSONObject(i);
+                rules.add(new Rule(r.getString("type"), r.getIntValue("priority"), i,
+                        stringList(r.getJSONArray("hosts")), stringList(r.getJSONArray("keywords"))));
+            }
+        } catch (Exception e) {
+            log.error("❌ 加载页面分类规则失败，沿用现有规则: {}", e.getMessage());
+            if (compiled != null) return compiled;
+        }
+
+        log.info("✅ 页面分类规则已加载: {} 条", rules.size());
+        return new Compiled(rules);
+    }
+
+    private static List<String> stringList(JSONArray array) {
+        List<String> list = new ArrayList<>();
+        for (int i = 0; array != null && i < array.size(); i++) {
+            list.add(array.getString(i).toLowerCase(Locale.ROOT));
+        }
+        return list;
+    }
+
+    private static String stripUserAndPort(String authority) {
+        int at = authority.lastIndexOf('@');
+        String host = at >= 0 ? authority.substring(at + 1) : authority;
+        int colon = host.indexOf(':');
+        return colon >= 0 ? host.substring(0, colon) : host;
+    }
+
+    /**
+     * 去掉注册域名后剩下的子域名部分，没有子域名时返回空串。
+     * 注册域名通常是最后两级；国家顶级域下的 com.cn、co.uk 这类公共后缀则是最后三级
+     */
+    private static String subdomainOf(String host) {
+        int last = host.lastIndexOf('.');
+        if (last <= 0) return "";
+        int registrable = host.lastIndexOf('.', last - 1);
+        if (registrable > 0 && host.length() - last - 1 == 2
+                && SECOND_LEVEL_SUFFIXES.contains(host.substring(registrable + 1, last))) {
+            registrable = host.lastIndexOf('.', registrable - 1);
+        }
+        return registrable > 0 ? host.substring(0, registrable) : "";
+    }
+
+    private static int indexOfAny(String s, int from, char... chars) {
+        for (int i = from; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            for (char c : chars) {
+                if (ch == c) return i;
+            }
+        }
+        return s.length();
+    }
+
+    private static Rule higher(Rule a, Rule b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.priority != b.priority) return a.priority > b.priority ? a : b;
+        return a.order <= b.order ? a : b;
+    }
+
+    private record Rule(String type, int priority, int order, List<String> hosts, List<String> keywords) {
+    }
+
+    /**
+     * 一份编译好的规则（不可变，热加载时整体替换，主机名记忆表随之丢弃）
+     */
+    private static class Compiled {
+        final HostSuffixTrie hosts = new HostSuffixTrie();
+        final KeywordAutomaton keywords = new KeywordAutomaton();
+        final Map<String, Optional<Rule>> hostMemo = new ConcurrentHashMap<>();
+
+        Compiled(List<Rule> rules) {
+            for (Rule rule : rules) {
+                rule.hosts().forEach(h -> hosts.insert(h, rule));
+                rule.keywords().forEach(k -> keywords.insert(k, rule));
+            }
+            keywords.build();
+        }
+
+        Rule classifyHost(String host) {
+            if (hostMemo.size() > HOST_MEMO_LIMIT) {
+                hostMemo.clear();
+            }
+            return hostMemo.computeIfAbsent(host, h -> Optional.ofNullable(hosts.longestSuffix(h))).orElse(null);
+        }
+    }
+
+    /**
+     * 按域名标签倒序建树，取最长匹配的后缀（jd.com 匹配 www.jd.com，但不匹配 ajd.com）
+     */
+    private static class HostSuffixTrie {
+        private final Node root = new Node();
+
+        void insert(String domain, Rule rule) {
+            String[] labels = domain.split("\\.");
+            Node node = root;
+            for (int i = labels.length - 1; i >= 0; i--) {
+                node = node.children.computeIfAbsent(labels[i], k -> new Node());
+            }
+            node.rule = higher(node.rule, rule);
+        }
+
+        Rule longestSuffix(String host) {
+            Node node = root;
+            Rule match = null;
+            int end = host.length();
+            while (end > 0 && node != null) {
+                int dot = host.lastIndexOf('.', end - 1);
+                node = node.children.get(host.substring(dot + 1, end));
+                if (node != null && node.rule != null) {
+                    match = node.rule;
+                }
+                end = dot;
+            }
+            return match;
+        }
+
+        private static class Node {
+            final Map<String, Node> children = new HashMap<>();
+            Rule rule;
+        }
+    }
+
+    /**
+     * Aho-Corasick 多模式匹配，一次扫描得到命中的最高优先级规则
+     */
+    private static class KeywordAutomaton {
+        private final Node root = new Node();
+
+        void insert(String keyword, Rule rule) {
+            Node node = root;
+            for (int i = 0; i < keyword.length(); i++) {
+                node = node.next.computeIfAbsent(keyword.charAt(i), k -> new Node());
+            }
+            node.output = higher(node.output, rule);
+        }
+
+        /**
+         * 建立失败指针，并把后缀节点的输出合并进来（只需保留最高优先级）
+         */
+        void build() {
+            Deque<Node> queue = new ArrayDeque<>();
+            for (Node child : root.next.values()) {
+                child.fail = root;
+                queue.add(child);
+            }
+            while (!queue.isEmpty()) {
+                Node node = queue.poll();
+                for (Map.Entry<Character, Node> e : node.next.entrySet()) {
+                    Node child = e.getValue();
+                    Node f = node.fail;
+                    while (f != null && !f.next.containsKey(e.getKey())) {
+                        f = f.fail;
+                    }
+                    child.fail = f != null ? f.next.get(e.getKey()) : root;
+                    child.output = higher(child.output, child.fail.output);
+                    queue.add(child);
+                }
+            }
+        }
+
+        Rule bestMatch(String text) {
+            Node node = root;
+            Rule best = null;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                while (node != root && !node.next.containsKey(c)) {
+                    node = node.fail;
+                }
+                node = node.next.getOrDefault(c, root);
+                best = higher(best, node.output);
+            }
+            return best;
+        }
+
+        private static class Node {
+            final Map<Character, Node> next = new HashMap<>();
+            Node fail;
+            Rule output;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.rpaai.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 排队状态发布：调度器只登记增删和优先级变化，合并一个窗口内的变化后广播一条 QUEUE_DELTA。
+ * 每条增量带递增版本号，前端发现版本不连续时通过 GET /api/execution/queue 拉全量快照；
+ * 增量按 executionId 幂等，重复应用不会出错
+ */
+@Slf4j
+@Component
+public class QueueStatePublisher {
+
+    // 与调度器的 TASK_ORDER 一致：立即执行的排最前，其次优先级从高到低，再按提交时间
+    private static final Comparator<QueueEntry> ENTRY_ORDER =
+            Comparator.comparing(QueueEntry::immediate).reversed()
+                    .thenComparing(Comparator.comparingInt(QueueEntry::priority).reversed())
+                    .thenComparingLong(QueueEntry::submitTime);
+
+    @Autowired
+    private RealTimeMonitorService monitorService;
+
+    // 两次广播的最小间隔，窗口内的变化合并为一条增量
+    @Value("${rpa.scheduler.queue-publish-interval-ms:100}")
+    private long publishIntervalMs;
+
+    private final Object lock = new Object();
+
+    // 当前排队任务的摘要镜像，用于全量快照
+    private final Map<String, QueueEntry> entries = new HashMap<>();
+
+    // 本窗口内待发布的变化
+    private final Map<String, QueueEntry> added = new LinkedHashMap<>();
+    private final Set<String> removed = new LinkedHashSet<>();
+    private final Map<String, QueueEntry> reprioritized = new LinkedHashMap<>();
+    private boolean publishScheduled;
+    private long version;
+
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+
+    private ScheduledExecutorService timer;
+
+    @PostConstruct
+    public void init() {
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "rpa-queue-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    public void markAdded(ScheduledTask task) {
+        QueueEntry entry = QueueEntry.of(task);
+        synchronized (lock) {
+            entries.put(entry.executionId(), entry);
+            // 同一窗口内先出队再入队（如重新排队），前端只需看到最终状态
+            removed.remove(entry.executionId());
+            added.put(entry.executionId(), entry);
+            changed();
+        }
+    }
+
+    public void markRemoved(String executionId) {
+        synchronized (lock) {
+            if (entries.remove(executionId) == null) {
+                return;
+            }
+            reprioritized.remove(executionId);
+            // 窗口内入队又出队的任务，前端从未见过，两条变化互相抵消
+            if (added.remove(executionId) == null) {
+                removed.add(executionId);
+            }
+            changed();
+        }
+    }
+
+    /**
+     * 优先级或立即执行标记变化（调整优先级、提到队首）
+     */
+    public void markReprioritized(ScheduledTask task) {
+        String executionId = task.getExecutionId();
+        synchronized (lock) {
+            QueueEntry entry = entries.get(executionId);
+            if (entry == null) {
+                return;
+            }
+            QueueEntry updated = entry.withOrdering(task.getPriority(), task.isImmediate());
+            entries.put(executionId, updated);
+            if (added.containsKey(executionId)) {
+                added.put(executionId, updated);
+            } else {
+                reprioritized.put(executionId, updated);
+            }
+            changed();
+        }
+    }
+
+    /**
+     * 全量快照（按调度顺序），版本号为最近一次已广播的增量
+     */
+    public Map<String, Object> snapshot() {
+        List<QueueEntry> queue;
+        long snapshotVersion;
+        synchronized (lock) {
+            queue = new ArrayList<>(entries.values());
+            snapshotVersion = version;
+        }
+        queue.sort(ENTRY_ORDER);
+
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("version", snapshotVersion);
+        data.put("queueSize", queue.size());
+        data.put("queue", queue);
+        data.put("timestamp", System.currentTimeMillis());
+        return data;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (lock) {
+            stats.put("queueSize", entries.size());
+            stats.put("version", version);
+        }
+        stats.put("changes", changes.get());
+        stats.put("published", published.get());
+        return stats;
+    }
+
+    private void changed() {
+        changes.incrementAndGet();
+        if (!publishScheduled) {
+            publishScheduled = true;
+            timer.schedule(this::publish, publishIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void publish() {
+        Map<String, Object> delta = new LinkedHashMap<>();
+        synchronized (lock) {
+            publishScheduled = false;
+            if (added.isEmpty() && removed.isEmpty() && reprioritized.isEmpty()) {
+                return;
+            }
+            List<QueueEntry> addedList = new ArrayList<>(added.values());
+            addedList.sort(ENTRY_ORDER);
+            List<Map<String, Object>> reprioritizedList = new ArrayList<>(reprioritized.size());
+            reprioritized.forEach((id, entry) -> reprioritizedList.add(Map.of(
+                    "executionId", id, "priority", entry.priority(), "immediate", entry.immediate())));
+
+            delta.put("version", ++version);
+            delta.put("added", addedList);
+            delta.put("removed", new ArrayList<>(removed));
+            delta.put("reprioritized", reprioritizedList);
+            delta.put("queueSize", entries.size());
+            added.clear();
+            removed.clear();
+            reprioritized.clear();
+        }
+
+        try {
+            monitorService.notifyQueueDelta(delta);
+            published.incrementAndGet();
+        } catch (Exception e) {
+            log.error("广播队列增量失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 排队任务摘要（不含任务配置，只给前端展示用）
+     */
+    public record QueueEntry(String executionId, Long taskId, String taskName, String userId,
+                             int priority, boolean immediate, long submitTime) {
+
+        static QueueEntry of(ScheduledTask task) {
+            return new QueueEntry(task.getExecutionId(),
+                    task.getTask() != null ? task.getTask().getId() : null,
+                    task.getTask() != null ? task.getTask().getTaskName() : null,
+                    task.getUserId(), task.getPriority(), task.isImmediate(),
+                    task.getSubmitTime() != null ? task.getSubmitTime() : 0L);
+        }
+
+        QueueEntry withOrdering(int newPriority, boolean newImmediate) {
+            return new QueueEntry(executionId, taskId, taskName, userId, newPriority, newImmediate, submitTime);
+        }
+    }
+}
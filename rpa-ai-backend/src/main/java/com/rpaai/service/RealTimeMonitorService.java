@@ -3,13 +3,14 @@ package com.rpaai.service;
 import com.rpaai.entity.AutomationTask;
 import com.rpaai.entity.RpaStep;
 import com.rpaai.websocket.BrowserAgentHandler;
+import com.rpaai.websocket.MonitorRoute;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Slf4j
 @Service
@@ -18,10 +19,13 @@ public class RealTimeMonitorService {
     @Autowired
     private BrowserAgentHandler browserAgentHandler;
 
+    // 执行中任务的路由信息（执行开始时登记，结束时移除），前端按订阅接收
+    private final Map<String, MonitorRoute> routes = new ConcurrentHashMap<>();
+
     /**
      * 通知任务开始
      */
-    public void notifyExecutionStart(String executionId, Object taskInfo, int totalSteps) {
+    public void notifyExecutionStart(String executionId, String userId, Object taskInfo, int totalSteps) {
         Map<String, Object> data = new HashMap<>();
         data.put("executionId", executionId);
         data.put("task", taskInfo);
@@ -29,14 +33,19 @@ public class RealTimeMonitorService {
         data.put("status", "RUNNING");
         data.put("currentStep", 0);
         data.put("startTime", System.currentTimeMillis());
+        data.put("userId", userId);
+        String taskId = null;
         // 关键：添加任务基本信息，避免前端访问task.taskName时报空
         if (taskInfo instanceof AutomationTask) {
             AutomationTask task = (AutomationTask) taskInfo;
             data.put("taskName", task.getTaskName());
             data.put("description", task.getDescription());
+            taskId = task.getId() != null ? String.valueOf(task.getId()) : null;
         }
 
-        browserAgentHandler.broadcastToFrontend("EXECUTION_START", data);
+        MonitorRoute route = new MonitorRoute(executionId, userId, taskId);
+        routes.put(executionId, route);
+        browserAgentHandler.publishToFrontend("EXECUTION_START", data, route);
         log.info("📢 广播任务开始: {}, 总步骤: {}", executionId, totalSteps);
     }
 
@@ -50,7 +59,7 @@ public class RealTimeMonitorService {
         data.put("step", convertStepToMap(step));
         data.put("timestamp", System.currentTimeMillis());
 
-        browserAgentHandler.broadcastToFrontend("STEP_START", data);
+        browserAgentHandler.publishToFrontend("STEP_START", data, routeOf(executionId));
         log.debug("📢 广播步骤开始: {} - 步骤 {}", executionId, stepIndex);
     }
 
@@ -65,7 +74,7 @@ public class RealTimeMonitorService {
         data.put("result", result);
         data.put("timestamp", System.currentTimeMillis());
 
-        browserAgentHandler.broadcastToFrontend("STEP_COMPLETE", data);
+        browserAgentHandler.publishToFrontend("STEP_COMPLETE", data, routeOf(executionId));
         log.debug("📢 广播步骤完成: {} - 步骤 {}", executionId, stepIndex);
     }
 
@@ -79,7 +88,7 @@ public class RealTimeMonitorService {
         data.put("error", error);
         data.put("timestamp", System.currentTimeMillis());
 
-        browserAgentHandler.broadcastToFrontend("STEP_ERROR", data);
+        browserAgentHandler.publishToFrontend("STEP_ERROR", data, routeOf(executionId));
         log.warn("📢 广播步骤错误: {} - 步骤 {}, 错误: {}", executionId, stepIndex, error);
     }
 
@@ -94,7 +103,7 @@ public class RealTimeMonitorService {
         data.put("domain", extractDomain(url));
         data.put("timestamp", System.currentTimeMillis());
 
-        browserAgentHandler.broadcastToFrontend("PAGE_CHANGE", data);
+        browserAgentHandler.publishToFrontend("PAGE_CHANGE", data, routeOf(executionId));
         log.info("📢 广播页面变化: {} -> {}", executionId, extractDomain(url));
     }
 
@@ -109,22 +118,27 @@ public class RealTimeMonitorService {
         data.put("completedSteps", completedSteps);
         data.put("endTime", System.currentTimeMillis());
 
-        browserAgentHandler.broadcastToFrontend("EXECUTION_COMPLETE", data);
+        MonitorRoute route = routes.remove(executionId);
+        browserAgentHandler.publishToFrontend("EXECUTION_COMPLETE", data,
+                route != null ? route : routeOf(executionId));
         log.info("📢 广播任务完成: {} - 成功: {}, 完成步骤: {}",
                 executionId, success, completedSteps);
     }
 
     /**
-     * 通知任务队列更新
+     * 通知任务队列增量（由 QueueStatePublisher 合并后调用）
      */
-    public void notifyQueueUpdate(List<?> queue) {
-        Map<String, Object> data = new HashMap<>();
-        data.put("queue", queue);
-        data.put("queueSize", queue.size());
+    public void notifyQueueDelta(Map<String, Object> delta) {
+        Map<String, Object> data = new HashMap<>(delta);
         data.put("timestamp", System.currentTimeMillis());
 
-        browserAgentHandler.broadcastToFrontend("QUEUE_UPDATE", data);
-        log.debug("📢 广播队列更新: 当前 {} 个任务", queue.size());
+        browserAgentHandler.broadcastToFrontend("QUEUE_DELTA", data);
+        log.debug("📢 广播队列增量: v{}, 当前 {} 个任务", delta.get("version"), delta.get("queueSize"));
+    }
+
+    private MonitorRoute routeOf(String executionId) {
+        MonitorRoute route = routes.get(executionId);
+        return route != null ? route : new MonitorRoute(executionId, null, null);
     }
 
     private Map<String, Object> convertStepToMap(RpaStep step) {
@@ -7,16 +7,19 @@ import com.rpaai.entity.mongodb.ExecutionLogDocument;
 import com.rpaai.event.*;
 import com.rpaai.websocket.AgentCommand;
 import com.rpaai.websocket.BrowserAgentHandler;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.event.EventListener;
-import org.springframework.scheduling.annotation.Async;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.lang.reflect.Method;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 @Slf4j
 @Service
@@ -43,21 +46,100 @@ public class RpaTaskScheduler {
     @Autowired
     private ImageLocatorService imageLocatorService;
 
+    @Autowired
+    private DebugImageCapture debugImageCapture;
+
+    @Autowired
+    private PagePrefetchService pagePrefetchService;
+
     @Autowired
     private DataExportService dataExportService;
 
     @Autowired
     private RealTimeMonitorService monitorService;  // 实时监控服务
 
-    private final PriorityBlockingQueue<ScheduledTask> taskQueue =
-            new PriorityBlockingQueue<>(100, Comparator.comparingInt(ScheduledTask::getPriority).reversed());
+    @Autowired
+    private QueueStatePublisher queuePublisher;
+
+    // "立即执行"的任务排在最前，其余按优先级、提交时间
+    private static final Comparator<ScheduledTask> TASK_ORDER =
+            Comparator.comparing(ScheduledTask::isImmediate).reversed()
+                    .thenComparing(Comparator.comparingInt(ScheduledTask::getPriority).reversed())
+                    .thenComparingLong(ScheduledTask::getSubmitTime);
+
+    // 按用户划分的就绪队列：任务只会分配给同一用户的浏览器
+    private final ConcurrentHashMap<String, PriorityBlockingQueue<ScheduledTask>> userQueues = new ConcurrentHashMap<>();
 
     private final ConcurrentHashMap<String, TaskExecutionContext> runningTasks = new ConcurrentHashMap<>();
 
-    private final ExecutorService executor = Executors.newFixedThreadPool(10);
+    private final AtomicLong executionSeq = new AtomicLong();
+
+    @Value("${rpa.scheduler.executor-mode:platform}")
+    private String executorMode;
+
+    // 执行步骤编排回调的线程数；步骤等待浏览器回报时不占线程，与并发任务数无关
+    @Value("${rpa.scheduler.pool-size:10}")
+    private int poolSize;
+
+    @Value("${rpa.scheduler.max-concurrent-tasks:5}")
+    private int maxConcurrentTasks;
+
+    // 浏览器失联后任务重新排队的次数上限，超过后按失败处理
+    @Value("${rpa.scheduler.max-requeues:2}")
+    private int maxRequeues;
+
+    private ExecutorService executor;
+
+    // 重试退避、页面稳定等待等延迟的共享定时器
+    private ScheduledExecutorService stepTimer;
+
+    // 并发准入许可：每个执行中的任务持有一个
+    private Semaphore admission;
+
+    @PostConstruct
+    public void initExecutor() {
+        admission = new Semaphore(maxConcurrentTasks);
+        stepTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "rpa-step-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        if ("virtual".equalsIgnoreCase(executorMode)) {
+            executor = createVirtualThreadExecutor();
+        } else {
+            executor = Executors.newFixedThreadPool(poolSize);
+        }
+        log.info("⚙️ 任务执行引擎: mode={}, 最大并发任务数={}", executorMode, maxConcurrentTasks);
+    }
+
+    @PreDestroy
+    public void shutdownExecutor() {
+        if (stepTimer != null) {
+            stepTimer.shutdownNow();
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 虚拟线程执行器（JDK 21+），任务阻塞等待浏览器响应时不占用平台线程
+     * 运行在更低版本JDK时回退为按需创建的平台线程池
+     */
+    private ExecutorService createVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.warn("⚠️ 当前JDK {} 不支持虚拟线程，回退为平台线程池", System.getProperty("java.version"));
+            return Executors.newCachedThreadPool();
+        }
+    }
 
     public String submitTask(AutomationTask task, String userId, TaskPriority priority) {
-        String executionId = "TASK_" + System.currentTimeMillis() + "_" + new Random().nextInt(1000);
+        // 同一毫秒内的批量提交用递增序号区分，随机数在突发提交时会撞号
+        String executionId = "TASK_" + System.currentTimeMillis() + "_" + executionSeq.incrementAndGet();
 
         ScheduledTask scheduledTask = ScheduledTask.builder()
                 .executionId(executionId)
@@ -68,65 +150,165 @@ public class RpaTaskScheduler {
                 .status("PENDING")
                 .build();
 
-        taskQueue.offer(scheduledTask);
+        userQueueOf(userId).offer(scheduledTask);
+        queuePublisher.markAdded(scheduledTask);
         log.info("📥 任务已提交 [{}]: {}, 优先级={}", executionId, task.getTaskName(), priority);
 
-        // 关键：立即广播队列更新，包含任务基本信息
-        List<Map<String, Object>> queueList = taskQueue.stream()
-                .map(t -> {
-                    Map<String, Object> map = new HashMap<>();
-                    map.put("executionId", t.getExecutionId());
-                    map.put("status", t.getStatus());
-                    map.put("priority", t.getPriority());
-                    map.put("submitTime", t.getSubmitTime());
-                    map.put("taskName", t.getTask().getTaskName());  // 添加任务名
-                    return map;
-                })
-                .collect(Collectors.toList());
-
-        monitorService.notifyQueueUpdate(queueList);
-
-        tryScheduleTasks();
+        dispatch(userId);
 
         return executionId;
     }
 
-    @Async
-    public void executeImmediately(String executionId) {
+    /**
+     * 立即执行：把任务提到所在用户队列的最前面，仍由 dispatch 领取浏览器和并发许可，
+     * 调用线程和执行器线程都不会阻塞等待许可
+     */
+    public boolean executeImmediately(String executionId) {
         ScheduledTask task = findTaskInQueue(executionId);
-        if (task != null) {
-            taskQueue.remove(task);
-            executor.submit(() -> executeTask(task));
+        if (task == null) {
+            return false;
         }
+        PriorityBlockingQueue<ScheduledTask> queue = userQueueOf(task.getUserId());
+        synchronized (queue) {
+            // 已被分发出队的任务无需再提前
+            if (!queue.remove(task)) {
+                return false;
+            }
+            task.setImmediate(true);
+            task.setPriority(Math.max(task.getPriority(), TaskPriority.URGENT.getValue()));
+            queue.offer(task);
+        }
+        queuePublisher.markReprioritized(task);
+        log.info("⏩ 任务 [{}] 提到队首立即执行", executionId);
+
+        dispatch(task.getUserId());
+        return true;
     }
 
-    @Scheduled(fixedDelay = 1000)
-    public void tryScheduleTasks() {
-        Set<String> busyBrowsers = runningTasks.values().stream()
-                .map(TaskExecutionContext::getBrowserSessionId)
-                .collect(Collectors.toSet());
+    /**
+     * 事件驱动分发：把该用户就绪队列中的任务依次匹配到空闲浏览器
+     * 触发时机：任务提交、浏览器注册、任务结束，无需周期性扫描
+     */
+    private void dispatch(String userId) {
+        while (dispatchOne(userId)) {
+            // 逐个分发，直到队列为空、并发已满或没有空闲浏览器
+        }
+    }
+
+    /**
+     * 分发该用户队首的一个任务；成功分配返回 true
+     */
+    private boolean dispatchOne(String userId) {
+        PriorityBlockingQueue<ScheduledTask> queue = userQueues.get(userId);
+        if (queue == null) {
+            return false;
+        }
+
+        // 同一用户的分发串行化，保证出队顺序与浏览器领取一一对应
+        synchronized (queue) {
+            if (queue.isEmpty()) {
+                return false;
+            }
+
+            // 并发已达上限：等待任意任务结束后再分发
+            if (!admission.tryAcquire()) {
+                return false;
+            }
 
-        List<ScheduledTask> toExecute = new ArrayList<>();
+            // 原子领取空闲浏览器，领取成功即独占，直到任务结束归还；已预打开任务页面的浏览器优先
+            String preferred = pagePrefetchService.preferredBrowser(userId).orElse(null);
+            Optional<BrowserSession> session = sessionManager.acquireIdleSession(userId, preferred);
+            if (session.isEmpty()) {
+                admission.release();
+                return false;
+            }
 
-        for (ScheduledTask task : taskQueue) {
-            if (!"PENDING".equals(task.getStatus())) continue;
+            String browserId = session.get().getWebsocketSessionId();
+            ScheduledTask task = queue.poll();
+            if (task == null) {
+                sessionManager.releaseSession(browserId);
+                admission.release();
+                return false;
+            }
+            queuePublisher.markRemoved(task.getExecutionId());
 
-            Optional<BrowserSession> session = sessionManager.getAvailableSession(task.getUserId());
-            if (session.isPresent() && !busyBrowsers.contains(session.get().getWebsocketSessionId())) {
-                task.setAssignedBrowser(session.get().getWebsocketSessionId());
-                task.setStatus("ASSIGNED");
-                toExecute.add(task);
-                busyBrowsers.add(session.get().getWebsocketSessionId());
+            task.setAssignedBrowser(browserId);
+            task.setStatus("ASSIGNED");
+            log.debug("🔀 任务 [{}] 分配给浏览器 [{}]", task.getExecutionId(), browserId);
+            executor.submit(() -> runTask(task));
+            return true;
+        }
+    }
+
+    /**
+     * 并发许可释放后，所有用户的排队任务都可能被放行：
+     * 每个许可交给有空闲浏览器的用户中队首任务排序（TASK_ORDER）最靠前的那个，
+     * 而不是按哈希表遍历顺序总让同一个用户先拿
+     */
+    private void dispatchAll() {
+        Set<String> exhausted = new HashSet<>();
+        while (admission.availablePermits() > 0) {
+            String nextUser = null;
+            ScheduledTask nextHead = null;
+            for (Map.Entry<String, PriorityBlockingQueue<ScheduledTask>> entry : userQueues.entrySet()) {
+                String userId = entry.getKey();
+                ScheduledTask head = entry.getValue().peek();
+                if (head == null || exhausted.contains(userId)
+                        || sessionManager.peekIdleSession(userId).isEmpty()) {
+                    continue;
+                }
+                if (nextHead == null || TASK_ORDER.compare(head, nextHead) < 0) {
+                    nextUser = userId;
+                    nextHead = head;
+                }
+            }
+            if (nextUser == null) {
+                return;
             }
+            // 浏览器或许可被并发的分发抢走时，本轮不再考虑该用户
+            if (!dispatchOne(nextUser)) {
+                exhausted.add(nextUser);
+            }
+        }
+    }
+
+    @EventListener
+    public void onBrowserRegistered(BrowserRegisteredEvent event) {
+        dispatch(event.getUserId());
+    }
+
+    private PriorityBlockingQueue<ScheduledTask> userQueueOf(String userId) {
+        return userQueues.computeIfAbsent(userId, k -> new PriorityBlockingQueue<>(16, TASK_ORDER));
+    }
+
+    /**
+     * 启动任务，并在整条步骤流水线结束后归还其占用的浏览器与并发许可
+     */
+    private void runTask(ScheduledTask scheduledTask) {
+        // 失联重排队后任务可能已被分配到新浏览器，这里只归还本次执行占用的那个
+        String browserId = scheduledTask.getAssignedBrowser();
+        CompletableFuture<Void> execution;
+        try {
+            execution = executeTask(scheduledTask);
+        } catch (Exception e) {
+            log.error("❌ 任务 [{}] 启动失败: {}", scheduledTask.getExecutionId(), e.getMessage(), e);
+            execution = CompletableFuture.completedFuture(null);
         }
 
-        toExecute.forEach(task -> {
-            taskQueue.remove(task);
-            executor.submit(() -> executeTask(task));
+        execution.whenComplete((v, e) -> {
+            if (browserId != null) {
+                sessionManager.releaseSession(browserId);
+            }
+            admission.release();
+            // 浏览器和并发许可空闲后立即分发下一个任务
+            dispatchAll();
         });
     }
 
-    private void executeTask(ScheduledTask scheduledTask) {
+    /**
+     * 异步执行任务：每个步骤是一个组合的 future 阶段，等待浏览器期间不占用线程
+     */
+    private CompletableFuture<Void> executeTask(ScheduledTask scheduledTask) {
         String executionId = scheduledTask.getExecutionId();
         String browserId = scheduledTask.getAssignedBrowser();
         AutomationTask task = scheduledTask.getTask();
@@ -153,112 +335,202 @@ public class RpaTaskScheduler {
         context.setSteps(steps);
         context.setStartTime(System.currentTimeMillis());
         context.setStatus("RUNNING");
+        context.setDebugCapture(debugImageCapture.sampleExecution());
 
         runningTasks.put(executionId, context);
 
         // 🔔 广播任务开始
-        monitorService.notifyExecutionStart(executionId, task, steps.size());
+        monitorService.notifyExecutionStart(executionId, scheduledTask.getUserId(), task, steps.size());
 
         RpaExecutionResult finalResult = new RpaExecutionResult();
         finalResult.setTotalSteps(steps.size());
         finalResult.setStepResults(new ArrayList<>());
 
-        try {
-            context.setCurrentStepIndex(0);
+        context.setCurrentStepIndex(0);
+        List<RpaStep> plannedSteps = steps;
 
-            for (int i = 0; i < steps.size(); i++) {
-                if (context.isCancelled()) {
-                    throw new InterruptedException("任务被取消");
-                }
+        return runSteps(context, plannedSteps, executionLog, finalResult, 0)
+                .handle((v, error) -> {
+                    try {
+                        if (error == null) {
+                            completeExecution(context, plannedSteps, finalResult);
+                        } else if (context.isBrowserLost() && requeueAfterBrowserLost(scheduledTask, context, finalResult)) {
+                            log.warn("🔁 任务 [{}] 所在浏览器失联，已重新排队", executionId);
+                        } else {
+                            failExecution(context, finalResult, unwrap(error));
+                        }
+                    } catch (Exception e) {
+                        failExecution(context, finalResult, e);
+                    } finally {
+                        // 重新排队的任务可能已用同一执行ID再次启动，只移除本次的上下文
+                        runningTasks.remove(executionId, context);
+                        executionLogService.finishExecution(executionLog, finalResult, null);
+                    }
+                    return null;
+                });
+    }
 
-                RpaStep step = steps.get(i);
-                context.setCurrentStepIndex(i + 1);
+    /**
+     * 依次执行第 index 个及之后的步骤，每步完成后再组合下一步
+     */
+    private CompletableFuture<Void> runSteps(TaskExecutionContext context, List<RpaStep> steps,
+                                             ExecutionLogDocument executionLog,
+                                             RpaExecutionResult finalResult, int index) {
+        if (index >= steps.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (context.isCancelled()) {
+            return CompletableFuture.failedFuture(new InterruptedException("任务被取消"));
+        }
+        if (context.isBrowserLost()) {
+            return CompletableFuture.failedFuture(new BrowserLostException(context.getBrowserSessionId()));
+        }
 
-                if (i > 0 && isPageTransitionStep(step)) {
-                    waitForPageStable(browserId, 2000);
-                }
+        String executionId = context.getExecutionId();
+        String browserId = context.getBrowserSessionId();
+        RpaStep step = steps.get(index);
+        context.setCurrentStepIndex(index + 1);
+
+        CompletableFuture<Void> ready = index > 0 && isPageTransitionStep(step)
+                ? waitForPageStable(browserId, 2000)
+                : CompletableFuture.completedFuture(null);
+
+        return ready
+                .thenComposeAsync(v -> {
+                    // 🔔 广播步骤开始
+                    monitorService.notifyStepStart(executionId, index + 1, step);
+                    return executeStepWithRetry(executionId, browserId, step, context);
+                }, executor)
+                .thenComposeAsync(result ->
+                        handleStepResult(context, steps, executionLog, finalResult, index, step, result), executor)
+                .thenComposeAsync(v -> runSteps(context, steps, executionLog, finalResult, index + 1), executor);
+    }
 
-                // 🔔 广播步骤开始
-                monitorService.notifyStepStart(executionId, i + 1, step);
-
-                StepResult result = executeStepWithRetry(executionId, browserId, step, context);
-
-                RpaStepResult stepResult = convertToRpaStepResult(result);
-                finalResult.getStepResults().add(stepResult);
-                executionLogService.recordStep(executionLog, i, stepResult);
-
-                if (!result.isSuccess()) {
-                    Optional<StepResult> fixed = attemptAutoFix(executionId, browserId, step, result, context);
-                    if (fixed.isPresent()) {
-                        result = fixed.get();
-                        stepResult = convertToRpaStepResult(result);
-                        finalResult.getStepResults().set(i, stepResult);
-                        executionLogService.recordStep(executionLog, i, stepResult);
-                        // 🔔 广播修复后完成
-                        monitorService.notifyStepComplete(executionId, i + 1,
-                                step.getDescription() + " 完成(自动修复)", result.getMessage());
-                    } else {
+    private CompletableFuture<Void> handleStepResult(TaskExecutionContext context, List<RpaStep> steps,
+                                                     ExecutionLogDocument executionLog,
+                                                     RpaExecutionResult finalResult, int index,
+                                                     RpaStep step, StepResult result) {
+        String executionId = context.getExecutionId();
+        String browserId = context.getBrowserSessionId();
+
+        RpaStepResult stepResult = convertToRpaStepResult(result);
+        finalResult.getStepResults().add(stepResult);
+        executionLogService.recordStep(executionLog, index, stepResult);
+
+        if (result.isSuccess()) {
+            // 🔔 广播步骤完成
+            monitorService.notifyStepComplete(executionId, index + 1,
+                    step.getDescription() + " 完成", result.getMessage());
+
+            // 如果是extract操作且成功，保存提取的数据
+            if ("extract".equals(step.getAction())) {
+                saveExtractedData(executionId, context.getTask(), context, step, result);
+            }
+
+            context.getCompletedSteps().add(result);
+            log.info("✅ 步骤 {}/{} 完成: {}", index + 1, steps.size(), step.getDescription());
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return attemptAutoFix(executionId, browserId, step, result, context)
+                .thenAcceptAsync(fixed -> {
+                    if (fixed.isEmpty()) {
                         throw new RuntimeException("步骤执行失败且无法修复: " + result.getError());
                     }
-                } else {
-                    // 🔔 广播步骤完成
-                    monitorService.notifyStepComplete(executionId, i + 1,
-                            step.getDescription() + " 完成", result.getMessage());
 
-                    // 如果是extract操作且成功，保存提取的数据
-                    if ("extract".equals(step.getAction())) {
-                        saveExtractedData(executionId, task, context, step, result);
-                    }
-                }
+                    StepResult fixedResult = fixed.get();
+                    RpaStepResult fixedStepResult = convertToRpaStepResult(fixedResult);
+                    finalResult.getStepResults().set(index, fixedStepResult);
+                    executionLogService.recordStep(executionLog, index, fixedStepResult);
+                    // 🔔 广播修复后完成
+                    monitorService.notifyStepComplete(executionId, index + 1,
+                            step.getDescription() + " 完成(自动修复)", fixedResult.getMessage());
+
+                    context.getCompletedSteps().add(fixedResult);
+                    log.info("✅ 步骤 {}/{} 完成: {}", index + 1, steps.size(), step.getDescription());
+                }, executor);
+    }
 
-                context.getCompletedSteps().add(result);
-                log.info("✅ 步骤 {}/{} 完成: {}", i + 1, steps.size(), step.getDescription());
+    private void completeExecution(TaskExecutionContext context, List<RpaStep> steps,
+                                   RpaExecutionResult finalResult) {
+        String executionId = context.getExecutionId();
+
+        context.setStatus("COMPLETED");
+        finalResult.setSuccess(true);
+        finalResult.setCompletedSteps(steps.size());
+
+        // 🔔 广播任务完成
+        monitorService.notifyExecutionComplete(executionId, true,
+                "任务执行成功，共 " + steps.size() + " 步", steps.size());
+
+        log.info("🎉 任务 [{}] 执行完成，共 {} 步", executionId, steps.size());
+
+        // 记录成功的元素模式到知识图谱
+        for (RpaStep step : steps) {
+            if ("click".equals(step.getAction()) || "input".equals(step.getAction())) {
+                List<String> alternatives = new ArrayList<>();
+                if (step.getFallbackTarget() != null) alternatives.add(step.getFallbackTarget());
+                knowledgeGraphService.recordElementPattern(
+                        context.getCurrentUrl(),
+                        step.getAction(),
+                        step.getTarget(),
+                        alternatives,
+                        step.getImageTemplate(),
+                        step.getImageThreshold(),
+                        step.getImageHint()
+                );
             }
+        }
+    }
 
-            context.setStatus("COMPLETED");
-            finalResult.setSuccess(true);
-            finalResult.setCompletedSteps(steps.size());
-
-            // 🔔 广播任务完成
-            monitorService.notifyExecutionComplete(executionId, true,
-                    "任务执行成功，共 " + steps.size() + " 步", steps.size());
-
-            log.info("🎉 任务 [{}] 执行完成，共 {} 步", executionId, steps.size());
-
-            // 记录成功的元素模式到知识图谱
-            for (RpaStep step : steps) {
-                if ("click".equals(step.getAction()) || "input".equals(step.getAction())) {
-                    List<String> alternatives = new ArrayList<>();
-                    if (step.getFallbackTarget() != null) alternatives.add(step.getFallbackTarget());
-                    knowledgeGraphService.recordElementPattern(
-                            context.getCurrentUrl(),
-                            step.getAction(),
-                            step.getTarget(),
-                            alternatives,
-                            step.getImageTemplate(),
-                            step.getImageThreshold()
-                    );
-                }
-            }
+    /**
+     * 浏览器失联：未超过重排队上限时放回该用户的就绪队列（保留原优先级和提交时间，排在前面），
+     * 由任务结束后的分发交给同一用户的其他在线浏览器从头执行
+     */
+    private boolean requeueAfterBrowserLost(ScheduledTask scheduledTask, TaskExecutionContext context,
+                                            RpaExecutionResult finalResult) {
+        if (context.isCancelled() || scheduledTask.getRequeueCount() >= maxRequeues) {
+            return false;
+        }
+        String executionId = context.getExecutionId();
+        String message = "浏览器失联，任务重新排队";
+
+        context.setStatus("REQUEUED");
+        context.setErrorMessage(message);
+        finalResult.setSuccess(false);
+        finalResult.setErrorMessage(message);
+        finalResult.setCompletedSteps(context.getCurrentStepIndex());
+        monitorService.notifyExecutionComplete(executionId, false, message, context.getCurrentStepIndex());
+
+        scheduledTask.setRequeueCount(scheduledTask.getRequeueCount() + 1);
+        scheduledTask.setAssignedBrowser(null);
+        scheduledTask.setStatus("PENDING");
+        userQueueOf(scheduledTask.getUserId()).offer(scheduledTask);
+        queuePublisher.markAdded(scheduledTask);
+        return true;
+    }
 
-        } catch (Exception e) {
-            context.setStatus("FAILED");
-            context.setErrorMessage(e.getMessage());
-            finalResult.setSuccess(false);
-            finalResult.setErrorMessage(e.getMessage());
-            finalResult.setCompletedSteps(context.getCurrentStepIndex());
+    private void failExecution(TaskExecutionContext context, RpaExecutionResult finalResult, Throwable e) {
+        String executionId = context.getExecutionId();
 
-            // 🔔 广播任务失败
-            monitorService.notifyExecutionComplete(executionId, false,
-                    "任务失败: " + e.getMessage(), context.getCurrentStepIndex());
+        context.setStatus("FAILED");
+        context.setErrorMessage(e.getMessage());
+        finalResult.setSuccess(false);
+        finalResult.setErrorMessage(e.getMessage());
+        finalResult.setCompletedSteps(context.getCurrentStepIndex());
 
-            log.error("❌ 任务 [{}] 执行失败: {}", executionId, e.getMessage());
-        } finally {
-            runningTasks.remove(executionId);
-            executionLogService.finishExecution(executionLog, finalResult, null);
-            // 🔔 广播队列更新
-            monitorService.notifyQueueUpdate(new ArrayList<>(taskQueue));
+        // 🔔 广播任务失败
+        monitorService.notifyExecutionComplete(executionId, false,
+                "任务失败: " + e.getMessage(), context.getCurrentStepIndex());
+
+        log.error("❌ 任务 [{}] 执行失败: {}", executionId, e.getMessage());
+    }
+
+    private Throwable unwrap(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            return error.getCause();
         }
+        return error;
     }
 
     /**
@@ -364,165 +636,254 @@ public class RpaTaskScheduler {
         }
     }
 
-    private StepResult executeStepWithRetry(String executionId, String browserId,
-                                            RpaStep step, TaskExecutionContext context) {
+    private CompletableFuture<StepResult> executeStepWithRetry(String executionId, String browserId,
+                                                               RpaStep step, TaskExecutionContext context) {
         int maxRetries = step.getRetryCount() != null ? step.getRetryCount() : 3;
+        return attemptStep(executionId, browserId, step, context, 0, maxRetries);
+    }
 
-        for (int attempt = 0; attempt < maxRetries; attempt++) {
-            if (context.isCancelled() || !"RUNNING".equals(context.getStatus())) {
-                return StepResult.fail(step.getStepId(), "任务已取消或完成");
-            }
+    /**
+     * 单次尝试：发送指令并等待浏览器回报，由 StepCompletedEvent / StepFailedEvent 驱动完成
+     */
+    private CompletableFuture<StepResult> attemptStep(String executionId, String browserId, RpaStep step,
+                                                      TaskExecutionContext context, int attempt, int maxRetries) {
+        if (attempt >= maxRetries) {
+            return CompletableFuture.completedFuture(StepResult.fail(step.getStepId(), "超过最大重试次数"));
+        }
+        if (context.isBrowserLost()) {
+            return CompletableFuture.failedFuture(new BrowserLostException(browserId));
+        }
+        if (context.isCancelled() || !"RUNNING".equals(context.getStatus())) {
+            return CompletableFuture.completedFuture(StepResult.fail(step.getStepId(), "任务已取消或完成"));
+        }
 
-            try {
-                log.info("🎯 执行步骤 {}: action={}, target={}", step.getStepId(), step.getAction(), step.getTarget());
+        log.info("🎯 执行步骤 {}: action={}, target={}", step.getStepId(), step.getAction(), step.getTarget());
 
-                String commandValue = step.getValue();
-                if ("wait".equals(step.getAction()) && step.getWaitTime() != null) {
-                    commandValue = String.valueOf(step.getWaitTime());
-                }
-                
-                AgentCommand command = AgentCommand.builder()
-                        .taskId(executionId)
-                        .stepId(String.valueOf(step.getStepId()))
-                        .action(step.getAction())
-                        .target(step.getTarget())
-                        .value(commandValue)
-                        .timeout(15000)
-                        .waitForNavigation(false)
-                        .build();
-
-                CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
-                context.registerPendingStep(step.getStepId(), future);
-
-                browserHandler.sendCommand(browserId, command);
-
-                Map<String, Object> result = future.get(15, TimeUnit.SECONDS);
-
-                boolean success = (boolean) result.get("success");
-                if (success) {
-                    return StepResult.success(step.getStepId(), (String) result.get("message"));
-                } else {
-                    throw new RuntimeException((String) result.get("error"));
-                }
+        String commandValue = step.getValue();
+        if ("wait".equals(step.getAction()) && step.getWaitTime() != null) {
+            commandValue = String.valueOf(step.getWaitTime());
+        }
 
-            } catch (Exception e) {
-                context.removePendingStep(String.valueOf(step.getStepId()));
-                log.error("❌ 步骤 {} 尝试 {}/{} 失败: {}", step.getStepId(), attempt + 1, maxRetries, e.getMessage());
+        AgentCommand command = AgentCommand.builder()
+                .taskId(executionId)
+                .stepId(String.valueOf(step.getStepId()))
+                .action(step.getAction())
+                .target(step.getTarget())
+                .value(commandValue)
+                .timeout(15000)
+                .waitForNavigation(false)
+                // 流式解析时已预打开的页面直接接管
+                .prefetchId("open_url".equals(step.getAction())
+                        ? pagePrefetchService.claim(browserId, step.getTarget()).orElse(null)
+                        : null)
+                .build();
 
-                if (attempt < maxRetries - 1) {
-                    long waitMs = (long) Math.pow(2, attempt) * 1000;
-                    try {
-                        Thread.sleep(waitMs);
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        return StepResult.fail(step.getStepId(), "被中断");
+        return sendCommandAsync(context, browserId, command, step.getStepId(), 15000)
+                .thenApply(result -> {
+                    if (Boolean.TRUE.equals(result.get("success"))) {
+                        return StepResult.success(step.getStepId(), (String) result.get("message"));
                     }
+                    throw new CompletionException(new RuntimeException((String) result.get("error")));
+                })
+                .handle((result, error) -> error == null
+                        ? CompletableFuture.completedFuture(result)
+                        // 浏览器已失联时不再退避重试，直接结束整条流水线
+                        : context.isBrowserLost()
+                        ? CompletableFuture.<StepResult>failedFuture(unwrap(error))
+                        : onAttemptFailed(executionId, browserId, step, context, attempt, maxRetries, unwrap(error)))
+                .thenCompose(Function.identity());
+    }
 
-                    // 最后一次重试前尝试图像识别
-                    if (e.getMessage() != null
-                            && (e.getMessage().contains("not found") || e.getMessage().contains("未找到"))
-                            && step.getImageTemplate() != null && attempt == maxRetries - 2) {
-                        log.info("🖼️ 尝试使用图像识别定位元素");
-                        Optional<StepResult> imageResult = attemptImageLocation(executionId, browserId, step, context);
-                        if (imageResult.isPresent()) {
-                            return imageResult.get();
-                        }
-                    }
+    /**
+     * 失败后的状态转移：指数退避由共享定时器调度，等待期间不占用线程
+     */
+    private CompletableFuture<StepResult> onAttemptFailed(String executionId, String browserId, RpaStep step,
+                                                          TaskExecutionContext context, int attempt,
+                                                          int maxRetries, Throwable error) {
+        String message = error.getMessage();
+        log.error("❌ 步骤 {} 尝试 {}/{} 失败: {}", step.getStepId(), attempt + 1, maxRetries, message);
+
+        if (attempt >= maxRetries - 1) {
+            return CompletableFuture.completedFuture(
+                    StepResult.fail(step.getStepId(), "步骤执行失败: " + message));
+        }
 
-                    if (step.getFallbackTarget() != null) {
-                        step.setTarget(step.getFallbackTarget());
-                    }
-                } else {
-                    return StepResult.fail(step.getStepId(), "步骤执行失败: " + e.getMessage());
-                }
+        long waitMs = (long) Math.pow(2, attempt) * 1000;
+        return delay(waitMs).thenComposeAsync(v -> {
+            // 最后一次重试前尝试图像识别
+            if (message != null
+                    && (message.contains("not found") || message.contains("未找到"))
+                    && step.getImageTemplate() != null && attempt == maxRetries - 2) {
+                log.info("🖼️ 尝试使用图像识别定位元素");
+                return attemptImageLocation(executionId, browserId, step, context)
+                        .thenCompose(imageResult -> imageResult.isPresent()
+                                ? CompletableFuture.completedFuture(imageResult.get())
+                                : retryWithFallback(executionId, browserId, step, context, attempt, maxRetries));
             }
-        }
+            return retryWithFallback(executionId, browserId, step, context, attempt, maxRetries);
+        }, executor);
+    }
 
-        return StepResult.fail(step.getStepId(), "超过最大重试次数");
+    private CompletableFuture<StepResult> retryWithFallback(String executionId, String browserId, RpaStep step,
+                                                            TaskExecutionContext context, int attempt, int maxRetries) {
+        if (step.getFallbackTarget() != null) {
+            step.setTarget(step.getFallbackTarget());
+        }
+        return attemptStep(executionId, browserId, step, context, attempt + 1, maxRetries);
     }
 
-    private Optional<StepResult> attemptImageLocation(String executionId, String browserId,
-                                                      RpaStep step, TaskExecutionContext context) {
+    /**
+     * 发送指令并返回等待浏览器回报的 future（超时或发送失败时异常完成）
+     */
+    private CompletableFuture<Map<String, Object>> sendCommandAsync(TaskExecutionContext context, String browserId,
+                                                                    AgentCommand command, Integer stepId,
+                                                                    long timeoutMs) {
+        CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+        context.registerPendingStep(stepId, future);
+
+        // 在失联事件发出前就已分配到该浏览器的任务，发送前发现会话已不在册同样按失联处理
+        if (browserId != null && sessionManager.getSession(browserId).isEmpty()) {
+            context.setBrowserLost(true);
+        }
+        // 先登记再检查：与 onBrowserLost 的“先标记再清理”配合，不会漏掉失联前后登记的 future
+        if (context.isBrowserLost()) {
+            future.completeExceptionally(new BrowserLostException(browserId));
+            return future;
+        }
+
         try {
-            log.info("🖼️ 尝试图像识别定位元素: stepId={}", step.getStepId());
-
-            // 先获取当前滚动位置（用于后续坐标转换）
-            AgentCommand scrollCmd = AgentCommand.builder()
-                    .taskId(executionId)
-                    .stepId(String.valueOf(step.getStepId()))
-                    .action("get_scroll_position")
-                    .timeout(5000)
-                    .build();
+            browserHandler.sendCommand(browserId, command);
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
 
-            CompletableFuture<Map<String, Object>> scrollFuture = new CompletableFuture<>();
-            context.registerPendingStep(step.getStepId(), scrollFuture);
-            browserHandler.sendCommand(browserId, scrollCmd);
+        future.orTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+        future.whenComplete((result, error) -> {
+            if (error != null) {
+                context.removePendingStep(String.valueOf(stepId), future);
+            }
+        });
+        return future;
+    }
 
-            Map<String, Object> scrollResult = scrollFuture.get(5, TimeUnit.SECONDS);
-            int scrollX = scrollResult.get("scrollX") != null ? ((Number) scrollResult.get("scrollX")).intValue() : 0;
-            int scrollY = scrollResult.get("scrollY") != null ? ((Number) scrollResult.get("scrollY")).intValue() : 0;
+    /**
+     * 由共享定时器在 delayMs 后完成的 future
+     */
+    private CompletableFuture<Void> delay(long delayMs) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        stepTimer.schedule(() -> future.complete(null), delayMs, TimeUnit.MILLISECONDS);
+        return future;
+    }
 
-            // 截图
-            AgentCommand screenshotCmd = AgentCommand.builder()
-                    .taskId(executionId)
-                    .stepId(String.valueOf(step.getStepId()))
-                    .action("screenshot")
-                    .timeout(10000) // 增加超时时间
-                    .build();
+    private CompletableFuture<Optional<StepResult>> attemptImageLocation(String executionId, String browserId,
+                                                                         RpaStep step, TaskExecutionContext context) {
+        log.info("🖼️ 尝试图像识别定位元素: stepId={}", step.getStepId());
 
-            CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
-            context.registerPendingStep(step.getStepId(), future);
-            browserHandler.sendCommand(browserId, screenshotCmd);
+        // 先获取当前滚动位置（用于后续坐标转换）
+        AgentCommand scrollCmd = AgentCommand.builder()
+                .taskId(executionId)
+                .stepId(String.valueOf(step.getStepId()))
+                .action("get_scroll_position")
+                .timeout(5000)
+                .build();
 
-            Map<String, Object> result = future.get(10, TimeUnit.SECONDS);
-            String base64Image = (String) result.get("imageData");
+        return sendCommandAsync(context, browserId, scrollCmd, step.getStepId(), 5000)
+                .thenComposeAsync(scrollResult -> {
+                    int scrollX = scrollResult.get("scrollX") != null ? ((Number) scrollResult.get("scrollX")).intValue() : 0;
+                    int scrollY = scrollResult.get("scrollY") != null ? ((Number) scrollResult.get("scrollY")).intValue() : 0;
+
+                    // 截图
+                    AgentCommand screenshotCmd = AgentCommand.builder()
+                            .taskId(executionId)
+                            .stepId(String.valueOf(step.getStepId()))
+                            .action("screenshot")
+                            .timeout(10000) // 增加超时时间
+                            .build();
+
+                    return sendCommandAsync(context, browserId, screenshotCmd, step.getStepId(), 10000)
+                            .thenComposeAsync(result ->
+                                    matchAndClick(executionId, browserId, step, context, result, scrollX, scrollY), executor);
+                }, executor)
+                .exceptionally(e -> {
+                    log.error("图像识别定位失败: {}", unwrap(e).getMessage(), e);
+                    return Optional.empty();
+                });
+    }
 
-            if (base64Image == null || base64Image.isEmpty()) {
-                log.error("截图返回为空");
-                return Optional.empty();
-            }
+    private CompletableFuture<Optional<StepResult>> matchAndClick(String executionId, String browserId, RpaStep step,
+                                                                  TaskExecutionContext context,
+                                                                  Map<String, Object> screenshotResult,
+                                                                  int scrollX, int scrollY) {
+        byte[] screenshot = extractScreenshot(screenshotResult);
 
-            log.info("截图成功，开始匹配模板...");
+        if (screenshot == null || screenshot.length == 0) {
+            log.error("截图返回为空");
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
 
-            // 执行匹配
-            Optional<int[]> coordinates = imageLocatorService.locateElement(base64Image, step.getImageTemplate());
+        log.info("截图成功（{} bytes），开始匹配模板...", screenshot.length);
 
-            if (coordinates.isPresent()) {
-                int[] xy = coordinates.get();
-                log.info("🖼️ 图像匹配成功，绝对坐标: ({}, {})，滚动偏移: ({}, {})",
-                        xy[0], xy[1], scrollX, scrollY);
+        // 执行匹配
+        Optional<int[]> coordinates = imageLocatorService.locateElement(screenshot, step.getImageTemplate(),
+                0.65, step.getImageMatchMode(), step.getImageHint());
 
-                // 转换为视口坐标（减去滚动偏移）
-                int viewportX = xy[0] - scrollX;
-                int viewportY = xy[1] - scrollY;
+        if (context.isDebugCapture()) {
+            String label = "step" + step.getStepId() + (coordinates.isPresent() ? "_hit" : "_miss");
+            debugImageCapture.capture(executionId, label, screenshot);
+            debugImageCapture.capture(executionId, label + "_template",
+                    Base64.getDecoder().decode(step.getImageTemplate()));
+        }
 
-                log.info("转换后的视口坐标: ({}, {})", viewportX, viewportY);
+        if (coordinates.isEmpty()) {
+            log.warn("图像匹配未找到目标");
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
 
-                // 执行点击（使用坐标）
-                AgentCommand clickCmd = AgentCommand.builder()
-                        .taskId(executionId)
-                        .stepId(String.valueOf(step.getStepId()))
-                        .action("click_by_coordinates")
-                        .target(viewportX + "," + viewportY) // 使用视口坐标
-                        .timeout(5000)
-                        .build();
+        int[] xy = coordinates.get();
+        // 记住本次坐标，任务成功后随元素模式写入知识图谱，下次优先在附近搜索
+        step.setImageHint(xy[0] + "," + xy[1]);
+        log.info("🖼️ 图像匹配成功，绝对坐标: ({}, {})，滚动偏移: ({}, {})",
+                xy[0], xy[1], scrollX, scrollY);
+
+        // 转换为视口坐标（减去滚动偏移）
+        int viewportX = xy[0] - scrollX;
+        int viewportY = xy[1] - scrollY;
+
+        log.info("转换后的视口坐标: ({}, {})", viewportX, viewportY);
+
+        // 执行点击（使用坐标）
+        AgentCommand clickCmd = AgentCommand.builder()
+                .taskId(executionId)
+                .stepId(String.valueOf(step.getStepId()))
+                .action("click_by_coordinates")
+                .target(viewportX + "," + viewportY) // 使用视口坐标
+                .timeout(5000)
+                .build();
 
-                CompletableFuture<Map<String, Object>> clickFuture = new CompletableFuture<>();
-                context.registerPendingStep(step.getStepId(), clickFuture);
-                browserHandler.sendCommand(browserId, clickCmd);
+        return sendCommandAsync(context, browserId, clickCmd, step.getStepId(), 5000)
+                .thenApply(clickResult -> Boolean.TRUE.equals(clickResult.get("success"))
+                        ? Optional.of(StepResult.success(step.getStepId(),
+                                "通过图像识别定位并点击成功，坐标: (" + viewportX + ", " + viewportY + ")"))
+                        : Optional.<StepResult>empty());
+    }
 
-                Map<String, Object> clickResult = clickFuture.get(5, TimeUnit.SECONDS);
-                if ((boolean) clickResult.get("success")) {
-                    return Optional.of(StepResult.success(step.getStepId(),
-                            "通过图像识别定位并点击成功，坐标: (" + viewportX + ", " + viewportY + ")"));
-                }
-            } else {
-                log.warn("图像匹配未找到目标");
-            }
-        } catch (Exception e) {
-            log.error("图像识别定位失败: {}", e.getMessage(), e);
-        }
-        return Optional.empty();
+    /**
+     * 浏览器断开或心跳超时：立即让其上所有等待回报的步骤失败，不再等指令超时和重试
+     */
+    @EventListener
+    public void onBrowserLost(BrowserLostEvent event) {
+        runningTasks.values().stream()
+                .filter(t -> event.getBrowserSessionId().equals(t.getBrowserSessionId()))
+                .forEach(t -> {
+                    t.setBrowserLost(true);
+                    t.getPendingSteps().forEach((stepId, future) -> {
+                        if (t.removePendingStep(stepId, future)) {
+                            future.completeExceptionally(new BrowserLostException(event.getBrowserSessionId()));
+                        }
+                    });
+                    log.warn("💔 任务 [{}] 的浏览器 [{}] 失联({})，中止等待中的步骤",
+                            t.getExecutionId(), event.getBrowserSessionId(), event.getReason());
+                });
     }
 
     @EventListener
@@ -588,110 +949,152 @@ public class RpaTaskScheduler {
         return rpaResult;
     }
 
-    private Optional<StepResult> attemptAutoFix(String executionId, String browserId,
-                                                RpaStep failedStep, StepResult failure,
-                                                TaskExecutionContext context) {
+    private CompletableFuture<Optional<StepResult>> attemptAutoFix(String executionId, String browserId,
+                                                                   RpaStep failedStep, StepResult failure,
+                                                                   TaskExecutionContext context) {
         log.info("🧠 AI Agent尝试智能修复步骤 {}", failedStep.getStepId());
 
         // 1. 先尝试知识图谱修复（快通道）
-        Optional<String> kgSolution = knowledgeGraphService.findSolution(
-                new RuntimeException(failure.getError()),
-                failedStep,
-                context.getCurrentUrl()
-        );
-
-        if (kgSolution.isPresent()) {
-            String solution = kgSolution.get();
-            log.info("💡 应用知识图谱方案: {}", solution);
-            RpaStep fixedStep = applyKnowledgeFix(failedStep, solution);
-            try {
-                StepResult fixResult = executeStepWithRetry(executionId, browserId, fixedStep, context);
-                knowledgeGraphService.recordSuccessSolution(
+        return CompletableFuture.supplyAsync(() -> knowledgeGraphService.findSolution(
                         new RuntimeException(failure.getError()),
                         failedStep,
-                        solution,
                         context.getCurrentUrl()
-                );
-                return Optional.of(fixResult);
-            } catch (Exception e) {
-                log.error("知识图谱方案也失败", e);
-            }
-        }
-
-        // 2. 知识图谱修不好，调用 LLM 进行运行时诊断（慢但智能）
-        log.info("🤖 知识图谱无方案，尝试 LLM 运行时修复");
-        try {
-            // 2.1 获取页面上下文
-            AgentCommand contextCmd = AgentCommand.builder()
-                    .taskId(executionId)
-                    .stepId(String.valueOf(failedStep.getStepId()))
-                    .action("get_page_context")
-                    .timeout(5000)
-                    .build();
+                ), executor)
+                .thenCompose(kgSolution -> {
+                    if (kgSolution.isEmpty()) {
+                        // 2. 知识图谱修不好，调用 LLM 进行运行时诊断（慢但智能）
+                        log.info("🤖 知识图谱无方案，尝试 LLM 运行时修复");
+                        return attemptLlmFix(executionId, browserId, failedStep, failure, context);
+                    }
 
-            CompletableFuture<Map<String, Object>> contextFuture = new CompletableFuture<>();
-            context.registerPendingStep(failedStep.getStepId(), contextFuture);
-            browserHandler.sendCommand(browserId, contextCmd);
-
-            Map<String, Object> pageResult = contextFuture.get(5, TimeUnit.SECONDS);
-            String pageContextJson = (String) pageResult.get("message");
-            com.alibaba.fastjson2.JSONObject ctx = com.alibaba.fastjson2.JSON.parseObject(pageContextJson);
-            String pageHtml = ctx.getString("html");
-            String pageUrl = ctx.getString("url");
-
-            // 2.2 LLM 诊断
-            Optional<RpaStep> llmFix = aiAutoFixService.fixStep(
-                    failedStep,
-                    failure.getError(),
-                    pageUrl != null ? pageUrl : context.getCurrentUrl(),
-                    pageHtml
-            );
+                    String solution = kgSolution.get();
+                    log.info("💡 应用知识图谱方案: {}", solution);
+                    RpaStep fixedStep = applyKnowledgeFix(failedStep, solution);
+                    return executeStepWithRetry(executionId, browserId, fixedStep, context)
+                            .thenApplyAsync(fixResult -> {
+                                knowledgeGraphService.recordSuccessSolution(
+                                        new RuntimeException(failure.getError()),
+                                        failedStep,
+                                        solution,
+                                        context.getCurrentUrl()
+                                );
+                                return Optional.of(fixResult);
+                            }, executor)
+                            .handle((fixResult, error) -> {
+                                if (error == null) {
+                                    return CompletableFuture.completedFuture(fixResult);
+                                }
+                                log.error("知识图谱方案也失败", unwrap(error));
+                                return attemptLlmFix(executionId, browserId, failedStep, failure, context);
+                            })
+                            .thenCompose(Function.identity());
+                });
+    }
 
-            if (llmFix.isPresent()) {
-                RpaStep fixedStep = llmFix.get();
-                log.info("💡 应用 LLM 修复方案: {} -> {}", fixedStep.getAction(), fixedStep.getTarget());
-                StepResult fixResult = executeStepWithRetry(executionId, browserId, fixedStep, context);
+    private CompletableFuture<Optional<StepResult>> attemptLlmFix(String executionId, String browserId,
+                                                                  RpaStep failedStep, StepResult failure,
+                                                                  TaskExecutionContext context) {
+        // 2.1 获取页面上下文
+        AgentCommand contextCmd = AgentCommand.builder()
+                .taskId(executionId)
+                .stepId(String.valueOf(failedStep.getStepId()))
+                .action("get_page_context")
+                .timeout(5000)
+                .build();
 
-                // 记录成功修复到知识图谱，形成学习闭环
-                String solution = String.format("LLM修复: %s -> %s", fixedStep.getAction(), fixedStep.getTarget());
-                knowledgeGraphService.recordSuccessSolution(
-                        new RuntimeException(failure.getError()),
-                        failedStep,
-                        solution,
-                        context.getCurrentUrl()
-                );
-                if ("click".equals(fixedStep.getAction()) || "input".equals(fixedStep.getAction())) {
-                    java.util.List<String> alts = new java.util.ArrayList<>();
-                    if (failedStep.getTarget() != null) alts.add(failedStep.getTarget());
-                    knowledgeGraphService.recordElementPattern(
-                            context.getCurrentUrl(),
-                            fixedStep.getAction(),
-                            fixedStep.getTarget(),
-                            alts,
-                            fixedStep.getImageTemplate(),
-                            fixedStep.getImageThreshold()
+        return sendCommandAsync(context, browserId, contextCmd, failedStep.getStepId(), 5000)
+                .thenCompose(pageResult -> {
+                    String pageContextJson = (String) pageResult.get("message");
+                    com.alibaba.fastjson2.JSONObject ctx = com.alibaba.fastjson2.JSON.parseObject(pageContextJson);
+                    String pageUrl = ctx.getString("url");
+
+                    // 2.2 LLM 诊断（经LLM网关排队，等待期间不占用任务线程）
+                    return aiAutoFixService.fixStepAsync(
+                            failedStep,
+                            failure.getError(),
+                            pageUrl != null ? pageUrl : context.getCurrentUrl(),
+                            pageContextJson
                     );
-                }
+                })
+                .thenCompose(llmFix -> {
+                    if (llmFix.isEmpty()) {
+                        return CompletableFuture.completedFuture(Optional.<StepResult>empty());
+                    }
 
-                return Optional.of(fixResult);
-            }
-        } catch (Exception e) {
-            log.error("❌ LLM 运行时修复失败: {}", e.getMessage(), e);
+                    RpaStep fixedStep = llmFix.get();
+                    log.info("💡 应用 LLM 修复方案: {} -> {}", fixedStep.getAction(), fixedStep.getTarget());
+                    return executeStepWithRetry(executionId, browserId, fixedStep, context)
+                            .thenApplyAsync(fixResult -> {
+                                recordLlmFix(failedStep, fixedStep, failure, context);
+                                return Optional.of(fixResult);
+                            }, executor);
+                })
+                .exceptionally(e -> {
+                    log.error("❌ LLM 运行时修复失败: {}", unwrap(e).getMessage(), e);
+                    return Optional.empty();
+                });
+    }
+
+    /**
+     * 记录成功修复到知识图谱，形成学习闭环
+     */
+    private void recordLlmFix(RpaStep failedStep, RpaStep fixedStep, StepResult failure,
+                              TaskExecutionContext context) {
+        String solution = String.format("LLM修复: %s -> %s", fixedStep.getAction(), fixedStep.getTarget());
+        knowledgeGraphService.recordSuccessSolution(
+                new RuntimeException(failure.getError()),
+                failedStep,
+                solution,
+                context.getCurrentUrl()
+        );
+        if ("click".equals(fixedStep.getAction()) || "input".equals(fixedStep.getAction())) {
+            List<String> alts = new ArrayList<>();
+            if (failedStep.getTarget() != null) alts.add(failedStep.getTarget());
+            knowledgeGraphService.recordElementPattern(
+                    context.getCurrentUrl(),
+                    fixedStep.getAction(),
+                    fixedStep.getTarget(),
+                    alts,
+                    fixedStep.getImageTemplate(),
+                    fixedStep.getImageThreshold()
+            );
         }
+    }
 
-        return Optional.empty();
+    /**
+     * 取出截图字节：优先使用二进制帧携带的原始字节，兼容旧版扩展的base64字符串
+     */
+    @SuppressWarnings("unchecked")
+    private byte[] extractScreenshot(Map<String, Object> screenshotResult) {
+        Map<String, Object> data = (Map<String, Object>) screenshotResult.get("data");
+        if (data != null && data.get("imageBytes") instanceof byte[] bytes) {
+            return bytes;
+        }
+
+        Object base64 = data != null && data.get("imageData") != null
+                ? data.get("imageData")
+                : screenshotResult.get("imageData");
+        if (base64 == null) {
+            // 旧版扩展把截图base64放在message里返回
+            base64 = screenshotResult.get("message");
+        }
+        if (!(base64 instanceof String str) || str.isEmpty()) {
+            return null;
+        }
+        try {
+            return Base64.getDecoder().decode(str);
+        } catch (IllegalArgumentException e) {
+            log.error("截图base64解码失败: {}", e.getMessage());
+            return null;
+        }
     }
 
     private boolean isPageTransitionStep(RpaStep step) {
         return "open_url".equals(step.getAction()) || "click".equals(step.getAction());
     }
 
-    private void waitForPageStable(String browserId, long timeoutMs) {
-        try {
-            Thread.sleep(500);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
+    private CompletableFuture<Void> waitForPageStable(String browserId, long timeoutMs) {
+        return delay(500);
     }
 
     private RpaStep applyKnowledgeFix(RpaStep original, String solution) {
@@ -730,16 +1133,41 @@ public class RpaTaskScheduler {
         if (fixed.getImageThreshold() == null) {
             fixed.setImageThreshold(original.getImageThreshold());
         }
+        fixed.setImageMatchMode(original.getImageMatchMode());
+        fixed.setImageHint(original.getImageHint());
         return fixed;
     }
 
     private ScheduledTask findTaskInQueue(String executionId) {
-        return taskQueue.stream()
+        return userQueues.values().stream()
+                .flatMap(Collection::stream)
                 .filter(t -> t.getExecutionId().equals(executionId))
                 .findFirst()
                 .orElse(null);
     }
 
+    /**
+     * 调整排队任务的优先级（优先队列不支持原地更新，先移出再放回）
+     */
+    public boolean reprioritizeTask(String executionId, TaskPriority priority) {
+        ScheduledTask task = findTaskInQueue(executionId);
+        if (task == null) {
+            return false;
+        }
+        PriorityBlockingQueue<ScheduledTask> queue = userQueueOf(task.getUserId());
+        synchronized (queue) {
+            // 已被分发出队的任务不再调整
+            if (!queue.remove(task)) {
+                return false;
+            }
+            task.setPriority(priority.getValue());
+            queue.offer(task);
+        }
+        queuePublisher.markReprioritized(task);
+        log.info("↕️ 任务 [{}] 优先级调整为 {}", executionId, priority);
+        return true;
+    }
+
     public void cancelTask(String executionId) {
         TaskExecutionContext context = runningTasks.get(executionId);
         if (context != null) {
@@ -764,4 +1192,13 @@ public class RpaTaskScheduler {
         }
         return null;
     }
-}
\ No newline at end of file
+
+    /**
+     * 执行任务的浏览器已失联
+     */
+    private static class BrowserLostException extends RuntimeException {
+        BrowserLostException(String browserId) {
+            super("浏览器已失联: " + browserId);
+        }
+    }
+}
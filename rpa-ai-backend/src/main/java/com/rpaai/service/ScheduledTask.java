@@ -14,4 +14,6 @@ public class ScheduledTask {
     private Long submitTime;
     private String status;  // PENDING, ASSIGNED, RUNNING
     private String assignedBrowser;
+    private int requeueCount;  // 浏览器失联后重新排队的次数
+    private boolean immediate;  // 立即执行：排在所在用户队列最前
 }
\ No newline at end of file
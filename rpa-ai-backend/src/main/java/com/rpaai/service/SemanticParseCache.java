@@ -0,0 +1,311 @@
+package com.rpaai.service;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 任务解析语义缓存：把自然语言描述向量化（分段字符n-gram哈希向量），相似度超过阈值时
+ * 复用已解析的步骤配置，并把搜索关键词替换成本次描述中的关键词，省去一次LLM调用
+ */
+@Slf4j
+@Component
+public class SemanticParseCache {
+
+    private static final int DIMENSION = 1024;
+    private static final String SLOT = "□";
+
+    // 搜索关键词：搜索/搜/查找 后面到连接词或标点为止
+    private static final Pattern KEYWORD_PATTERN = Pattern.compile(
+            "(?:搜索|搜一下|搜|查找|查询|search(?:\\s+for)?)\\s*[：:\"“'「]?\\s*(.+?)\\s*(?=然后|并且|接着|之后|并|再|[，。,；;！!\"”'」]|$)",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("[a-z0-9.]+|[\\u4e00-\\u9fff]+|" + SLOT);
+
+    // 不影响任务语义的连接词
+    private static final String[] FILLERS = {"然后", "并且", "接着", "之后", "帮我", "一下", "请"};
+
+    // 显式账号密码的描述不进入缓存
+    private static final String[] CREDENTIAL_HINTS = {"账号是", "用户名是", "密码是", "账号:", "密码:",
+            "user:", "pass:", "登录名是"};
+
+    // 与 AiParsingService.optimizeLoginSteps 判断一致，意图不同的描述不能互相复用
+    private static final String[] DIRECT_LOGIN_HINTS = {"不用输", "直接登", "已保存", "记住密码", "保存了密码",
+            "有密码", "跳过输入", "自动登", "一键登录", "免输入"};
+
+    // 动作词 -> 规范动作。多一个或少一个动作时步骤列表本身就不同，向量再相似也不能复用；
+    // “打开”由站点名隐含，不计入（“登录github”与“打开github登录”是同一组动作）
+    private static final Map<String, String> ACTION_VERBS = actionVerbs();
+    private static final Pattern ACTION_PATTERN = Pattern.compile(
+            ACTION_VERBS.keySet().stream()
+                    .sorted(Comparator.comparingInt(String::length).reversed())
+                    .map(Pattern::quote)
+                    .reduce((x, y) -> x + "|" + y)
+                    .orElseThrow(),
+            Pattern.CASE_INSENSITIVE);
+
+    @Value("${rpa.ai.semantic-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${rpa.ai.semantic-cache.threshold:0.92}")
+    private double threshold;
+
+    @Value("${rpa.ai.semantic-cache.max-entries:1000}")
+    private int maxEntries;
+
+    @Value("${rpa.ai.semantic-cache.ttl-minutes:1440}")
+    private long ttlMinutes;
+
+    private final Deque<Entry> entries = new ArrayDeque<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * 查找语义相近的已解析描述，命中时返回替换过关键词的配置JSON
+     */
+    public Optional<String> lookup(String naturalLanguage) {
+        if (!enabled || naturalLanguage == null || containsAny(naturalLanguage.toLowerCase(), CREDENTIAL_HINTS)) {
+            return Optional.empty();
+        }
+
+        String keyword = extractKeyword(naturalLanguage);
+        String masked = maskKeyword(naturalLanguage, keyword);
+        List<String> actions = actionSignature(masked);
+        float[] vector = embed(masked);
+        boolean directLogin = containsAny(naturalLanguage.toLowerCase(), DIRECT_LOGIN_HINTS);
+        long now = System.currentTimeMillis();
+
+        Entry best = null;
+        double bestScore = 0;
+        synchronized (this) {
+            entries.removeIf(e -> e.expiresAt <= now);
+            for (Entry entry : entries) {
+                // 先按意图硬过滤：关键词有无、直接登录、动作序列都必须一致，再比较向量
+                if ((entry.keyword != null) != (keyword != null) || entry.directLogin != directLogin
+                        || !entry.actions.equals(actions)) {
+                    continue;
+                }
+                double score = dot(vector, entry.vector);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = entry;
+                }
+            }
+        }
+
+        if (best == null || bestScore < threshold) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+
+        hits.incrementAndGet();
+        log.info("⚡ 语义缓存命中 (相似度{}): \"{}\" ≈ \"{}\"",
+                String.format("%.3f", bestScore), naturalLanguage, best.description);
+        return Optional.of(keyword != null
+                ? substituteKeyword(best.configJson, best.keyword, keyword)
+                : best.configJson);
+    }
+
+    /**
+     * 缓存解析结果（应为优化后、注入凭据前的配置）
+     */
+    public void store(String naturalLanguage, String configJson) {
+        if (!enabled || naturalLanguage == null || containsAny(naturalLanguage.toLowerCase(), CREDENTIAL_HINTS)) {
+            return;
+        }
+
+        String keyword = extractKeyword(naturalLanguage);
+        if (keyword != null && !configJson.contains(keyword)) {
+            // 关键词没出现在步骤里，无法安全替换，不缓存
+            log.debug("语义缓存跳过：关键词 {} 不在步骤中", keyword);
+            return;
+        }
+
+        String masked = maskKeyword(naturalLanguage, keyword);
+        Entry entry = new Entry(naturalLanguage, keyword,
+                containsAny(naturalLanguage.toLowerCase(), DIRECT_LOGIN_HINTS),
+                actionSignature(masked), embed(masked), configJson,
+                System.currentTimeMillis() + ttlMinutes * 60_000);
+
+        synchronized (this) {
+            entries.removeIf(e -> e.description.equals(naturalLanguage));
+            entries.addLast(entry);
+            while (entries.size() > maxEntries) {
+                entries.pollFirst();
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long h = hits.get();
+        long m = misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("hitRate", h + m == 0 ? 0.0 : (double) h / (h + m));
+        synchronized (this) {
+            stats.put("size", entries.size());
+        }
+        stats.put("threshold", threshold);
+        return stats;
+    }
+
+    String extractKeyword(String text) {
+        Matcher m = KEYWORD_PATTERN.matcher(text);
+        if (m.find()) {
+            String keyword = m.group(1).trim();
+            return keyword.isEmpty() ? null : keyword;
+        }
+        return null;
+    }
+
+    /**
+     * 描述中依次出现的动作（在去掉关键词后的文本上提取，关键词里的“登录”“截图”等不算动作），
+     * 相邻重复的只保留一个
+     */
+    List<String> actionSignature(String text) {
+        List<String> actions = new ArrayList<>();
+        Matcher m = ACTION_PATTERN.matcher(text);
+        while (m.find()) {
+            String action = ACTION_VERBS.get(m.group().toLowerCase());
+            if (actions.isEmpty() || !actions.get(actions.size() - 1).equals(action)) {
+                actions.add(action);
+            }
+        }
+        return actions;
+    }
+
+    private static Map<String, String> actionVerbs() {
+        Map<String, String> verbs = new HashMap<>();
+        for (String v : new String[]{"登录", "登陆", "登入", "login", "log in", "sign in"}) verbs.put(v, "login");
+        for (String v : new String[]{"搜索", "搜一下", "搜", "查找", "查询", "search"}) verbs.put(v, "search");
+        for (String v : new String[]{"截图", "截屏", "screenshot"}) verbs.put(v, "screenshot");
+        for (String v : new String[]{"点击", "单击", "点一下", "click"}) verbs.put(v, "click");
+        for (String v : new String[]{"输入", "填写", "填入", "type"}) verbs.put(v, "input");
+        for (String v : new String[]{"提取", "抓取", "采集", "爬取", "获取", "extract", "scrape"}) verbs.put(v, "extract");
+        for (String v : new String[]{"滚动", "下拉", "翻页", "scroll"}) verbs.put(v, "scroll");
+        for (String v : new String[]{"等待", "wait"}) verbs.put(v, "wait");
+        for (String v : new String[]{"下载", "导出", "download", "export"}) verbs.put(v, "export");
+        return verbs;
+    }
+
+    private String maskKeyword(String text, String keyword) {
+        return keyword == null ? text : text.replace(keyword, " " + SLOT + " ");
+    }
+
+    /**
+     * 向量化：规范化同义词、去掉连接词，按中文/英文数字分段，
+     * 中文段取单字和二字组，英文段整词，哈希到固定维度后归一化
+     */
+    float[] embed(String text) {
+        String normalized = text.toLowerCase()
+                .replace("登陆", "登录")
+                .replace("查找", "搜索")
+                .replace("查询", "搜索")
+                .replaceAll("搜(?!索)", "搜索");
+        for (String filler : FILLERS) {
+            normalized = normalized.replace(filler, " ");
+        }
+
+        float[] vector = new float[DIMENSION];
+        Matcher m = SEGMENT_PATTERN.matcher(normalized);
+        while (m.find()) {
+            String segment = m.group();
+            char first = segment.charAt(0);
+            if (first >= '一' && first <= '鿿') {
+                for (int i = 0; i < segment.length(); i++) {
+                    add(vector, segment.substring(i, i + 1), 0.5f);
+                    if (i + 1 < segment.length()) {
+                        add(vector, segment.substring(i, i + 2), 1.0f);
+                    }
+                }
+            } else {
+                // 英文整词（多为站点名）区分度高，权重更大
+                add(vector, segment, 2.0f);
+            }
+        }
+
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        if (norm > 0) {
+            float inv = (float) (1.0 / Math.sqrt(norm));
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] *= inv;
+            }
+        }
+        return vector;
+    }
+
+    private void add(float[] vector, String feature, float weight) {
+        vector[Math.floorMod(feature.hashCode(), DIMENSION)] += weight;
+    }
+
+    private double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * 把缓存配置中的旧关键词替换为新关键词：输入值、描述，以及打开的URL（含URL编码形式）
+     */
+    private String substituteKeyword(String configJson, String oldKeyword, String newKeyword) {
+        JSONObject config = JSON.parseObject(configJson);
+        JSONArray steps = config.getJSONArray("steps");
+        if (steps == null) {
+            return configJson;
+        }
+
+        String oldEncoded = URLEncoder.encode(oldKeyword, StandardCharsets.UTF_8);
+        String newEncoded = URLEncoder.encode(newKeyword, StandardCharsets.UTF_8);
+
+        for (int i = 0; i < steps.size(); i++) {
+            JSONObject step = steps.getJSONObject(i);
+            replaceField(step, "value", oldKeyword, newKeyword);
+            replaceField(step, "description", oldKeyword, newKeyword);
+            // URL只替换查询串部分，避免关键词恰好是域名的一部分
+            String target = step.getString("target");
+            if ("open_url".equals(step.getString("action")) && target != null && target.contains("?")) {
+                int q = target.indexOf('?');
+                String query = target.substring(q)
+                        .replace(oldEncoded, newEncoded)
+                        .replace(oldKeyword, newKeyword);
+                step.put("target", target.substring(0, q) + query);
+            }
+        }
+        return config.toJSONString();
+    }
+
+    private void replaceField(JSONObject step, String field, String from, String to) {
+        String value = step.getString(field);
+        if (value != null && value.contains(from)) {
+            step.put(field, value.replace(from, to));
+        }
+    }
+
+    private boolean containsAny(String input, String... keywords) {
+        for (String k : keywords) {
+            if (input.contains(k)) return true;
+        }
+        return false;
+    }
+
+    private record Entry(String description, String keyword, boolean directLogin, List<String> actions,
+                         float[] vector, String configJson, long expiresAt) {
+    }
+}
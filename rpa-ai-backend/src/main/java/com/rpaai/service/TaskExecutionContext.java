@@ -24,6 +24,8 @@ public class TaskExecutionContext {
     private Long startTime;
     private String currentUrl;
     private volatile boolean cancelled = false;
+    private volatile boolean browserLost = false;  // 执行浏览器已断开或心跳超时
+    private boolean debugCapture = false;  // 本次执行是否记录图像匹配调试截图
 
     // 关键修复：使用String作为key，统一类型
     private Map<String, CompletableFuture<Map<String, Object>>> pendingSteps = new ConcurrentHashMap<>();
@@ -41,6 +43,13 @@ public class TaskExecutionContext {
         return pendingSteps.remove(stepId);
     }
 
+    /**
+     * 仅当登记的仍是该 future 时移除，避免误删同一步骤后续重试登记的 future
+     */
+    public boolean removePendingStep(String stepId, CompletableFuture<Map<String, Object>> future) {
+        return pendingSteps.remove(stepId, future);
+    }
+
     public void replaceRemainingSteps(List<RpaStep> newSteps) {
         int current = this.currentStepIndex;
         List<RpaStep> newList = new ArrayList<>();
@@ -1,6 +1,10 @@
 package com.rpaai.service;
 
 import com.rpaai.entity.AutomationTask;
+import com.rpaai.entity.RpaStep;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * 任务服务接口 - 修改版
@@ -13,6 +17,12 @@ public interface TaskService {
      */
     AutomationTask parseWithAI(String naturalLanguage, Long credentialsId);
 
+    /**
+     * 流式解析：每解析出一个步骤回调一次，完成后保存任务
+     */
+    CompletableFuture<AutomationTask> parseWithAIStreaming(String naturalLanguage, Long credentialsId,
+                                                           Consumer<RpaStep> onStep);
+
     AutomationTask saveTask(AutomationTask task);
 
     AutomationTask getTaskById(Long id);
@@ -0,0 +1,230 @@
+package com.rpaai.service;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.opencv.global.opencv_imgproc;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Size;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 模板图像缓存：按模板内容SHA-256缓存解码后的Mat及各缩放比例的模板
+ * 按堆外字节数做LRU淘汰，使用中的模板通过引用计数延迟释放
+ */
+@Slf4j
+@Component
+public class TemplateMatCache {
+
+    // 多尺度匹配使用的缩放比例（预先生成）
+    static final double[] SCALES = {1.0, 0.9, 1.1, 0.8, 1.2, 0.7, 1.3};
+
+    // 金字塔层数：0 原图，1 为1/2，2 为1/4
+    static final int PYRAMID_LEVELS = 3;
+
+    @Value("${rpa.image.template-cache.max-bytes:67108864}")
+    private long maxBytes;
+
+    // JavaCPP堆外内存占用超过上限的该比例时，主动收缩缓存
+    @Value("${rpa.image.template-cache.pressure-ratio:0.85}")
+    private double pressureRatio;
+
+    private final LinkedHashMap<String, Template> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long currentBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * 获取模板（未命中时用decoder解码并生成缩放模板），调用方用完必须close
+     */
+    public Template acquire(String templateBase64, Function<String, Mat> decoder) {
+        String key = hash(templateBase64);
+
+        synchronized (this) {
+            Template cached = entries.get(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached.retain();
+            }
+        }
+
+        misses.incrementAndGet();
+        Mat original = decoder.apply(templateBase64);
+        if (original == null || original.empty()) {
+            return null;
+        }
+        Template created = new Template(key, original);
+
+        synchronized (this) {
+            // 并发未命中时以先放入的为准
+            Template existing = entries.get(key);
+            if (existing != null) {
+                created.close();
+                return existing.retain();
+            }
+            entries.put(key, created);
+            currentBytes += created.bytes;
+            created.retain();
+            evictIfNeeded();
+            return created;
+        }
+    }
+
+    private void evictIfNeeded() {
+        long limit = maxBytes;
+        if (underMemoryPressure()) {
+            limit = maxBytes / 2;
+        }
+
+        Iterator<Template> it = entries.values().iterator();
+        // 保留最近使用的一个，避免刚放入就被淘汰
+        while (currentBytes > limit && entries.size() > 1 && it.hasNext()) {
+            Template eldest = it.next();
+            it.remove();
+            currentBytes -= eldest.bytes;
+            evictions.incrementAndGet();
+            eldest.evict();
+        }
+    }
+
+    private boolean underMemoryPressure() {
+        long max = Pointer.maxBytes();
+        return max > 0 && Pointer.totalBytes() > max * pressureRatio;
+    }
+
+    public Map<String, Object> getStats() {
+        long h = hits.get();
+        long m = misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("hitRate", h + m == 0 ? 0.0 : (double) h / (h + m));
+        stats.put("evictions", evictions.get());
+        synchronized (this) {
+            stats.put("entries", entries.size());
+            stats.put("bytes", currentBytes);
+        }
+        stats.put("maxBytes", maxBytes);
+        return stats;
+    }
+
+    @PreDestroy
+    public synchronized void clear() {
+        entries.values().forEach(Template::evict);
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    private static String hash(String content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(content.getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 缓存的模板：原图 + 各缩放比例的模板，引用计数归零且已淘汰时释放堆外内存
+     */
+    public static class Template implements AutoCloseable {
+
+        @Getter
+        private final String key;
+        @Getter
+        private final Mat original;
+        private final Map<Double, Mat> scaled = new LinkedHashMap<>();
+        // 每个缩放比例的灰度金字塔（金字塔搜索模式使用）
+        private final Map<Double, Mat[]> grayPyramids = new LinkedHashMap<>();
+        private final long bytes;
+
+        // 缓存自身持有一个引用
+        private final AtomicInteger refCount = new AtomicInteger(1);
+
+        Template(String key, Mat original) {
+            this.key = key;
+            this.original = original;
+
+            long total = matBytes(original);
+            for (double scale : SCALES) {
+                int width = (int) (original.cols() * scale);
+                int height = (int) (original.rows() * scale);
+                if (width <= 0 || height <= 0) {
+                    continue;
+                }
+                Mat resized;
+                if (scale == 1.0) {
+                    resized = original;
+                } else {
+                    resized = new Mat();
+                    opencv_imgproc.resize(original, resized, new Size(width, height));
+                    total += matBytes(resized);
+                }
+                scaled.put(scale, resized);
+
+                Mat[] pyramid = new Mat[PYRAMID_LEVELS];
+                pyramid[0] = new Mat();
+                opencv_imgproc.cvtColor(resized, pyramid[0], opencv_imgproc.COLOR_BGR2GRAY);
+                total += matBytes(pyramid[0]);
+                for (int level = 1; level < PYRAMID_LEVELS; level++) {
+                    pyramid[level] = new Mat();
+                    opencv_imgproc.pyrDown(pyramid[level - 1], pyramid[level]);
+                    total += matBytes(pyramid[level]);
+                }
+                grayPyramids.put(scale, pyramid);
+            }
+            this.bytes = total;
+        }
+
+        /**
+         * 按缩放比例顺序返回预生成的模板
+         */
+        public Map<Double, Mat> getScaled() {
+            return Collections.unmodifiableMap(scaled);
+        }
+
+        /**
+         * 指定缩放比例在某一金字塔层的灰度模板
+         */
+        public Mat getGray(double scale, int level) {
+            Mat[] pyramid = grayPyramids.get(scale);
+            return pyramid != null ? pyramid[level] : null;
+        }
+
+        Template retain() {
+            refCount.incrementAndGet();
+            return this;
+        }
+
+        void evict() {
+            close();
+        }
+
+        @Override
+        public void close() {
+            if (refCount.decrementAndGet() == 0) {
+                scaled.values().stream()
+                        .filter(mat -> mat != original)
+                        .forEach(Mat::release);
+                grayPyramids.values().forEach(pyramid -> Arrays.stream(pyramid).forEach(Mat::release));
+                original.release();
+            }
+        }
+
+        private static long matBytes(Mat mat) {
+            return mat.total() * mat.elemSize();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.rpaai.service.impl;
 
 import com.rpaai.entity.AutomationTask;
+import com.rpaai.entity.RpaStep;
 import com.rpaai.repository.AutomationTaskRepository;
 import com.rpaai.service.*;
 import lombok.extern.slf4j.Slf4j;
@@ -8,6 +9,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
 @Slf4j
 @Service
 public class TaskServiceImpl implements TaskService {
@@ -43,6 +47,20 @@ public class TaskServiceImpl implements TaskService {
         }
     }
 
+    @Override
+    public CompletableFuture<AutomationTask> parseWithAIStreaming(String naturalLanguage, Long credentialsId,
+                                                                  Consumer<RpaStep> onStep) {
+        log.info("🚀 开始流式解析任务: {}, 凭据ID: {}", naturalLanguage, credentialsId);
+
+        // 回调线程上没有事务代理，保存由仓库自身的事务完成
+        return aiParsingService.parseWithAIStreaming(naturalLanguage, credentialsId, onStep)
+                .thenApply(task -> {
+                    AutomationTask saved = taskRepository.save(task);
+                    log.info("✅ 任务保存成功，ID: {}", saved.getId());
+                    return saved;
+                });
+    }
+
     @Override
     @Transactional
     public AutomationTask saveTask(AutomationTask task) {
@@ -11,6 +11,7 @@ public class AgentCommand {
     private String action;
     private String target;
     private String value;
-    private Integer timeout;
+    private Integer timeout;  // 毫秒；prefetch_url 时为预打开标签页的保留时间
     private Boolean waitForNavigation;
+    private String prefetchId;  // open_url 可接管的预打开标签页
 }
\ No newline at end of file
@@ -6,27 +6,38 @@ import com.rpaai.event.*;
 import com.rpaai.service.BrowserSessionManager;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
-import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
 
 import java.io.IOException;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 @Slf4j
 @Component
-public class BrowserAgentHandler extends TextWebSocketHandler {
+public class BrowserAgentHandler extends AbstractWebSocketHandler {
 
-    // 浏览器扩展会话（任务执行者）
+    // 浏览器扩展会话（任务执行者）；调度线程、预打开（LLM回调线程）和心跳应答可能同时发送，
+    // 注册时包装为 ConcurrentWebSocketSessionDecorator 串行化写入
     private final Map<String, WebSocketSession> browserSessions = new ConcurrentHashMap<>();
 
-    // 前端监控页面会话（观察者）- 新增
-    private final CopyOnWriteArrayList<WebSocketSession> frontendSessions = new CopyOnWriteArrayList<>();
+    @Value("${rpa.websocket.browser-send-time-limit-ms:10000}")
+    private int browserSendTimeLimitMs;
+
+    @Value("${rpa.websocket.browser-send-buffer-bytes:1048576}")
+    private int browserSendBufferBytes;
+
+    // 前端监控页面会话（观察者），经异步分发器发送
+    @Autowired
+    private FrontendBroadcaster frontendBroadcaster;
 
     @Autowired
     private BrowserSessionManager sessionManager;
@@ -73,6 +84,60 @@ public class BrowserAgentHandler extends TextWebSocketHandler {
         }
     }
 
+    /**
+     * 二进制帧：[4字节大端头长度][UTF-8 JSON头(type/taskId/stepId)][原始负载]
+     * 截图以原始PNG字节传输，省去base64编码和多次字符串拷贝
+     */
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+        ByteBuffer payload = message.getPayload();
+
+        try {
+            if (payload.remaining() < 4) {
+                throw new IllegalArgumentException("二进制帧过短");
+            }
+            int headerLength = payload.getInt();
+            if (headerLength <= 0 || headerLength > payload.remaining()) {
+                throw new IllegalArgumentException("二进制帧头长度非法: " + headerLength);
+            }
+
+            byte[] headerBytes = new byte[headerLength];
+            payload.get(headerBytes);
+            WebSocketMessage header = JSON.parseObject(headerBytes, WebSocketMessage.class);
+
+            byte[] body = new byte[payload.remaining()];
+            payload.get(body);
+
+            log.debug("📨 收到二进制帧 [{}]: type={}, {} bytes", session.getId(), header.getType(), body.length);
+
+            if ("SCREENSHOT".equals(header.getType())) {
+                handleScreenshotFrame(header, body);
+            } else {
+                log.warn("⚠️ 未知二进制帧类型: {}", header.getType());
+            }
+        } catch (Exception e) {
+            log.error("❌ 二进制帧处理失败", e);
+            sendError(session, "二进制帧格式错误: " + e.getMessage());
+        }
+    }
+
+    private void handleScreenshotFrame(WebSocketMessage header, byte[] image) {
+        String taskId = header.getTaskId();
+        String stepId = header.getStepId();
+
+        if (taskId == null || stepId == null) {
+            log.error("❌ SCREENSHOT帧缺少taskId或stepId");
+            return;
+        }
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("success", true);
+        data.put("message", "截图成功");
+        data.put("imageBytes", image);
+
+        eventPublisher.publishEvent(new StepCompletedEvent(this, taskId, stepId, true, data));
+    }
+
     private void handleRegister(WebSocketSession session, WebSocketMessage msg) {
         Map<String, Object> data = msg.getData();
 
@@ -86,22 +151,22 @@ public class BrowserAgentHandler extends TextWebSocketHandler {
         }
 
         if ("FRONTEND".equals(clientType)) {
-            frontendSessions.add(session);
+            frontendBroadcaster.register(session);
             log.info("🖥️ 前端监控页面已注册: {}, 当前前端连接数: {}",
-                    session.getId(), frontendSessions.size());
+                    session.getId(), frontendBroadcaster.sessionCount());
 
-            sendMessage(session, WebSocketMessage.builder()
+            frontendBroadcaster.sendTo(session, JSON.toJSONString(WebSocketMessage.builder()
                     .type("REGISTERED")
                     .data(Map.of("role", "frontend", "status", "success"))
-                    .build());
+                    .build()));
 
             // 如果有浏览器已在线，立即通知前端
             boolean hasBrowserOnline = browserSessions.values().stream().anyMatch(WebSocketSession::isOpen);
             if (hasBrowserOnline) {
-                sendMessage(session, WebSocketMessage.builder()
+                frontendBroadcaster.sendTo(session, JSON.toJSONString(WebSocketMessage.builder()
                         .type("BROWSER_STATUS")
                         .data(Map.of("online", true, "count", browserSessions.size()))
-                        .build());
+                        .build()));
             }
         } else {
             // 浏览器扩展注册（原有逻辑）
@@ -121,7 +186,8 @@ public class BrowserAgentHandler extends TextWebSocketHandler {
                     .build();
 
             sessionManager.registerSession(browserSession);
-            browserSessions.put(session.getId(), session);
+            browserSessions.put(session.getId(),
+                    new ConcurrentWebSocketSessionDecorator(session, browserSendTimeLimitMs, browserSendBufferBytes));
 
             log.info("🔌 浏览器扩展已注册: {}, 用户: {}", session.getId(), userId);
 
@@ -136,6 +202,9 @@ public class BrowserAgentHandler extends TextWebSocketHandler {
                             "sessionId", session.getId()
                     ))
                     .build());
+
+            // 通知调度器有新的空闲浏览器，触发该用户的排队任务分发
+            eventPublisher.publishEvent(new BrowserRegisteredEvent(this, session.getId(), userId));
         }
     }
 
@@ -160,6 +229,7 @@ public class BrowserAgentHandler extends TextWebSocketHandler {
             case "ELEMENT_FOUND" -> handleElementFound(session, msg);
             case "ACTION_RESULT" -> handleActionResult(session, msg);
             case "ERROR" -> handleBrowserError(session, msg);
+            case "SUBSCRIBE", "UNSUBSCRIBE" -> handleSubscription(session, msg);
             default -> log.warn("⚠️ 未知消息类型: {}", msg.getType());
         }
     }
@@ -221,28 +291,75 @@ public class BrowserAgentHandler extends TextWebSocketHandler {
     }
 
     /**
-     * 广播消息到所有前端监控页面
+     * 前端订阅：data 中的 executionId / userId / taskId 可以是单个值或数组。
+     * 订阅后只接收命中的执行事件；UNSUBSCRIBE 不带任何键表示取消全部
      */
-    public void broadcastToFrontend(String type, Map<String, Object> data) {
+    private void handleSubscription(WebSocketSession session, WebSocketMessage msg) {
+        if (!frontendBroadcaster.isRegistered(session)) {
+            sendError(session, "只有已注册的前端监控会话可以订阅");
+            return;
+        }
+
+        List<String> keys = new ArrayList<>();
+        Map<String, Object> data = msg.getData();
+        if (data != null) {
+            for (String dimension : List.of(MonitorRoute.EXECUTION, MonitorRoute.USER, MonitorRoute.TASK)) {
+                Object value = data.get(dimension);
+                if (value instanceof Collection<?> values) {
+                    values.stream().filter(Objects::nonNull)
+                            .forEach(v -> keys.add(MonitorRoute.key(dimension, String.valueOf(v))));
+                } else if (value != null) {
+                    keys.add(MonitorRoute.key(dimension, String.valueOf(value)));
+                }
+            }
+        }
+
+        Set<String> current;
+        if ("SUBSCRIBE".equals(msg.getType())) {
+            if (keys.isEmpty()) {
+                sendError(session, "SUBSCRIBE 需要 executionId、userId 或 taskId");
+                return;
+            }
+            current = frontendBroadcaster.subscribe(session, keys);
+        } else {
+            current = frontendBroadcaster.unsubscribe(session, keys);
+        }
+        log.debug("🔖 前端会话 [{}] {}: {}", session.getId(), msg.getType(), current);
+
+        frontendBroadcaster.sendTo(session, JSON.toJSONString(WebSocketMessage.builder()
+                .type("SUBSCRIPTIONS")
+                .data(Map.of("subscriptions", current, "filtered", !current.isEmpty()))
+                .build()));
+    }
+
+    /**
+     * 按订阅路由发送执行事件，只有关心该执行的前端会话会收到
+     */
+    public void publishToFrontend(String type, Map<String, Object> data, MonitorRoute route) {
         WebSocketMessage msg = WebSocketMessage.builder()
                 .type(type)
                 .data(data)
                 .timestamp(System.currentTimeMillis())
                 .build();
 
-        String json = JSON.toJSONString(msg);
-        int count = 0;
+        int count = frontendBroadcaster.route(route, JSON.toJSONString(msg));
 
-        for (WebSocketSession session : frontendSessions) {
-            if (session.isOpen()) {
-                try {
-                    session.sendMessage(new TextMessage(json));
-                    count++;
-                } catch (IOException e) {
-                    log.error("发送消息到前端失败: {}", e.getMessage());
-                }
-            }
+        if (count > 0) {
+            log.debug("📢 投递 [{}] 到 {} 个前端客户端", type, count);
         }
+    }
+
+    /**
+     * 广播消息到所有前端监控页面（只入队，不在调用线程上发送）
+     */
+    public void broadcastToFrontend(String type, Map<String, Object> data) {
+        WebSocketMessage msg = WebSocketMessage.builder()
+                .type(type)
+                .data(data)
+                .timestamp(System.currentTimeMillis())
+                .build();
+
+        int count = frontendBroadcaster.broadcast(type, JSON.toJSONString(msg));
 
         if (count > 0) {
             log.debug("📢 广播 [{}] 到 {} 个前端客户端", type, count);
@@ -267,6 +384,9 @@ public class BrowserAgentHandler extends TextWebSocketHandler {
         data.put("waitForNavigation", command.getWaitForNavigation() != null ? command.getWaitForNavigation() : false);
         data.put("taskId", command.getTaskId());
         data.put("stepId", command.getStepId());
+        if (command.getPrefetchId() != null) {
+            data.put("prefetchId", command.getPrefetchId());
+        }
 
         WebSocketMessage msg = WebSocketMessage.builder()
                 .type("EXECUTE_COMMAND")
@@ -289,25 +409,51 @@ public class BrowserAgentHandler extends TextWebSocketHandler {
         String sessionId = session.getId();
 
         // 检查是否是浏览器扩展
-        if (browserSessions.remove(sessionId) != null) {
-            sessionManager.unregisterSession(sessionId);
+        if (evictBrowser(sessionId, "连接断开")) {
             log.info("🔌 浏览器扩展断开: {}", sessionId);
-            // 广播浏览器离线状态
-            boolean hasBrowserOnline = browserSessions.values().stream().anyMatch(WebSocketSession::isOpen);
-            broadcastToFrontend("BROWSER_STATUS", Map.of("online", hasBrowserOnline, "count", browserSessions.size()));
         }
 
         // 检查是否是前端监控
-        if (frontendSessions.remove(session)) {
+        if (frontendBroadcaster.unregister(session)) {
             log.info("🔌 前端监控页面断开: {}, 剩余前端连接: {}",
-                    sessionId, frontendSessions.size());
+                    sessionId, frontendBroadcaster.sessionCount());
+        }
+    }
+
+    /**
+     * 移除浏览器会话并通知调度器（连接断开或心跳超时），返回该会话是否仍在册
+     */
+    public boolean evictBrowser(String sessionId, String reason) {
+        WebSocketSession session = browserSessions.remove(sessionId);
+        if (session == null) {
+            return false;
+        }
+        String userId = sessionManager.getSession(sessionId).map(BrowserSession::getUserId).orElse(null);
+        sessionManager.unregisterSession(sessionId);
+
+        // 广播浏览器离线状态
+        boolean hasBrowserOnline = browserSessions.values().stream().anyMatch(WebSocketSession::isOpen);
+        broadcastToFrontend("BROWSER_STATUS", Map.of("online", hasBrowserOnline, "count", browserSessions.size()));
+
+        // 让该浏览器上等待回报的步骤立即失败，不必等到指令超时
+        eventPublisher.publishEvent(new BrowserLostEvent(this, sessionId, userId, reason));
+
+        if (session.isOpen()) {
+            try {
+                session.close(CloseStatus.SESSION_NOT_RELIABLE);
+            } catch (IOException e) {
+                log.debug("关闭浏览器会话失败: {}", e.getMessage());
+            }
         }
+        return true;
     }
 
     private void sendMessage(WebSocketSession session, WebSocketMessage message) {
+        // 已注册的浏览器经串行化装饰器发送，不与指令发送并发写同一连接
+        WebSocketSession target = browserSessions.getOrDefault(session.getId(), session);
         try {
-            if (session.isOpen()) {
-                session.sendMessage(new TextMessage(JSON.toJSONString(message)));
+            if (target.isOpen()) {
+                target.sendMessage(new TextMessage(JSON.toJSONString(message)));
             }
         } catch (IOException e) {
             log.error("发送消息失败", e);
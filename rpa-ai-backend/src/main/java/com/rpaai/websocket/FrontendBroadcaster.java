@@ -0,0 +1,370 @@
+package com.rpaai.websocket;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 前端监控消息异步分发：每个前端会话一个有界发送队列，由独立线程发送，调用方只入队不阻塞。
+ * 队列满时丢弃最旧消息；BROWSER_STATUS 这类状态消息只保留最新一条。
+ * 执行相关事件按订阅路由：订阅过的会话只收到命中的事件，从未订阅的会话仍接收全部
+ */
+@Slf4j
+@Component
+public class FrontendBroadcaster {
+
+    // 只关心最新状态的消息类型，新消息替换队列中未发送的旧消息
+    private static final Set<String> CONFLATED_TYPES = Set.of("BROWSER_STATUS");
+
+    // 一个会话连续发送的消息数上限，之后让出线程排到其他会话后面
+    private static final int DRAIN_BATCH = 32;
+
+    @Value("${rpa.websocket.frontend-queue-capacity:256}")
+    private int queueCapacity;
+
+    // 单次发送超过该时间仍未完成，判定为卡死的客户端并断开
+    @Value("${rpa.websocket.frontend-send-time-limit-ms:10000}")
+    private long sendTimeLimitMs;
+
+    // 发送线程上限；卡住的会话最多占满这些线程，其余会话的发送任务排队等待，入队方不受影响
+    @Value("${rpa.websocket.frontend-sender-threads:16}")
+    private int senderThreads;
+
+    private final Map<String, Outbox> outboxes = new ConcurrentHashMap<>();
+
+    // 路由索引：订阅键 -> 订阅了该键的会话
+    private final Map<String, Set<Outbox>> subscribers = new ConcurrentHashMap<>();
+
+    // 没有任何订阅的会话，接收所有事件
+    private final Set<Outbox> unfiltered = ConcurrentHashMap.newKeySet();
+
+    private ExecutorService senders;
+
+    // 断开慢会话用的独立线程池：close 本身可能阻塞，既不能占用入队方线程，也不能排在卡住的发送任务后面
+    private ExecutorService closers;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong conflated = new AtomicLong();
+    private final AtomicLong closedSlow = new AtomicLong();
+    private final AtomicLong routed = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        // 每个会话同一时间最多有一个发送任务（运行中或排队），任务队列长度不超过会话数
+        senders = newPool("rpa-ws-fanout-");
+        // 每个会话最多被断开一次，关闭任务数同样不超过会话数
+        closers = newPool("rpa-ws-close-");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        senders.shutdownNow();
+        closers.shutdownNow();
+    }
+
+    private ExecutorService newPool(String namePrefix) {
+        AtomicInteger seq = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(senderThreads, senderThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, namePrefix + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public void register(WebSocketSession session) {
+        Outbox outbox = new Outbox(session);
+        unfiltered.add(outbox);
+        Outbox previous = outboxes.put(session.getId(), outbox);
+        if (previous != null) {
+            detach(previous);
+        }
+    }
+
+    public boolean unregister(WebSocketSession session) {
+        Outbox outbox = outboxes.remove(session.getId());
+        if (outbox == null) {
+            return false;
+        }
+        detach(outbox);
+        return true;
+    }
+
+    public boolean isRegistered(WebSocketSession session) {
+        return outboxes.containsKey(session.getId());
+    }
+
+    /**
+     * 增加订阅，返回该会话当前的全部订阅键
+     */
+    public Set<String> subscribe(WebSocketSession session, Collection<String> keys) {
+        Outbox outbox = outboxes.get(session.getId());
+        if (outbox == null) {
+            return Set.of();
+        }
+        synchronized (outbox.subscriptions) {
+            // 会话已注销则不再写索引（注销时的清理同样持有该锁）
+            if (outboxes.get(session.getId()) != outbox) {
+                return Set.of();
+            }
+            for (String key : keys) {
+                if (outbox.subscriptions.add(key)) {
+                    // 与 removeSubscriber 一样在 compute 内修改，避免加进刚被移除的空集合
+                    subscribers.compute(key, (k, set) -> {
+                        Set<Outbox> target = set != null ? set : ConcurrentHashMap.<Outbox>newKeySet();
+                        target.add(outbox);
+                        return target;
+                    });
+                }
+            }
+            if (!outbox.subscriptions.isEmpty()) {
+                unfiltered.remove(outbox);
+            }
+            return new TreeSet<>(outbox.subscriptions);
+        }
+    }
+
+    /**
+     * 取消订阅；keys 为空表示取消全部，会话恢复为接收所有事件
+     */
+    public Set<String> unsubscribe(WebSocketSession session, Collection<String> keys) {
+        Outbox outbox = outboxes.get(session.getId());
+        if (outbox == null) {
+            return Set.of();
+        }
+        synchronized (outbox.subscriptions) {
+            if (outboxes.get(session.getId()) != outbox) {
+                return Set.of();
+            }
+            Collection<String> targets = keys.isEmpty() ? new ArrayList<>(outbox.subscriptions) : keys;
+            for (String key : targets) {
+                if (outbox.subscriptions.remove(key)) {
+                    removeSubscriber(key, outbox);
+                }
+            }
+            if (outbox.subscriptions.isEmpty()) {
+                unfiltered.add(outbox);
+            }
+            return new TreeSet<>(outbox.subscriptions);
+        }
+    }
+
+    public int sessionCount() {
+        return outboxes.size();
+    }
+
+    /**
+     * 广播：消息只序列化一次，所有会话共享同一个 TextMessage
+     */
+    public int broadcast(String type, String json) {
+        TextMessage message = new TextMessage(json);
+        String conflationKey = CONFLATED_TYPES.contains(type) ? type : null;
+        int count = 0;
+        for (Outbox outbox : outboxes.values()) {
+            if (outbox.offer(conflationKey, message)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 按路由投递：只发给订阅了命中键的会话和未订阅的会话，消息同样只序列化一次
+     */
+    public int route(MonitorRoute route, String json) {
+        TextMessage message = new TextMessage(json);
+        Set<Outbox> targets = new HashSet<>(unfiltered);
+        for (String key : route.keys()) {
+            Set<Outbox> set = subscribers.get(key);
+            if (set != null) {
+                targets.addAll(set);
+            }
+        }
+        routed.incrementAndGet();
+
+        int count = 0;
+        for (Outbox outbox : targets) {
+            if (outbox.offer(null, message)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 单独发给某个前端会话（与广播共用发送队列，保证同一会话的消息不会并发发送）
+     */
+    public void sendTo(WebSocketSession session, String json) {
+        Outbox outbox = outboxes.get(session.getId());
+        if (outbox != null) {
+            outbox.offer(null, new TextMessage(json));
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sessions", outboxes.size());
+        stats.put("queued", outboxes.values().stream().mapToInt(Outbox::size).sum());
+        stats.put("dropped", dropped.get());
+        stats.put("conflated", conflated.get());
+        stats.put("closedSlow", closedSlow.get());
+        stats.put("unfilteredSessions", unfiltered.size());
+        stats.put("subscriptionKeys", subscribers.size());
+        stats.put("routed", routed.get());
+        return stats;
+    }
+
+    private void detach(Outbox outbox) {
+        unfiltered.remove(outbox);
+        synchronized (outbox.subscriptions) {
+            outbox.subscriptions.forEach(key -> removeSubscriber(key, outbox));
+            outbox.subscriptions.clear();
+        }
+    }
+
+    private void removeSubscriber(String key, Outbox outbox) {
+        subscribers.computeIfPresent(key, (k, set) -> {
+            set.remove(outbox);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private void closeSlow(Outbox outbox) {
+        if (!outboxes.remove(outbox.session.getId(), outbox)) {
+            return;
+        }
+        detach(outbox);
+        closedSlow.incrementAndGet();
+        log.warn("🐢 前端会话发送超时，断开: {}", outbox.session.getId());
+        // 会话已摘除，后续投递不会再到这里；真正的关闭交给后台线程
+        try {
+            closers.execute(() -> {
+                try {
+                    outbox.session.close(CloseStatus.SESSION_NOT_RELIABLE);
+                } catch (IOException e) {
+                    log.debug("关闭前端会话失败: {}", e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("广播器已关闭，跳过断开前端会话: {}", outbox.session.getId());
+        }
+    }
+
+    private class Outbox {
+        final WebSocketSession session;
+        final Set<String> subscriptions = new HashSet<>();
+        private final Deque<Pending> queue = new ArrayDeque<>();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        // 当前发送开始时间，0 表示没有进行中的发送
+        private volatile long sendStartedAt;
+
+        Outbox(WebSocketSession session) {
+            this.session = session;
+        }
+
+        boolean offer(String conflationKey, TextMessage message) {
+            if (!session.isOpen()) {
+                return false;
+            }
+            long started = sendStartedAt;
+            if (started != 0 && System.currentTimeMillis() - started > sendTimeLimitMs) {
+                closeSlow(this);
+                return false;
+            }
+
+            synchronized (queue) {
+                if (conflationKey != null && replace(conflationKey, message)) {
+                    conflated.incrementAndGet();
+                } else {
+                    if (queue.size() >= queueCapacity) {
+                        queue.pollFirst();
+                        dropped.incrementAndGet();
+                    }
+                    queue.addLast(new Pending(conflationKey, message));
+                }
+            }
+            scheduleDrain();
+            return true;
+        }
+
+        private boolean replace(String conflationKey, TextMessage message) {
+            for (Pending pending : queue) {
+                if (conflationKey.equals(pending.conflationKey)) {
+                    pending.message = message;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void scheduleDrain() {
+            if (draining.compareAndSet(false, true)) {
+                try {
+                    senders.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    draining.set(false);
+                }
+            }
+        }
+
+        private void drain() {
+            for (int sent = 0; sent < DRAIN_BATCH; sent++) {
+                Pending next;
+                synchronized (queue) {
+                    next = queue.pollFirst();
+                    if (next == null) {
+                        // 在锁内复位，之后入队的消息一定会重新启动发送
+                        draining.set(false);
+                        return;
+                    }
+                }
+                try {
+                    sendStartedAt = System.currentTimeMillis();
+                    if (session.isOpen()) {
+                        session.sendMessage(next.message);
+                    }
+                } catch (Exception e) {
+                    log.error("发送消息到前端失败: {}", e.getMessage());
+                } finally {
+                    sendStartedAt = 0;
+                }
+            }
+            // 发满一批后重新排到线程池队尾，发送线程有限时不让一个忙碌会话独占
+            try {
+                senders.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                draining.set(false);
+            }
+        }
+
+        int size() {
+            synchronized (queue) {
+                return queue.size();
+            }
+        }
+    }
+
+    private static class Pending {
+        final String conflationKey;
+        TextMessage message;
+
+        Pending(String conflationKey, TextMessage message) {
+            this.conflationKey = conflationKey;
+            this.message = message;
+        }
+    }
+}
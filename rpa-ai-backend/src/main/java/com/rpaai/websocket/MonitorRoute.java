@@ -0,0 +1,29 @@
+package com.rpaai.websocket;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 监控事件的路由信息：前端可按执行ID、用户ID或任务ID订阅
+ */
+public record MonitorRoute(String executionId, String userId, String taskId) {
+
+    public static final String EXECUTION = "executionId";
+    public static final String USER = "userId";
+    public static final String TASK = "taskId";
+
+    public static String key(String dimension, String value) {
+        return dimension + ":" + value;
+    }
+
+    /**
+     * 该事件命中的订阅键
+     */
+    public List<String> keys() {
+        List<String> keys = new ArrayList<>(3);
+        if (executionId != null) keys.add(key(EXECUTION, executionId));
+        if (userId != null) keys.add(key(USER, userId));
+        if (taskId != null) keys.add(key(TASK, taskId));
+        return keys;
+    }
+}
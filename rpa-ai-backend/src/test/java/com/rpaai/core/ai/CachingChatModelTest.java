@@ -0,0 +1,55 @@
+package com.rpaai.core.ai;
+
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class CachingChatModelTest {
+
+    private ChatLanguageModel delegate;
+    private CachingChatModel cachingModel;
+
+    @BeforeEach
+    void setUp() {
+        delegate = mock(ChatLanguageModel.class);
+        when(delegate.generate(anyString())).thenReturn("[]");
+        cachingModel = new CachingChatModel(delegate, 100, 60_000, "", Set.of("parse"));
+    }
+
+    @Test
+    void registeredCallerIsServedFromCache() {
+        ChatLanguageModel model = CachingChatModel.forCaller(cachingModel, "parse");
+
+        assertThat(model.generate("打开百度  搜索java")).isEqualTo("[]");
+        assertThat(model.generate("打开百度 搜索java ")).isEqualTo("[]");
+
+        verify(delegate, times(1)).generate(anyString());
+    }
+
+    @Test
+    void unregisteredCallerBypassesCache() {
+        ChatLanguageModel model = CachingChatModel.forCaller(cachingModel, "autofix");
+
+        model.generate("修复步骤3");
+        model.generate("修复步骤3");
+
+        assertThat(model).isSameAs(delegate);
+        verify(delegate, times(2)).generate(anyString());
+    }
+
+    @Test
+    void failedResponsesAreNotCached() {
+        when(delegate.generate(anyString())).thenReturn("AI调用失败: timeout");
+
+        cachingModel.generate("打开百度");
+        cachingModel.generate("打开百度");
+
+        verify(delegate, times(2)).generate(anyString());
+    }
+}
@@ -0,0 +1,206 @@
+package com.rpaai.service;
+
+import com.rpaai.entity.AutomationTask;
+import com.rpaai.entity.BrowserSession;
+import com.rpaai.entity.RpaStep;
+import com.rpaai.event.BrowserLostEvent;
+import com.rpaai.event.BrowserRegisteredEvent;
+import com.rpaai.event.StepCompletedEvent;
+import com.rpaai.websocket.AgentCommand;
+import com.rpaai.websocket.BrowserAgentHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 心跳时间轮：超时的浏览器在一个刻度内被移除，持续心跳的浏览器只会被重排；
+ * 移除后其上等待回报的步骤立即失败，任务重新排队到同一用户的其他浏览器
+ */
+class BrowserLivenessMonitorTest {
+
+    private static final String USER = "liveness-user";
+    private static final long TIMEOUT_MS = 1_000;
+    private static final long TICK_MS = 50;
+
+    private BrowserSessionManager sessionManager;
+    private BrowserAgentHandler browserHandler;
+    private BrowserLivenessMonitor monitor;
+    private ScheduledExecutorService browsers;
+
+    @BeforeEach
+    void setUp() {
+        sessionManager = new BrowserSessionManager();
+        browserHandler = mock(BrowserAgentHandler.class);
+        browsers = Executors.newScheduledThreadPool(2);
+
+        monitor = new BrowserLivenessMonitor();
+        ReflectionTestUtils.setField(monitor, "sessionManager", sessionManager);
+        ReflectionTestUtils.setField(monitor, "browserHandler", browserHandler);
+        ReflectionTestUtils.setField(monitor, "heartbeatTimeoutSeconds", TIMEOUT_MS / 1000);
+        ReflectionTestUtils.setField(monitor, "tickMs", TICK_MS);
+        monitor.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        monitor.shutdown();
+        browsers.shutdownNow();
+    }
+
+    @Test
+    void silentBrowserExpiresWhileHeartbeatingBrowserIsRescheduled() throws Exception {
+        AtomicLong evictedAt = new AtomicLong();
+        when(browserHandler.evictBrowser(anyString(), anyString())).thenAnswer(invocation -> {
+            evictedAt.compareAndSet(0, System.currentTimeMillis());
+            sessionManager.unregisterSession(invocation.getArgument(0));
+            return true;
+        });
+
+        long registeredAt = System.currentTimeMillis();
+        track("browser-silent");
+        track("browser-beating");
+        ScheduledFuture<?> heartbeats = browsers.scheduleAtFixedRate(
+                () -> sessionManager.updateHeartbeat("browser-beating"), 100, 100, TimeUnit.MILLISECONDS);
+
+        verify(browserHandler, timeout(TIMEOUT_MS + 2_000)).evictBrowser("browser-silent", "心跳超时");
+        // 截止槽向上取整，不会在超时前移除
+        assertThat(evictedAt.get() - registeredAt).isGreaterThanOrEqualTo(TIMEOUT_MS);
+
+        // 再过两个超时周期，持续心跳的浏览器一直没有被判超时
+        Thread.sleep(2 * TIMEOUT_MS);
+        heartbeats.cancel(false);
+        verify(browserHandler, never()).evictBrowser(eq("browser-beating"), anyString());
+        assertThat(monitor.getStats().get("expired")).isEqualTo(1L);
+        assertThat((long) monitor.getStats().get("rescheduled")).isPositive();
+        assertThat(sessionManager.getSession("browser-beating")).isPresent();
+    }
+
+    @Test
+    void expiryFailsPendingStepsAndRequeuesToAnotherBrowser() throws Exception {
+        RealTimeMonitorService monitorService = mock(RealTimeMonitorService.class);
+        RpaTaskScheduler scheduler = scheduler(monitorService);
+        Map<String, List<String>> sentSteps = new ConcurrentHashMap<>();
+        // 失联的浏览器收下指令后不再回报；在线的浏览器延迟回报成功
+        doAnswer(invocation -> {
+            String browserId = invocation.getArgument(0);
+            AgentCommand command = invocation.getArgument(1);
+            sentSteps.computeIfAbsent(browserId, k -> new CopyOnWriteArrayList<>()).add(command.getStepId());
+            if ("browser-alive".equals(browserId)) {
+                browsers.schedule(() -> scheduler.onStepCompleted(new StepCompletedEvent(
+                        this, command.getTaskId(), command.getStepId(), true, Map.of("message", "ok"))),
+                        20, TimeUnit.MILLISECONDS);
+            }
+            return null;
+        }).when(browserHandler).sendCommand(anyString(), any(AgentCommand.class));
+        // 与真实实现一样：注销会话并发出失联事件
+        when(browserHandler.evictBrowser(anyString(), anyString())).thenAnswer(invocation -> {
+            String browserId = invocation.getArgument(0);
+            sessionManager.unregisterSession(browserId);
+            scheduler.onBrowserLost(new BrowserLostEvent(this, browserId, USER, invocation.getArgument(1)));
+            return true;
+        });
+
+        List<String> outcomes = new CopyOnWriteArrayList<>();
+        CountDownLatch succeeded = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            boolean success = invocation.getArgument(1);
+            outcomes.add(success ? "SUCCESS" : invocation.<String>getArgument(2));
+            if (success) {
+                succeeded.countDown();
+            }
+            return null;
+        }).when(monitorService).notifyExecutionComplete(anyString(), anyBoolean(), any(), anyInt());
+
+        track("browser-dead");
+        AutomationTask task = new AutomationTask();
+        task.setId(1L);
+        task.setTaskName("liveness");
+        task.setConfigJson("{}");
+        String executionId = scheduler.submitTask(task, USER, TaskPriority.NORMAL);
+        verify(browserHandler, timeout(2_000)).sendCommand(eq("browser-dead"), any(AgentCommand.class));
+
+        // 任务已卡在失联的浏览器上，此时同一用户的另一个浏览器上线（不纳入心跳检测）
+        register("browser-alive");
+
+        // 指令超时远大于心跳超时：能在这里完成说明是时间轮移除浏览器后立即转移的
+        assertThat(succeeded.await(TIMEOUT_MS + 4_000, TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(outcomes).containsExactly("浏览器失联，任务重新排队", "SUCCESS");
+        verify(browserHandler).evictBrowser("browser-dead", "心跳超时");
+        verify(browserHandler, atLeastOnce()).sendCommand(eq("browser-alive"), argThat(
+                command -> executionId.equals(command.getTaskId())));
+        // 失联的浏览器只收到第一步；转移后从第一步重新执行
+        assertThat(sentSteps.get("browser-dead")).containsExactly("1");
+        assertThat(sentSteps.get("browser-alive")).containsExactly("1", "2");
+
+        scheduler.shutdownExecutor();
+    }
+
+    private RpaTaskScheduler scheduler(RealTimeMonitorService monitorService) {
+        RpaTaskScheduler scheduler = new RpaTaskScheduler();
+        AiParsingService aiParsingService = mock(AiParsingService.class);
+        when(aiParsingService.parseSteps(any())).thenAnswer(invocation -> steps());
+
+        ReflectionTestUtils.setField(scheduler, "browserHandler", browserHandler);
+        ReflectionTestUtils.setField(scheduler, "sessionManager", sessionManager);
+        ReflectionTestUtils.setField(scheduler, "aiParsingService", aiParsingService);
+        ReflectionTestUtils.setField(scheduler, "knowledgeGraphService", mock(KnowledgeGraphService.class));
+        ReflectionTestUtils.setField(scheduler, "aiAutoFixService", mock(AiAutoFixService.class));
+        ReflectionTestUtils.setField(scheduler, "executionLogService", mock(ExecutionLogService.class));
+        ReflectionTestUtils.setField(scheduler, "imageLocatorService", mock(ImageLocatorService.class));
+        ReflectionTestUtils.setField(scheduler, "debugImageCapture", mock(DebugImageCapture.class));
+        ReflectionTestUtils.setField(scheduler, "pagePrefetchService", mock(PagePrefetchService.class));
+        ReflectionTestUtils.setField(scheduler, "queuePublisher", mock(QueueStatePublisher.class));
+        ReflectionTestUtils.setField(scheduler, "dataExportService", mock(DataExportService.class));
+        ReflectionTestUtils.setField(scheduler, "monitorService", monitorService);
+        ReflectionTestUtils.setField(scheduler, "executorMode", "platform");
+        ReflectionTestUtils.setField(scheduler, "poolSize", 4);
+        ReflectionTestUtils.setField(scheduler, "maxConcurrentTasks", 4);
+        ReflectionTestUtils.setField(scheduler, "maxRequeues", 2);
+        scheduler.initExecutor();
+        return scheduler;
+    }
+
+    /**
+     * 注册浏览器并纳入心跳检测
+     */
+    private void track(String browserId) {
+        register(browserId);
+        monitor.onBrowserRegistered(new BrowserRegisteredEvent(this, browserId, USER));
+    }
+
+    private void register(String browserId) {
+        long now = System.currentTimeMillis();
+        sessionManager.registerSession(BrowserSession.builder()
+                .websocketSessionId(browserId)
+                .userId(USER)
+                .status("ACTIVE")
+                .connectedTime(now)
+                .lastHeartbeat(now)
+                .build());
+    }
+
+    private static List<RpaStep> steps() {
+        List<RpaStep> steps = new ArrayList<>();
+        for (int i = 1; i <= 2; i++) {
+            RpaStep step = new RpaStep();
+            step.setStepId(i);
+            step.setAction("input");
+            step.setTarget("#field" + i);
+            step.setValue("v" + i);
+            step.setDescription("输入第" + i + "项");
+            steps.add(step);
+        }
+        return steps;
+    }
+}
@@ -0,0 +1,180 @@
+package com.rpaai.service;
+
+import com.rpaai.entity.BrowserSession;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 空闲池并发：领取、归还、心跳重排、断线重连同时进行时，同一个浏览器不会同时分配给两个任务，
+ * 已注销的浏览器不会再被领取，结束后空闲池恰好是所有在线浏览器
+ */
+class BrowserSessionManagerTest {
+
+    private static final String USER = "churn-user";
+    private static final int STABLE_BROWSERS = 8;
+    private static final int FLAKY_BROWSERS = 4;
+    private static final int WORKERS = 8;
+
+    private BrowserSessionManager sessionManager;
+
+    @BeforeEach
+    void setUp() {
+        sessionManager = new BrowserSessionManager();
+    }
+
+    @Test
+    void acquireNeverHandsOneBrowserToTwoHolders() throws Exception {
+        for (int i = 0; i < STABLE_BROWSERS; i++) {
+            register("stable-" + i);
+        }
+        // 不稳定的浏览器反复断线重连；重连后 WebSocket 会话ID是新的
+        String[] flaky = new String[FLAKY_BROWSERS];
+        for (int i = 0; i < FLAKY_BROWSERS; i++) {
+            flaky[i] = "flaky-" + i + "-0";
+            register(flaky[i]);
+        }
+
+        Map<String, String> holders = new ConcurrentHashMap<>();
+        // 注销完成的顺序号：领取开始前已注销的浏览器不应被领到
+        Map<String, Long> unregisteredAt = new ConcurrentHashMap<>();
+        AtomicLong unregisterSeq = new AtomicLong();
+        AtomicInteger doubleAssigned = new AtomicInteger();
+        AtomicInteger staleAcquired = new AtomicInteger();
+        AtomicLong acquired = new AtomicLong();
+        AtomicBoolean stop = new AtomicBoolean();
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(WORKERS + 2);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int w = 0; w < WORKERS; w++) {
+            String worker = "worker-" + w;
+            futures.add(pool.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (!stop.get()) {
+                    long seenUnregisters = unregisterSeq.get();
+                    // 一半按预打开偏好领取，一半直接领取心跳最新的
+                    Optional<BrowserSession> session = random.nextBoolean()
+                            ? sessionManager.acquireIdleSession(USER, "stable-" + random.nextInt(STABLE_BROWSERS))
+                            : sessionManager.acquireIdleSession(USER);
+                    if (session.isEmpty()) {
+                        Thread.yield();
+                        continue;
+                    }
+                    String id = session.get().getWebsocketSessionId();
+                    acquired.incrementAndGet();
+                    if (holders.putIfAbsent(id, worker) != null) {
+                        doubleAssigned.incrementAndGet();
+                        continue;
+                    }
+                    Long unregistered = unregisteredAt.get(id);
+                    if (unregistered != null && unregistered <= seenUnregisters) {
+                        staleAcquired.incrementAndGet();
+                    }
+                    if (random.nextInt(4) == 0) {
+                        Thread.yield();
+                    }
+                    holders.remove(id, worker);
+                    sessionManager.releaseSession(id);
+                }
+                return null;
+            }));
+        }
+        futures.add(pool.submit(() -> {
+            start.await();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (!stop.get()) {
+                sessionManager.updateHeartbeat("stable-" + random.nextInt(STABLE_BROWSERS));
+            }
+            return null;
+        }));
+        futures.add(pool.submit(() -> {
+            start.await();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int generation = 0;
+            while (!stop.get()) {
+                int slot = random.nextInt(FLAKY_BROWSERS);
+                sessionManager.unregisterSession(flaky[slot]);
+                unregisteredAt.put(flaky[slot], unregisterSeq.incrementAndGet());
+                flaky[slot] = "flaky-" + slot + "-" + (++generation);
+                register(flaky[slot]);
+            }
+            return null;
+        }));
+
+        start.countDown();
+        Thread.sleep(2_000);
+        stop.set(true);
+        pool.shutdown();
+        assertThat(pool.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        assertThat(acquired.get()).isPositive();
+        assertThat(doubleAssigned.get()).as("同时被两个任务持有").isZero();
+        assertThat(staleAcquired.get()).as("注销后仍被领取").isZero();
+
+        // 所有任务已归还：空闲池里恰好是在线的浏览器，每个一次
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < STABLE_BROWSERS; i++) {
+            expected.add("stable-" + i);
+        }
+        expected.addAll(List.of(flaky));
+        Set<String> drained = new HashSet<>();
+        Optional<BrowserSession> next;
+        while ((next = sessionManager.acquireIdleSession(USER)).isPresent()) {
+            assertThat(drained.add(next.get().getWebsocketSessionId())).isTrue();
+        }
+        assertThat(drained).isEqualTo(expected);
+    }
+
+    @Test
+    void idleBrowsersAreAcquiredNewestHeartbeatFirst() {
+        register("browser-a");
+        register("browser-b");
+        register("browser-c");
+        sessionManager.updateHeartbeat("browser-b");
+
+        assertThat(sessionManager.peekIdleSession(USER))
+                .map(BrowserSession::getWebsocketSessionId).contains("browser-b");
+        assertThat(sessionManager.acquireIdleSession(USER))
+                .map(BrowserSession::getWebsocketSessionId).contains("browser-b");
+        // 已领取的浏览器心跳更新不会把它放回空闲池
+        sessionManager.updateHeartbeat("browser-b");
+        assertThat(sessionManager.acquireIdleSession(USER))
+                .map(BrowserSession::getWebsocketSessionId).contains("browser-a");
+        assertThat(sessionManager.releaseSession("browser-b")).isTrue();
+        assertThat(sessionManager.acquireIdleSession(USER))
+                .map(BrowserSession::getWebsocketSessionId).contains("browser-b");
+    }
+
+    private void register(String sessionId) {
+        sessionManager.registerSession(BrowserSession.builder()
+                .websocketSessionId(sessionId)
+                .userId(USER)
+                .status("ACTIVE")
+                .connectedTime(1_000L)
+                .lastHeartbeat(1_000L)
+                .build());
+    }
+}
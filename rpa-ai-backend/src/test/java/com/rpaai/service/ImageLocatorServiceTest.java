@@ -0,0 +1,182 @@
+package com.rpaai.service;
+
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.opencv.global.opencv_core;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 多尺度匹配：并行度 1（逐个比例串行）与多线程并行的最佳匹配必须一致，包括触发提前结束时；
+ * 基准测试打上 benchmark 标签，默认构建不跑（mvn test -Dtest.excludedGroups= -Dgroups=benchmark）
+ */
+class ImageLocatorServiceTest {
+
+    private static final int TEMPLATE_X = 500;
+    private static final int TEMPLATE_Y = 320;
+    private static final int TEMPLATE_W = 120;
+    private static final int TEMPLATE_H = 80;
+
+    private static byte[] screenshot;
+    private static String template;
+    private static String unrelatedTemplate;
+
+    private final List<ImageLocatorService> locators = new ArrayList<>();
+
+    @BeforeAll
+    static void prepareImages() throws IOException {
+        boolean loaded;
+        try {
+            Loader.load(opencv_core.class);
+            loaded = true;
+        } catch (Throwable e) {
+            loaded = false;
+        }
+        // 依赖只带了 windows-x86_64 的本地库，其他平台跳过
+        assumeTrue(loaded, "OpenCV 本地库不可用");
+
+        BufferedImage page = syntheticPage(1280, 800, 42);
+        screenshot = png(page);
+        template = Base64.getEncoder().encodeToString(
+                png(page.getSubimage(TEMPLATE_X, TEMPLATE_Y, TEMPLATE_W, TEMPLATE_H)));
+        unrelatedTemplate = Base64.getEncoder().encodeToString(
+                png(stripes(TEMPLATE_W, TEMPLATE_H)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        locators.forEach(ImageLocatorService::shutdownMatchPool);
+    }
+
+    @Test
+    void parallelBestMatchEqualsSerialWhenAllScalesRun() {
+        // 阈值 0.99 + 余量 0.15 不可能达到，所有比例都会跑完
+        Optional<int[]> serial = locator(1).locateElement(screenshot, template, 0.99);
+        Optional<int[]> parallel = locator(4).locateElement(screenshot, template, 0.99);
+
+        assertThat(serial).isPresent();
+        assertThat(parallel).isPresent();
+        assertThat(parallel.get()).containsExactly(serial.get());
+        assertThat(serial.get()).containsExactly(TEMPLATE_X + TEMPLATE_W / 2, TEMPLATE_Y + TEMPLATE_H / 2);
+    }
+
+    @Test
+    void parallelBestMatchEqualsSerialWithEarlyStop() {
+        // 阈值 0.8 + 余量 0.15：原尺寸比例即可提前结束，其余比例被跳过；多跑几轮覆盖不同的线程交错
+        ImageLocatorService serialLocator = locator(1);
+        ImageLocatorService parallelLocator = locator(4);
+        for (int i = 0; i < 20; i++) {
+            Optional<int[]> serial = serialLocator.locateElement(screenshot, template, 0.8);
+            Optional<int[]> parallel = parallelLocator.locateElement(screenshot, template, 0.8);
+
+            assertThat(serial).isPresent();
+            assertThat(parallel).isPresent();
+            assertThat(parallel.get()).containsExactly(serial.get());
+        }
+    }
+
+    @Test
+    void parallelAndSerialAgreeOnNoMatch() {
+        assertThat(locator(1).locateElement(screenshot, unrelatedTemplate, 0.8)).isEmpty();
+        assertThat(locator(4).locateElement(screenshot, unrelatedTemplate, 0.8)).isEmpty();
+    }
+
+    @Test
+    @Tag("benchmark")
+    void benchmarkSerialVersusParallelScales() {
+        ImageLocatorService serial = locator(1);
+        ImageLocatorService parallel = locator(4);
+        int warmup = 5;
+        int rounds = 30;
+
+        for (int i = 0; i < warmup; i++) {
+            serial.locateElement(screenshot, template, 0.99);
+            parallel.locateElement(screenshot, template, 0.99);
+        }
+
+        double serialMs = averageMillis(serial, rounds);
+        double parallelMs = averageMillis(parallel, rounds);
+        System.out.printf("多尺度匹配 1280x800 / %dx%d: 串行 %.1f ms, 并行(4) %.1f ms, 加速比 %.2f%n",
+                TEMPLATE_W, TEMPLATE_H, serialMs, parallelMs, serialMs / parallelMs);
+
+        assertThat(parallel.locateElement(screenshot, template, 0.99).get())
+                .containsExactly(serial.locateElement(screenshot, template, 0.99).get());
+    }
+
+    private static double averageMillis(ImageLocatorService locator, int rounds) {
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            locator.locateElement(screenshot, template, 0.99);
+        }
+        return (System.nanoTime() - start) / 1e6 / rounds;
+    }
+
+    private ImageLocatorService locator(int parallelism) {
+        TemplateMatCache cache = new TemplateMatCache();
+        ReflectionTestUtils.setField(cache, "maxBytes", 64L << 20);
+        ReflectionTestUtils.setField(cache, "pressureRatio", 0.85);
+
+        ImageLocatorService locator = new ImageLocatorService();
+        ReflectionTestUtils.setField(locator, "templateCache", cache);
+        ReflectionTestUtils.setField(locator, "matchParallelism", parallelism);
+        ReflectionTestUtils.setField(locator, "earlyStopMargin", 0.15);
+        locator.initMatchPool();
+        locators.add(locator);
+        return locator;
+    }
+
+    /**
+     * 类网页的合成截图：浅色背景上随机分布的色块和文字，模板区域内容唯一
+     */
+    private static BufferedImage syntheticPage(int width, int height, long seed) {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = image.createGraphics();
+        g.setColor(new Color(245, 245, 245));
+        g.fillRect(0, 0, width, height);
+        for (int i = 0; i < width * height / 800; i++) {
+            g.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+            g.fillRect(random.nextInt(width), random.nextInt(height), 8 + random.nextInt(60), 6 + random.nextInt(30));
+            g.setColor(Color.DARK_GRAY);
+            g.drawString("item" + random.nextInt(10_000), random.nextInt(width), random.nextInt(height));
+        }
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * 截图中不存在的斜条纹图案
+     */
+    private static BufferedImage stripes(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, ((x + y) / 4) % 2 == 0 ? 0xFF00FF : 0x00FF00);
+            }
+        }
+        return image;
+    }
+
+    private static byte[] png(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "PNG", out);
+        return out.toByteArray();
+    }
+}
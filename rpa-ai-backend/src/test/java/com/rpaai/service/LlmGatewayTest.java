@@ -0,0 +1,143 @@
+package com.rpaai.service;
+
+import com.rpaai.core.ai.CachingChatModel;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * LLM网关：响应缓存按调用方生效；并发和排队受上限约束，队列满时立即拒绝；相同提示词的并发请求只调用一次模型
+ */
+class LlmGatewayTest {
+
+    private static final int MAX_CONCURRENCY = 2;
+    private static final int QUEUE_CAPACITY = 10;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    private ChatLanguageModel model;
+    private LlmGateway gateway;
+
+    @BeforeEach
+    void setUp() {
+        model = mock(ChatLanguageModel.class);
+        when(model.generate(anyList())).thenReturn(Response.from(AiMessage.from("[]")));
+
+        gateway = new LlmGateway();
+        ReflectionTestUtils.setField(gateway, "chatModel", new CachingChatModel(model, 100, 60_000, "", Set.of("parse")));
+        ReflectionTestUtils.setField(gateway, "maxConcurrency", MAX_CONCURRENCY);
+        ReflectionTestUtils.setField(gateway, "queueCapacity", QUEUE_CAPACITY);
+        ReflectionTestUtils.setField(gateway, "ratePerSecond", 100.0);
+        ReflectionTestUtils.setField(gateway, "burst", 10);
+        ReflectionTestUtils.setField(gateway, "timeoutSeconds", 5L);
+        gateway.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        gateway.shutdown();
+    }
+
+    @Test
+    void parseCallerIsServedFromCache() {
+        assertThat(gateway.generate("parse", "打开百度")).isEqualTo("[]");
+        assertThat(gateway.generate("parse", "打开百度")).isEqualTo("[]");
+
+        verify(model, times(1)).generate(anyList());
+    }
+
+    @Test
+    void autofixCallerBypassesCache() {
+        gateway.generate("autofix", "修复步骤3");
+        gateway.generate("autofix", "修复步骤3");
+
+        verify(model, times(2)).generate(anyList());
+    }
+
+    @Test
+    void concurrencyIsCappedAndFullQueueRejectsImmediately() throws Exception {
+        blockModelCalls();
+        List<CompletableFuture<String>> accepted = new ArrayList<>();
+        for (int i = 0; i < MAX_CONCURRENCY + QUEUE_CAPACITY; i++) {
+            accepted.add(gateway.generateAsync("autofix", "修复步骤" + i));
+        }
+        verify(model, timeout(5_000).times(MAX_CONCURRENCY)).generate(anyList());
+        assertThat(gateway.getStats().get("queueDepth")).isEqualTo(QUEUE_CAPACITY);
+
+        // 执行线程和队列都已占满，多出的请求不排队，直接失败
+        CompletableFuture<String> rejected = gateway.generateAsync("autofix", "修复步骤-溢出");
+        assertThat(rejected).isCompletedExceptionally();
+        assertThatThrownBy(rejected::join).hasCauseInstanceOf(IllegalStateException.class);
+        assertThat(callerStats("autofix").get("rejected")).isEqualTo(1L);
+
+        release.countDown();
+        for (CompletableFuture<String> future : accepted) {
+            assertThat(future.get(5, TimeUnit.SECONDS)).isEqualTo("[]");
+        }
+        verify(model, times(MAX_CONCURRENCY + QUEUE_CAPACITY)).generate(anyList());
+        assertThat(maxRunning.get()).isEqualTo(MAX_CONCURRENCY);
+    }
+
+    @Test
+    void identicalConcurrentPromptsShareOneModelCall() throws Exception {
+        blockModelCalls();
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(gateway.generateAsync("autofix", "修复步骤3"));
+        }
+        verify(model, timeout(5_000).times(1)).generate(anyList());
+
+        release.countDown();
+        for (CompletableFuture<String> future : futures) {
+            assertThat(future.get(5, TimeUnit.SECONDS)).isEqualTo("[]");
+        }
+        verify(model, times(1)).generate(anyList());
+        assertThat(callerStats("autofix").get("coalesced")).isEqualTo(4L);
+
+        // 前一次调用结束后不再合并，同样的提示词重新调用模型
+        assertThat(gateway.generateAsync("autofix", "修复步骤3").get(5, TimeUnit.SECONDS)).isEqualTo("[]");
+        verify(model, times(2)).generate(anyList());
+    }
+
+    /**
+     * 模型调用阻塞到测试放行，同时记录最大并发数
+     */
+    private void blockModelCalls() {
+        when(model.generate(anyList())).thenAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                release.await();
+                return Response.from(AiMessage.from("[]"));
+            } finally {
+                running.decrementAndGet();
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> callerStats(String caller) {
+        Map<String, Object> callers = (Map<String, Object>) gateway.getStats().get("callers");
+        return (Map<String, Object>) callers.get(caller);
+    }
+}
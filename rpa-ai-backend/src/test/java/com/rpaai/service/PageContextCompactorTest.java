@@ -0,0 +1,143 @@
+package com.rpaai.service;
+
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import com.rpaai.entity.RpaStep;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 页面上下文压缩：与失败步骤相关的元素排在前面，输出不超过token预算，超出部分只留省略提示
+ */
+class PageContextCompactorTest {
+
+    private static final String OMITTED = "... [省略 ";
+
+    private PageContextCompactor compactor;
+
+    @BeforeEach
+    void setUp() {
+        compactor = new PageContextCompactor();
+        ReflectionTestUtils.setField(compactor, "tokenBudget", 1200);
+    }
+
+    @Test
+    void elementsMatchingTheFailedStepRankFirst() {
+        JSONArray elements = new JSONArray();
+        elements.add(element("a", "href", "/help", "text", "帮助中心"));
+        elements.add(element("button", "class", "btn-primary", "text", "登录"));
+        elements.add(element("input", "type", "password", "name", "pwd"));
+        elements.add(element("input", "type", "text", "id", "username", "placeholder", "请输入用户名"));
+
+        List<String> lines = lines(compactor.compact(context(elements), step("input", "#username", "输入用户名")));
+
+        assertThat(lines).hasSize(4);
+        assertThat(lines.get(0)).contains("id=\"username\"");
+        // 不相关的元素里，文本输入框因动作类型加分排在按钮和链接前面
+        assertThat(lines.get(1)).contains("name=\"pwd\"");
+        assertThat(lines).noneMatch(line -> line.startsWith(OMITTED));
+    }
+
+    @Test
+    void equalScoresKeepPageOrder() {
+        JSONArray elements = new JSONArray();
+        elements.add(element("a", "href", "/a", "text", "第一个"));
+        elements.add(element("a", "href", "/b", "text", "第二个"));
+        elements.add(element("a", "href", "/c", "text", "第三个"));
+
+        List<String> lines = lines(compactor.compact(context(elements), step("wait", null, null)));
+
+        assertThat(lines).containsExactly(
+                "<a href=\"/a\">第一个</a>",
+                "<a href=\"/b\">第二个</a>",
+                "<a href=\"/c\">第三个</a>");
+    }
+
+    @Test
+    void outputStaysWithinTokenBudgetAndKeepsTheMostRelevantElement() {
+        ReflectionTestUtils.setField(compactor, "tokenBudget", 200);
+        JSONArray elements = new JSONArray();
+        for (int i = 0; i < 300; i++) {
+            elements.add(element("a", "href", "/list/item/" + i, "class", "list-item-link nav-entry",
+                    "text", "商品列表第" + i + "项"));
+        }
+        // 目标元素排在页面最后，预算裁剪前必须先排序
+        elements.add(element("button", "id", "checkout-submit", "type", "submit", "text", "结算"));
+
+        String compacted = compactor.compact(context(elements), step("click", "#checkout-submit", "点击结算"));
+        List<String> lines = lines(compacted);
+
+        assertThat(lines.get(0)).contains("id=\"checkout-submit\"");
+        int used = lines.stream()
+                .filter(line -> !line.startsWith(OMITTED))
+                .mapToInt(PageContextCompactor::estimateTokens)
+                .sum();
+        assertThat(used).isLessThanOrEqualTo(200);
+        int kept = lines.size() - 1;
+        assertThat(lines.get(lines.size() - 1)).isEqualTo(OMITTED + (301 - kept) + " 个相关度较低的元素]");
+    }
+
+    @Test
+    void firstElementIsKeptEvenWhenItAloneExceedsTheBudget() {
+        ReflectionTestUtils.setField(compactor, "tokenBudget", 1);
+        JSONArray elements = new JSONArray();
+        elements.add(element("input", "id", "keyword", "placeholder", "搜索商品、品牌、店铺"));
+        elements.add(element("button", "text", "搜索"));
+
+        List<String> lines = lines(compactor.compact(context(elements), step("input", "#keyword", null)));
+
+        assertThat(lines).hasSize(2);
+        assertThat(lines.get(0)).contains("id=\"keyword\"");
+        assertThat(lines.get(1)).isEqualTo(OMITTED + "1 个相关度较低的元素]");
+    }
+
+    @Test
+    void htmlFallbackDropsHiddenAndScriptContent() {
+        String html = "<html><body>"
+                + "<script>var x = '<button id=\"fake\">假按钮</button>';</script>"
+                + "<input type=\"hidden\" name=\"csrf\" value=\"token\">"
+                + "<button style=\"display:none\" id=\"ghost\">隐藏</button>"
+                + "<input id=\"kw\" name=\"wd\" type=\"text\">"
+                + "<button id=\"su\" type=\"submit\"><span>百度一下</span></button>"
+                + "</body></html>";
+
+        List<String> lines = lines(compactor.compact(html, step("input", "#kw", null)));
+
+        assertThat(lines).containsExactly(
+                "<input id=\"kw\" name=\"wd\" type=\"text\">",
+                "<button id=\"su\" type=\"submit\">百度一下</button>");
+    }
+
+    private static JSONObject element(String tag, String... attrs) {
+        JSONObject element = new JSONObject();
+        element.put("tag", tag);
+        for (int i = 0; i < attrs.length; i += 2) {
+            element.put(attrs[i], attrs[i + 1]);
+        }
+        return element;
+    }
+
+    private static String context(JSONArray elements) {
+        JSONObject ctx = new JSONObject();
+        ctx.put("elements", elements);
+        return ctx.toJSONString();
+    }
+
+    private static RpaStep step(String action, String target, String description) {
+        RpaStep step = new RpaStep();
+        step.setAction(action);
+        step.setTarget(target);
+        step.setDescription(description);
+        return step;
+    }
+
+    private static List<String> lines(String compacted) {
+        return Arrays.stream(compacted.split("\n")).filter(line -> !line.isEmpty()).toList();
+    }
+}
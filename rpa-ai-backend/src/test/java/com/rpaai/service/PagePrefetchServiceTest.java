@@ -0,0 +1,103 @@
+package com.rpaai.service;
+
+import com.rpaai.entity.BrowserSession;
+import com.rpaai.websocket.AgentCommand;
+import com.rpaai.websocket.BrowserAgentHandler;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * 预打开按用户登记：只能被持有标签页的浏览器、按最终步骤地址领取，调度时优先分配该浏览器
+ */
+class PagePrefetchServiceTest {
+
+    private static final String USER = "prefetch-user";
+
+    private BrowserSessionManager sessionManager;
+    private BrowserAgentHandler browserHandler;
+    private PagePrefetchService prefetchService;
+
+    @BeforeEach
+    void setUp() {
+        sessionManager = new BrowserSessionManager();
+        browserHandler = mock(BrowserAgentHandler.class);
+        prefetchService = new PagePrefetchService();
+        ReflectionTestUtils.setField(prefetchService, "sessionManager", sessionManager);
+        ReflectionTestUtils.setField(prefetchService, "browserHandler", browserHandler);
+        ReflectionTestUtils.setField(prefetchService, "ttlSeconds", 120L);
+
+        register("browser-old", 1_000L);
+        register("browser-new", 2_000L);
+    }
+
+    @Test
+    void prefetchIsClaimedOnlyByItsBrowserAndUrl() {
+        prefetchService.prefetch(USER, "https://www.baidu.com");
+        String holder = prefetchService.preferredBrowser(USER).orElseThrow();
+        String other = holder.equals("browser-new") ? "browser-old" : "browser-new";
+
+        assertThat(prefetchService.claim(other, "https://www.baidu.com")).isEmpty();
+        assertThat(prefetchService.claim(holder, "https://www.taobao.com")).isEmpty();
+        assertThat(prefetchService.claim(holder, "https://www.baidu.com")).isPresent();
+        assertThat(prefetchService.claim(holder, "https://www.baidu.com")).isEmpty();
+        assertThat(prefetchService.preferredBrowser(USER)).isEmpty();
+    }
+
+    @Test
+    void retargetMovesTheSameTabToTheFinalUrl() {
+        prefetchService.prefetch(USER, "https://github.com");
+        String holder = prefetchService.preferredBrowser(USER).orElseThrow();
+
+        prefetchService.retarget(USER,
+                "{\"steps\":[{\"action\":\"open_url\",\"target\":\"https://github.com/login\"}]}");
+
+        ArgumentCaptor<AgentCommand> commands = ArgumentCaptor.forClass(AgentCommand.class);
+        verify(browserHandler, times(2)).sendCommand(eq(holder), commands.capture());
+        List<AgentCommand> sent = commands.getAllValues();
+        assertThat(sent.get(1).getPrefetchId()).isEqualTo(sent.get(0).getPrefetchId());
+        assertThat(sent.get(1).getTarget()).isEqualTo("https://github.com/login");
+
+        assertThat(prefetchService.claim(holder, "https://github.com")).isEmpty();
+        assertThat(prefetchService.claim(holder, "https://github.com/login"))
+                .contains(sent.get(0).getPrefetchId());
+    }
+
+    @Test
+    void retargetToSameUrlSendsNothing() {
+        prefetchService.prefetch(USER, "https://www.jd.com");
+        prefetchService.retarget(USER, "{\"steps\":[{\"action\":\"open_url\",\"target\":\"https://www.jd.com\"}]}");
+
+        verify(browserHandler, times(1)).sendCommand(anyString(), any(AgentCommand.class));
+    }
+
+    @Test
+    void dispatchPrefersTheBrowserHoldingThePrefetch() {
+        // 心跳较旧的浏览器持有预打开页面时，仍应先领取它
+        assertThat(sessionManager.acquireIdleSession(USER, "browser-old"))
+                .map(BrowserSession::getWebsocketSessionId)
+                .contains("browser-old");
+        // 指定的浏览器已被领取时退回心跳最新的空闲浏览器
+        assertThat(sessionManager.acquireIdleSession(USER, "browser-old"))
+                .map(BrowserSession::getWebsocketSessionId)
+                .contains("browser-new");
+        assertThat(sessionManager.acquireIdleSession(USER, "browser-old")).isEmpty();
+    }
+
+    private void register(String browserId, long heartbeat) {
+        sessionManager.registerSession(BrowserSession.builder()
+                .websocketSessionId(browserId)
+                .userId(USER)
+                .status("ACTIVE")
+                .connectedTime(heartbeat)
+                .lastHeartbeat(heartbeat)
+                .build());
+    }
+}
@@ -0,0 +1,56 @@
+package com.rpaai.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PageTypeClassifierTest {
+
+    private PageTypeClassifier classifier;
+
+    @BeforeEach
+    void setUp() {
+        classifier = new PageTypeClassifier();
+        ReflectionTestUtils.setField(classifier, "rulesFile", "");
+        classifier.init();
+    }
+
+    @Test
+    void subdomainKeywordOutranksSiteRule() {
+        assertThat(classifier.classify("https://login.taobao.com/")).isEqualTo("login");
+        assertThat(classifier.classify("https://search.bilibili.com/all?keyword=x")).isEqualTo("search");
+    }
+
+    @Test
+    void hostRuleAppliesWithoutSubdomainKeyword() {
+        assertThat(classifier.classify("https://www.taobao.com/")).isEqualTo("ecommerce");
+        assertThat(classifier.classify("https://www.bilibili.com/video/BV1xx")).isEqualTo("video");
+    }
+
+    @Test
+    void pathKeywordsStillMatch() {
+        assertThat(classifier.classify("https://www.baidu.com/s?wd=java")).isEqualTo("search");
+        assertThat(classifier.classify("https://github.com/login")).isEqualTo("login");
+    }
+
+    @Test
+    void registrableDomainIsNotScannedForKeywords() {
+        assertThat(classifier.classify("https://www.formula1.com/")).isEqualTo("general");
+    }
+
+    @Test
+    void multiLabelPublicSuffixIsNotTreatedAsSubdomain() {
+        // 注册域名是 platform.com.cn，"platform" 不能当成子域名去命中 form 关键词
+        assertThat(classifier.classify("https://www.platform.com.cn/")).isEqualTo("general");
+        assertThat(classifier.classify("https://login.platform.com.cn/")).isEqualTo("login");
+        assertThat(classifier.classify("https://www.google.com.hk/")).isEqualTo("search");
+        assertThat(classifier.classify("https://www.transform.co.uk/")).isEqualTo("general");
+    }
+
+    @Test
+    void naturalLanguageMentionsDomain() {
+        assertThat(classifier.classify("打开jd.com搜索手机")).isEqualTo("ecommerce");
+    }
+}
@@ -0,0 +1,89 @@
+package com.rpaai.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * 排队快照和增量的顺序与调度器一致：立即执行的在最前，其次按优先级、提交时间
+ */
+class QueueStatePublisherTest {
+
+    private RealTimeMonitorService monitorService;
+    private QueueStatePublisher publisher;
+
+    @BeforeEach
+    void setUp() {
+        monitorService = mock(RealTimeMonitorService.class);
+        publisher = new QueueStatePublisher();
+        ReflectionTestUtils.setField(publisher, "monitorService", monitorService);
+        ReflectionTestUtils.setField(publisher, "publishIntervalMs", 10L);
+        publisher.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        publisher.shutdown();
+    }
+
+    @Test
+    void snapshotPutsImmediateTasksFirstLikeTheScheduler() {
+        ScheduledTask urgent = task("exec-urgent", TaskPriority.URGENT, 1_000L);
+        ScheduledTask normal = task("exec-normal", TaskPriority.NORMAL, 2_000L);
+        ScheduledTask low = task("exec-low", TaskPriority.LOW, 3_000L);
+        publisher.markAdded(urgent);
+        publisher.markAdded(normal);
+        publisher.markAdded(low);
+
+        // 与 executeImmediately 相同：提到队首并升到 URGENT，比先提交的 URGENT 任务更靠前
+        low.setImmediate(true);
+        low.setPriority(TaskPriority.URGENT.getValue());
+        publisher.markReprioritized(low);
+
+        assertThat(executionIds(publisher.snapshot().get("queue")))
+                .containsExactly("exec-low", "exec-urgent", "exec-normal");
+    }
+
+    @Test
+    void reprioritizedDeltaCarriesImmediateFlag() {
+        ScheduledTask task = task("exec-1", TaskPriority.NORMAL, 1_000L);
+        publisher.markAdded(task);
+        verify(monitorService, timeout(2_000)).notifyQueueDelta(anyMap());
+
+        task.setImmediate(true);
+        task.setPriority(TaskPriority.URGENT.getValue());
+        publisher.markReprioritized(task);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Map<String, Object>> deltas = ArgumentCaptor.forClass(Map.class);
+        verify(monitorService, timeout(2_000).times(2)).notifyQueueDelta(deltas.capture());
+        Map<String, Object> delta = deltas.getAllValues().get(1);
+        assertThat(delta.get("reprioritized")).isEqualTo(List.of(Map.of(
+                "executionId", "exec-1", "priority", TaskPriority.URGENT.getValue(), "immediate", true)));
+    }
+
+    private static ScheduledTask task(String executionId, TaskPriority priority, long submitTime) {
+        return ScheduledTask.builder()
+                .executionId(executionId)
+                .userId("queue-user")
+                .priority(priority.getValue())
+                .submitTime(submitTime)
+                .status("PENDING")
+                .build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> executionIds(Object queue) {
+        return ((List<QueueStatePublisher.QueueEntry>) queue).stream()
+                .map(QueueStatePublisher.QueueEntry::executionId)
+                .toList();
+    }
+}
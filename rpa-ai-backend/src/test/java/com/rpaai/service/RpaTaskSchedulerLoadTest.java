@@ -0,0 +1,240 @@
+package com.rpaai.service;
+
+import com.rpaai.entity.AutomationTask;
+import com.rpaai.entity.BrowserSession;
+import com.rpaai.entity.RpaStep;
+import com.rpaai.event.StepCompletedEvent;
+import com.rpaai.websocket.AgentCommand;
+import com.rpaai.websocket.BrowserAgentHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 调度器负载测试：模拟浏览器按固定延迟回报步骤结果，
+ * 并发执行的任务数应达到浏览器数与并发上限中的较小者，许可释放后按任务排序公平分给各用户
+ */
+class RpaTaskSchedulerLoadTest {
+
+    private static final String USER = "load-user";
+    private static final long STEP_LATENCY_MS = 20;
+    private static final int STEPS_PER_TASK = 3;
+    private static final int TASKS_PER_BROWSER = 10;
+
+    private ScheduledExecutorService browsers;
+
+    @BeforeEach
+    void setUp() {
+        browsers = Executors.newScheduledThreadPool(4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        browsers.shutdownNow();
+    }
+
+    @Test
+    void concurrencyReachesMinOfBrowsersAndAdmissionLimit() throws Exception {
+        int[][] cases = {{1, 256}, {4, 256}, {16, 256}, {16, 4}};
+        for (int[] c : cases) {
+            int browserCount = c[0];
+            int limit = c[1];
+            assertThat(measureMaxInFlight(browserCount, limit))
+                    .as("%d 个浏览器、并发上限 %d 时的最大并发任务数", browserCount, limit)
+                    .isEqualTo(Math.min(browserCount, limit));
+        }
+    }
+
+    @Test
+    void releasedPermitGoesToHighestRankedHeadAcrossUsers() throws Exception {
+        // 并发上限 1：每次释放的许可应交给所有用户队首中排序最靠前的任务，而不是固定偏向某个用户
+        Harness harness = new Harness(4, 1);
+        harness.registerBrowser("user-a", "browser-a");
+        harness.registerBrowser("user-b", "browser-b");
+        harness.hold = new CountDownLatch(1);
+        CountDownLatch done = harness.expect(5);
+
+        // a1 立即占用唯一的许可，其余任务排队
+        String a1 = harness.scheduler.submitTask(harness.task, "user-a", TaskPriority.NORMAL);
+        String a2 = submitAfterTick(harness, "user-a", TaskPriority.NORMAL);
+        String b1 = submitAfterTick(harness, "user-b", TaskPriority.HIGH);
+        String a3 = submitAfterTick(harness, "user-a", TaskPriority.HIGH);
+        String b2 = submitAfterTick(harness, "user-b", TaskPriority.NORMAL);
+        harness.hold.countDown();
+
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(harness.failures.get()).isZero();
+        assertThat(harness.started).containsExactly(a1, b1, a3, a2, b2);
+        harness.shutdown();
+    }
+
+    @Test
+    void executeImmediatelyNeverBlocksExecutorThreads() throws Exception {
+        // 并发上限 1、线程池 2：旧实现里“立即执行”会占满线程池等待许可，正在执行的任务无法推进
+        Harness harness = new Harness(2, 1);
+        harness.registerBrowsers(1);
+        int tasks = 6;
+        CountDownLatch done = harness.expect(tasks);
+
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < tasks; i++) {
+            ids.add(harness.scheduler.submitTask(harness.task, USER, TaskPriority.NORMAL));
+        }
+        for (String id : ids) {
+            harness.scheduler.executeImmediately(id);
+        }
+
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(harness.failures.get()).isZero();
+        harness.shutdown();
+    }
+
+    /**
+     * 每个浏览器排 TASKS_PER_BROWSER 个任务，返回执行过程中同时在执行的最大任务数。
+     * 全部提交完之前浏览器不回报结果，并发度不受机器快慢影响
+     */
+    private int measureMaxInFlight(int browserCount, int maxConcurrentTasks) throws Exception {
+        Harness harness = new Harness(16, maxConcurrentTasks);
+        harness.registerBrowsers(browserCount);
+        harness.hold = new CountDownLatch(1);
+        int tasks = browserCount * TASKS_PER_BROWSER;
+        CountDownLatch done = harness.expect(tasks);
+
+        for (int i = 0; i < tasks; i++) {
+            harness.scheduler.submitTask(harness.task, USER, TaskPriority.NORMAL);
+        }
+        harness.hold.countDown();
+        assertThat(done.await(60, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(harness.failures.get()).isZero();
+        assertThat(harness.inFlight.get()).isZero();
+        harness.shutdown();
+        return harness.maxInFlight.get();
+    }
+
+    /**
+     * 隔一毫秒再提交，保证提交时间严格递增
+     */
+    private static String submitAfterTick(Harness harness, String userId, TaskPriority priority)
+            throws InterruptedException {
+        Thread.sleep(2);
+        return harness.scheduler.submitTask(harness.task, userId, priority);
+    }
+
+    private class Harness {
+        final RpaTaskScheduler scheduler = new RpaTaskScheduler();
+        final BrowserSessionManager sessionManager = new BrowserSessionManager();
+        final RealTimeMonitorService monitorService = mock(RealTimeMonitorService.class);
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        // 按开始执行的顺序记录任务
+        final List<String> started = new CopyOnWriteArrayList<>();
+        final AutomationTask task = new AutomationTask();
+        // 放行前模拟浏览器不回报结果
+        volatile CountDownLatch hold = new CountDownLatch(0);
+
+        Harness(int poolSize, int maxConcurrentTasks) {
+            BrowserAgentHandler browserHandler = mock(BrowserAgentHandler.class);
+            // 模拟浏览器：收到指令后延迟回报成功
+            doAnswer(invocation -> {
+                AgentCommand command = invocation.getArgument(1);
+                if ("1".equals(command.getStepId())) {
+                    started.add(command.getTaskId());
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                }
+                CountDownLatch gate = hold;
+                browsers.schedule(() -> {
+                    gate.await();
+                    scheduler.onStepCompleted(new StepCompletedEvent(
+                            this, command.getTaskId(), command.getStepId(), true, Map.of("message", "ok")));
+                    return null;
+                }, STEP_LATENCY_MS, TimeUnit.MILLISECONDS);
+                return null;
+            }).when(browserHandler).sendCommand(anyString(), any(AgentCommand.class));
+
+            AiParsingService aiParsingService = mock(AiParsingService.class);
+            when(aiParsingService.parseSteps(any())).thenAnswer(invocation -> steps());
+
+            ReflectionTestUtils.setField(scheduler, "browserHandler", browserHandler);
+            ReflectionTestUtils.setField(scheduler, "sessionManager", sessionManager);
+            ReflectionTestUtils.setField(scheduler, "aiParsingService", aiParsingService);
+            ReflectionTestUtils.setField(scheduler, "knowledgeGraphService", mock(KnowledgeGraphService.class));
+            ReflectionTestUtils.setField(scheduler, "aiAutoFixService", mock(AiAutoFixService.class));
+            ReflectionTestUtils.setField(scheduler, "executionLogService", mock(ExecutionLogService.class));
+            ReflectionTestUtils.setField(scheduler, "imageLocatorService", mock(ImageLocatorService.class));
+            ReflectionTestUtils.setField(scheduler, "debugImageCapture", mock(DebugImageCapture.class));
+            ReflectionTestUtils.setField(scheduler, "pagePrefetchService", mock(PagePrefetchService.class));
+            ReflectionTestUtils.setField(scheduler, "queuePublisher", mock(QueueStatePublisher.class));
+            ReflectionTestUtils.setField(scheduler, "dataExportService", mock(DataExportService.class));
+            ReflectionTestUtils.setField(scheduler, "monitorService", monitorService);
+            ReflectionTestUtils.setField(scheduler, "executorMode", "platform");
+            ReflectionTestUtils.setField(scheduler, "poolSize", poolSize);
+            ReflectionTestUtils.setField(scheduler, "maxConcurrentTasks", maxConcurrentTasks);
+            ReflectionTestUtils.setField(scheduler, "maxRequeues", 2);
+            scheduler.initExecutor();
+
+            task.setId(1L);
+            task.setTaskName("load");
+            task.setConfigJson("{}");
+        }
+
+        void registerBrowsers(int count) {
+            for (int i = 0; i < count; i++) {
+                registerBrowser(USER, "browser-" + i);
+            }
+        }
+
+        void registerBrowser(String userId, String browserId) {
+            sessionManager.registerSession(BrowserSession.builder()
+                    .websocketSessionId(browserId)
+                    .userId(userId)
+                    .status("ACTIVE")
+                    .connectedTime(System.currentTimeMillis())
+                    .build());
+        }
+
+        CountDownLatch expect(int tasks) {
+            CountDownLatch done = new CountDownLatch(tasks);
+            doAnswer(invocation -> {
+                if (!invocation.<Boolean>getArgument(1)) {
+                    failures.incrementAndGet();
+                }
+                inFlight.decrementAndGet();
+                done.countDown();
+                return null;
+            }).when(monitorService).notifyExecutionComplete(anyString(), anyBoolean(), any(), anyInt());
+            return done;
+        }
+
+        void shutdown() {
+            scheduler.shutdownExecutor();
+        }
+    }
+
+    private static List<RpaStep> steps() {
+        List<RpaStep> steps = new ArrayList<>();
+        for (int i = 1; i <= STEPS_PER_TASK; i++) {
+            RpaStep step = new RpaStep();
+            step.setStepId(i);
+            // input 不触发页面稳定等待，步骤耗时只取决于模拟浏览器的回报延迟
+            step.setAction("input");
+            step.setTarget("#field" + i);
+            step.setValue("v" + i);
+            step.setDescription("输入第" + i + "项");
+            steps.add(step);
+        }
+        return steps;
+    }
+}
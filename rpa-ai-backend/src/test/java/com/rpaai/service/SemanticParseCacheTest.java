@@ -0,0 +1,56 @@
+package com.rpaai.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SemanticParseCacheTest {
+
+    private SemanticParseCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new SemanticParseCache();
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "threshold", 0.92);
+        ReflectionTestUtils.setField(cache, "maxEntries", 100);
+        ReflectionTestUtils.setField(cache, "ttlMinutes", 60L);
+    }
+
+    @Test
+    void extraActionIsNotAHit() {
+        cache.store("打开百度搜索java", config("java"));
+
+        assertThat(cache.lookup("打开百度搜索java并截图")).isEmpty();
+    }
+
+    @Test
+    void addedLoginIsNotAHit() {
+        cache.store("打开github搜索spring", config("spring"));
+
+        assertThat(cache.lookup("打开github登录然后搜索spring")).isEmpty();
+    }
+
+    @Test
+    void paraphraseWithSameActionsIsAHit() {
+        cache.store("登录github搜索spring", config("spring"));
+
+        assertThat(cache.lookup("打开github登录然后搜spring")).isPresent();
+    }
+
+    @Test
+    void actionWordsInsideKeywordAreIgnored() {
+        assertThat(cache.actionSignature("打开百度搜索 □ 并截图")).isEqualTo(List.of("search", "screenshot"));
+        String keyword = cache.extractKeyword("打开百度搜索登录教程");
+        assertThat(keyword).isEqualTo("登录教程");
+        assertThat(cache.actionSignature("打开百度搜索 □ ")).isEqualTo(List.of("search"));
+    }
+
+    private static String config(String keyword) {
+        return "{\"steps\":[{\"stepId\":1,\"action\":\"input\",\"target\":\"#kw\",\"value\":\"" + keyword + "\"}]}";
+    }
+}
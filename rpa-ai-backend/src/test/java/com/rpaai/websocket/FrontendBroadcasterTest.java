@@ -0,0 +1,144 @@
+package com.rpaai.websocket;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * 前端会话全部卡在发送上时，广播和路由只入队，不被拖慢；发送线程数不超过上限；
+ * 超时的会话在后台线程断开，关闭阻塞也不影响投递
+ */
+class FrontendBroadcasterTest {
+
+    private static final int SESSIONS = 100;
+    private static final int SENDER_THREADS = 4;
+    private static final int QUEUE_CAPACITY = 64;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch releaseClose = new CountDownLatch(1);
+    private final AtomicInteger delivered = new AtomicInteger();
+    private final List<WebSocketSession> sessions = new ArrayList<>();
+    private FrontendBroadcaster broadcaster;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        broadcaster = new FrontendBroadcaster();
+        ReflectionTestUtils.setField(broadcaster, "queueCapacity", QUEUE_CAPACITY);
+        ReflectionTestUtils.setField(broadcaster, "sendTimeLimitMs", 60_000L);
+        ReflectionTestUtils.setField(broadcaster, "senderThreads", SENDER_THREADS);
+        broadcaster.init();
+
+        for (int i = 0; i < SESSIONS; i++) {
+            WebSocketSession session = mock(WebSocketSession.class);
+            when(session.getId()).thenReturn("frontend-" + i);
+            when(session.isOpen()).thenReturn(true);
+            // 模拟卡住的客户端：发送一直阻塞到测试放行
+            doAnswer(invocation -> {
+                release.await();
+                delivered.incrementAndGet();
+                return null;
+            }).when(session).sendMessage(any(WebSocketMessage.class));
+            broadcaster.register(session);
+            sessions.add(session);
+        }
+        // 一半会话只订阅 exec-1，其余接收全部事件
+        for (int i = 0; i < SESSIONS / 2; i++) {
+            broadcaster.subscribe(sessions.get(i), Set.of(MonitorRoute.key(MonitorRoute.EXECUTION, "exec-1")));
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        releaseClose.countDown();
+        broadcaster.shutdown();
+    }
+
+    @Test
+    void offersStayFastWhileEverySessionIsBlocked() {
+        MonitorRoute route = new MonitorRoute("exec-1", "user-1", "1");
+        long start = System.nanoTime();
+        for (int i = 0; i < 500; i++) {
+            assertThat(broadcaster.broadcast("STEP_PROGRESS", "{\"seq\":" + i + "}")).isEqualTo(SESSIONS);
+            assertThat(broadcaster.route(route, "{\"seq\":" + i + "}")).isEqualTo(SESSIONS);
+        }
+
+        // 发送全部卡住时仍能跑完说明投递没有等待发送；上限只防止整体退化，不卡单次耗时
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).as("全部投递耗时").isLessThan(5_000);
+
+        // 每个会话的积压受队列容量约束，多出的旧消息被丢弃
+        int queued = (int) broadcaster.getStats().get("queued");
+        assertThat(queued).isLessThanOrEqualTo(SESSIONS * QUEUE_CAPACITY);
+        assertThat((long) broadcaster.getStats().get("dropped")).isPositive();
+        assertThat(fanoutThreads()).isLessThanOrEqualTo(SENDER_THREADS);
+    }
+
+    @Test
+    void blockedMessagesAreDeliveredOnceSessionsRecover() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            broadcaster.broadcast("STEP_PROGRESS", "{\"seq\":" + i + "}");
+        }
+        assertThat(fanoutThreads()).isLessThanOrEqualTo(SENDER_THREADS);
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (delivered.get() < SESSIONS * 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(delivered.get()).isEqualTo(SESSIONS * 10);
+        assertThat(fanoutThreads()).isLessThanOrEqualTo(SENDER_THREADS);
+    }
+
+    @Test
+    void slowSessionIsClosedOffTheOfferingThread() throws Exception {
+        WebSocketSession slow = sessions.get(0);
+        AtomicReference<String> closingThread = new AtomicReference<>();
+        CountDownLatch closeCalled = new CountDownLatch(1);
+        // 关闭同样卡住：如果在入队方线程上关闭，下面的广播会一直阻塞
+        doAnswer(invocation -> {
+            closingThread.set(Thread.currentThread().getName());
+            closeCalled.countDown();
+            releaseClose.await();
+            return null;
+        }).when(slow).close(any(CloseStatus.class));
+
+        broadcaster.sendTo(slow, "{\"seq\":0}");
+        verify(slow, timeout(5_000)).sendMessage(any(WebSocketMessage.class));
+        ReflectionTestUtils.setField(broadcaster, "sendTimeLimitMs", 50L);
+        Thread.sleep(100);
+
+        // 只有 slow 有超时的发送，其余会话照常入队
+        assertThat(broadcaster.broadcast("STEP_PROGRESS", "{\"seq\":1}")).isEqualTo(SESSIONS - 1);
+        assertThat(closeCalled.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(closingThread.get()).startsWith("rpa-ws-close-");
+        assertThat(broadcaster.isRegistered(slow)).isFalse();
+        assertThat(broadcaster.getStats().get("closedSlow")).isEqualTo(1L);
+
+        // 关闭仍卡着时，后续投递不受影响，也不会重复关闭；放宽时限，避免其他刚开始阻塞的会话也被判超时
+        ReflectionTestUtils.setField(broadcaster, "sendTimeLimitMs", 60_000L);
+        assertThat(broadcaster.broadcast("STEP_PROGRESS", "{\"seq\":2}")).isEqualTo(SESSIONS - 1);
+        verify(slow, times(1)).close(any(CloseStatus.class));
+    }
+
+    private int fanoutThreads() {
+        ThreadPoolExecutor senders = (ThreadPoolExecutor) ReflectionTestUtils.getField(broadcaster, "senders");
+        return senders.getLargestPoolSize();
+    }
+}
@@ -2,7 +2,7 @@
 const API_BASE = '/api'
 
 // 延长超时时间到60秒（百度搜索需要等待页面跳转）
-const request = async (url, options = {}) => {
+const fetchWithTimeout = async (url, options = {}) => {
   const controller = new AbortController();
   const timeoutId = setTimeout(() => controller.abort(), 60000); // 60秒超时
   
@@ -20,7 +20,7 @@ const request = async (url, options = {}) => {
     if (!response.ok) {
       throw new Error(`HTTP error! status: ${response.status}`);
     }
-    return await response.json();
+    return response;
   } catch (error) {
     if (error.name === 'AbortError') {
       throw new Error('请求超时，请检查浏览器扩展是否正常运行');
@@ -29,6 +29,27 @@ const request = async (url, options = {}) => {
   }
 }
 
+const request = async (url, options = {}) => {
+  const response = await fetchWithTimeout(url, options);
+  return await response.json();
+}
+
+// 分页列表：沿 X-Next-Cursor 响应头逐页拉取，合并成完整数组
+const requestAllPages = async (url, limit = 500) => {
+  const items = [];
+  let cursor = null;
+  do {
+    const params = new URLSearchParams({ limit: String(limit) });
+    if (cursor) {
+      params.set('cursor', cursor);
+    }
+    const response = await fetchWithTimeout(`${url}?${params}`);
+    items.push(...await response.json());
+    cursor = response.headers.get('X-Next-Cursor');
+  } while (cursor);
+  return items;
+}
+
 // 任务解析
 export const parseTaskAPI = (description, credentialsId) => {
   return request(`${API_BASE}/tasks/parse`, {
@@ -112,12 +133,12 @@ export const getKnowledgeGraphStatsAPI = () => {
 
 // 获取知识图谱元素模式
 export const getKnowledgeGraphPatternsAPI = () => {
-  return request(`${API_BASE}/kg/patterns`)
+  return requestAllPages(`${API_BASE}/kg/patterns`)
 }
 
 // 获取知识图谱异常案例
 export const getKnowledgeGraphCasesAPI = () => {
-  return request(`${API_BASE}/kg/cases`)
+  return requestAllPages(`${API_BASE}/kg/cases`)
 }
 
 // 删除知识图谱元素模式